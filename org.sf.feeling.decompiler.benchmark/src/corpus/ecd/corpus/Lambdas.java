@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package ecd.corpus;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Capturing and non capturing lambdas, method references and streams.
+ */
+public class Lambdas {
+
+	private final int offset;
+
+	public Lambdas(int offset) {
+		this.offset = offset;
+	}
+
+	public List<String> names(List<String> input, String prefix) {
+		return input.stream().filter(s -> !s.isEmpty()).map(s -> prefix + s.trim()).sorted(Comparator.reverseOrder())
+				.collect(Collectors.toList());
+	}
+
+	public Map<Integer, List<String>> byLength(List<String> input) {
+		return input.stream().collect(Collectors.groupingBy(String::length));
+	}
+
+	public int sumOfSquares(int n) {
+		return IntStream.rangeClosed(1, n).map(i -> i * i + offset).sum();
+	}
+
+	public Function<Integer, Integer> adder(int amount) {
+		return x -> x + amount + offset;
+	}
+
+	public Supplier<List<String>> factory() {
+		return ArrayList::new;
+	}
+
+	public <T> Predicate<T> not(Predicate<T> predicate) {
+		return predicate.negate();
+	}
+
+	public BiFunction<String, Integer, String> repeater() {
+		return (s, count) -> {
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < count; i++) {
+				builder.append(s);
+			}
+			return builder.toString();
+		};
+	}
+
+	public Runnable nested(List<Runnable> sink) {
+		return () -> sink.forEach(r -> {
+			Runnable inner = () -> r.run();
+			inner.run();
+		});
+	}
+
+	public static Comparator<Lambdas> byOffset() {
+		return Comparator.comparingInt(l -> l.offset);
+	}
+}
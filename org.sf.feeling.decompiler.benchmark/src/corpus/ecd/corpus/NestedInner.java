@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package ecd.corpus;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Deeply nested member, static, local and anonymous classes accessing the
+ * state of their enclosing instances.
+ */
+public class NestedInner {
+
+	private int counter;
+
+	public class Level1 {
+
+		private int value1 = counter + 1;
+
+		public class Level2 {
+
+			private int value2 = value1 + counter;
+
+			public class Level3 {
+
+				private int value3 = value2 + value1;
+
+				public class Level4 {
+
+					public int sum() {
+						counter++;
+						return counter + value1 + value2 + value3;
+					}
+
+					public Runnable callback() {
+						return new Runnable() {
+
+							@Override
+							public void run() {
+								value3 += sum();
+							}
+						};
+					}
+				}
+			}
+		}
+	}
+
+	public static class StaticNested {
+
+		static class Deeper {
+
+			static final class Deepest {
+
+				private final String name;
+
+				Deepest(String name) {
+					this.name = name;
+				}
+
+				String name() {
+					return name;
+				}
+			}
+		}
+	}
+
+	public Iterable<Integer> range(final int from, final int to) {
+		class RangeIterator implements Iterator<Integer> {
+
+			private int next = from;
+
+			@Override
+			public boolean hasNext() {
+				return next < to;
+			}
+
+			@Override
+			public Integer next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				counter++;
+				return next++;
+			}
+		}
+		return new Iterable<Integer>() {
+
+			@Override
+			public Iterator<Integer> iterator() {
+				return new RangeIterator();
+			}
+		};
+	}
+
+	public int deep() {
+		Level1.Level2.Level3.Level4 level4 = new Level1().new Level2().new Level3().new Level4();
+		level4.callback().run();
+		return level4.sum() + new StaticNested.Deeper.Deepest("x").name().length();
+	}
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package ecd.corpus;
+
+/**
+ * Sealed interface with records and pattern matching.
+ */
+public sealed interface Shapes permits Shapes.Circle, Shapes.Rectangle, Shapes.Square {
+
+	double area();
+
+	record Circle(double radius) implements Shapes {
+
+		public Circle {
+			if (radius < 0) {
+				throw new IllegalArgumentException("radius " + radius);
+			}
+		}
+
+		@Override
+		public double area() {
+			return Math.PI * radius * radius;
+		}
+	}
+
+	record Rectangle(double width, double height) implements Shapes {
+
+		@Override
+		public double area() {
+			return width * height;
+		}
+	}
+
+	final class Square implements Shapes {
+
+		private final double side;
+
+		public Square(double side) {
+			this.side = side;
+		}
+
+		@Override
+		public double area() {
+			return side * side;
+		}
+	}
+
+	static String describe(Object shape) {
+		if (shape instanceof Circle c && c.radius() > 10) {
+			return "large circle " + c.radius();
+		} else if (shape instanceof Circle c) {
+			return "circle " + c.radius();
+		} else if (shape instanceof Rectangle r) {
+			return "rectangle " + r.width() + "x" + r.height();
+		} else if (shape instanceof Square) {
+			return "square";
+		}
+		return "unknown";
+	}
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package ecd.corpus;
+
+import java.util.Objects;
+
+/**
+ * Small bean: fields, accessors, equals, hashCode and toString.
+ */
+public class SmallPojo {
+
+	private String name;
+	private int age;
+	private boolean active;
+	private long[] scores = new long[0];
+
+	public SmallPojo() {
+	}
+
+	public SmallPojo(String name, int age) {
+		this.name = name;
+		this.age = age;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int getAge() {
+		return age;
+	}
+
+	public void setAge(int age) {
+		if (age < 0) {
+			throw new IllegalArgumentException("age " + age);
+		}
+		this.age = age;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	public void setActive(boolean active) {
+		this.active = active;
+	}
+
+	public long[] getScores() {
+		return scores.clone();
+	}
+
+	public void setScores(long[] scores) {
+		this.scores = scores.clone();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof SmallPojo)) {
+			return false;
+		}
+		SmallPojo other = (SmallPojo) obj;
+		return age == other.age && active == other.active && Objects.equals(name, other.name);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(name, age, active);
+	}
+
+	@Override
+	public String toString() {
+		return "SmallPojo[name=" + name + ", age=" + age + ", active=" + active + "]";
+	}
+}
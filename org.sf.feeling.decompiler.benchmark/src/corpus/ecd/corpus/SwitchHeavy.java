@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package ecd.corpus;
+
+/**
+ * Large table, lookup, string and enum switches with fall through.
+ */
+public class SwitchHeavy {
+
+	public enum Opcode {
+		LOAD, STORE, ADD, SUB, MUL, DIV, JUMP, CALL, RETURN, NOP
+	}
+
+	public int step(int opcode, int acc) {
+		switch (opcode) {
+		case 0:
+			acc += 7;
+			break;
+		case 1:
+			acc -= 38;
+			break;
+		case 2:
+			acc *= 4;
+			break;
+		case 3:
+			acc ^= 100;
+			break;
+		case 4:
+			acc = (acc << 5) | (acc >>> (32 - 5));
+			break;
+		case 5:
+			acc = Integer.rotateRight(acc, 6);
+			break;
+		case 6:
+			acc += 193;
+			break;
+		case 7:
+			acc -= 224;
+			break;
+		case 8:
+			acc *= 5;
+			// fall through
+		case 9:
+			acc ^= 286;
+			break;
+		case 10:
+			acc = (acc << 4) | (acc >>> (32 - 4));
+			break;
+		case 11:
+			acc = Integer.rotateRight(acc, 5);
+			break;
+		case 12:
+			if (acc > 1200) {
+				return acc - 12;
+			}
+			acc += 379;
+			break;
+		case 13:
+			acc -= 410;
+			break;
+		case 14:
+			acc *= 6;
+			break;
+		case 15:
+			acc ^= 472;
+			break;
+		case 16:
+			acc = (acc << 3) | (acc >>> (32 - 3));
+			break;
+		case 17:
+			acc = Integer.rotateRight(acc, 4);
+			// fall through
+		case 18:
+			acc += 565;
+			break;
+		case 19:
+			acc -= 596;
+			break;
+		case 20:
+			acc *= 2;
+			break;
+		case 21:
+			acc ^= 658;
+			break;
+		case 22:
+			acc = (acc << 2) | (acc >>> (32 - 2));
+			break;
+		case 23:
+			acc = Integer.rotateRight(acc, 3);
+			break;
+		case 24:
+			acc += 751;
+			break;
+		case 25:
+			if (acc > 2500) {
+				return acc - 25;
+			}
+			acc -= 782;
+			break;
+		case 26:
+			acc *= 3;
+			// fall through
+		case 27:
+			acc ^= 844;
+			break;
+		case 28:
+			acc = (acc << 1) | (acc >>> (32 - 1));
+			break;
+		case 29:
+			acc = Integer.rotateRight(acc, 2);
+			break;
+		case 30:
+			acc += 937;
+			break;
+		case 31:
+			acc -= 968;
+			break;
+		case 32:
+			acc *= 4;
+			break;
+		case 33:
+			acc ^= 1030;
+			break;
+		case 34:
+			acc = (acc << 7) | (acc >>> (32 - 7));
+			break;
+		case 35:
+			acc = Integer.rotateRight(acc, 1);
+			// fall through
+		case 36:
+			acc += 1123;
+			break;
+		case 37:
+			acc -= 1154;
+			break;
+		case 38:
+			if (acc > 3800) {
+				return acc - 38;
+			}
+			acc *= 5;
+			break;
+		case 39:
+			acc ^= 1216;
+			break;
+		case 40:
+			acc = (acc << 6) | (acc >>> (32 - 6));
+			break;
+		case 41:
+			acc = Integer.rotateRight(acc, 7);
+			break;
+		case 42:
+			acc += 1309;
+			break;
+		case 43:
+			acc -= 1340;
+			break;
+		case 44:
+			acc *= 6;
+			// fall through
+		case 45:
+			acc ^= 1402;
+			break;
+		case 46:
+			acc = (acc << 5) | (acc >>> (32 - 5));
+			break;
+		case 47:
+			acc = Integer.rotateRight(acc, 6);
+			break;
+		case 48:
+			acc += 1495;
+			break;
+		case 49:
+			acc -= 1526;
+			break;
+		case 50:
+			acc *= 2;
+			break;
+		case 51:
+			if (acc > 5100) {
+				return acc - 51;
+			}
+			acc ^= 1588;
+			break;
+		case 52:
+			acc = (acc << 4) | (acc >>> (32 - 4));
+			break;
+		case 53:
+			acc = Integer.rotateRight(acc, 5);
+			// fall through
+		case 54:
+			acc += 1681;
+			break;
+		case 55:
+			acc -= 1712;
+			break;
+		case 56:
+			acc *= 3;
+			break;
+		case 57:
+			acc ^= 1774;
+			break;
+		case 58:
+			acc = (acc << 3) | (acc >>> (32 - 3));
+			break;
+		case 59:
+			acc = Integer.rotateRight(acc, 4);
+			break;
+		case 60:
+			acc += 1867;
+			break;
+		case 61:
+			acc -= 1898;
+			break;
+		case 62:
+			acc *= 4;
+			// fall through
+		case 63:
+			acc ^= 1960;
+			break;
+		default:
+			acc = ~acc;
+		}
+		return acc;
+	}
+
+	public int sparse(int key) {
+		switch (key) {
+		case -1000:
+			return 1;
+		case 7:
+			return 2;
+		case 4096:
+			return 3;
+		case 65536:
+			return 4;
+		case 1 << 20:
+			return 5;
+		case Integer.MAX_VALUE:
+			return 6;
+		default:
+			return 0;
+		}
+	}
+
+	public int code(String word) {
+		switch (word) {
+		case "alpha":
+			return 0;
+		case "bravo":
+			return 1;
+		case "charlie":
+			return 2;
+		case "delta":
+			return 3;
+		case "echo":
+			return 4;
+		case "foxtrot":
+			return 5;
+		case "golf":
+			return 6;
+		case "hotel":
+			return 7;
+		case "india":
+			return 8;
+		case "juliet":
+			return 9;
+		case "kilo":
+			return 10;
+		case "lima":
+			return 11;
+		case "mike":
+			return 12;
+		case "november":
+			return 13;
+		case "oscar":
+			return 14;
+		case "papa":
+			return 15;
+		case "quebec":
+			return 16;
+		case "romeo":
+			return 17;
+		case "sierra":
+			return 18;
+		case "tango":
+			return 19;
+		case "uniform":
+			return 20;
+		case "victor":
+			return 21;
+		case "whiskey":
+			return 22;
+		case "xray":
+			return 23;
+		case "yankee":
+			return 24;
+		case "zulu":
+			return 25;
+		default:
+			return -1;
+		}
+	}
+
+	public int execute(Opcode[] program, int[] stack) {
+		int sp = 0;
+		int pc = 0;
+		loop: while (pc < program.length) {
+			Opcode op = program[pc++];
+			switch (op) {
+			case LOAD:
+				stack[sp++] = pc;
+				break;
+			case STORE:
+				sp--;
+				break;
+			case ADD:
+				stack[sp - 2] += stack[--sp];
+				break;
+			case SUB:
+				stack[sp - 2] -= stack[--sp];
+				break;
+			case MUL:
+				stack[sp - 2] *= stack[--sp];
+				break;
+			case DIV:
+				if (stack[sp - 1] == 0) {
+					throw new ArithmeticException("division by zero at " + pc);
+				}
+				stack[sp - 2] /= stack[--sp];
+				break;
+			case JUMP:
+				pc = stack[--sp];
+				continue loop;
+			case CALL:
+				stack[sp++] = step(stack[sp - 2] & 63, stack[sp - 1]);
+				break;
+			case RETURN:
+				break loop;
+			default:
+				break;
+			}
+		}
+		return sp == 0 ? 0 : stack[sp - 1];
+	}
+}
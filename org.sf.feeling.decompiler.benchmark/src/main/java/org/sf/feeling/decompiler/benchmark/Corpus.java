@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The classes the benchmarks decompile. They are checked in as
+ * <code>src/corpus/corpus.jar</code> (directory in the system property
+ * <code>ecd.benchmark.corpus</code>), next to their sources, so every run
+ * decompiles the same bytes whatever JDK it runs on. The jar is extracted into
+ * a class folder once per benchmark JVM.
+ * <p>
+ * The sources use records and sealed types. After changing them, rebuild the
+ * jar in <code>src/corpus</code> with
+ * <code>javac --release 17 -g -d classes ecd/corpus/*.java</code> and
+ * <code>jar --create --no-manifest --date=2020-01-01T00:00:00Z
+ * --file corpus.jar -C classes ecd</code>.
+ */
+final class Corpus {
+
+	static final String PACKAGE = "ecd/corpus"; //$NON-NLS-1$
+
+	private static Corpus instance;
+
+	private final File classes;
+	private final File archive;
+
+	private Corpus(File archive, File workDirectory) throws IOException {
+		this.archive = archive;
+		classes = new File(workDirectory, "classes"); //$NON-NLS-1$
+		extract();
+	}
+
+	static synchronized Corpus get() throws IOException {
+		if (instance == null) {
+			File sources = new File(System.getProperty("ecd.benchmark.corpus", "src/corpus")); //$NON-NLS-1$ //$NON-NLS-2$
+			File archive = new File(sources, "corpus.jar"); //$NON-NLS-1$
+			if (!archive.isFile()) {
+				throw new IOException("Corpus not found: " + archive.getAbsolutePath()); //$NON-NLS-1$
+			}
+			final File workDirectory = Files.createTempDirectory("ecd-benchmark").toFile(); //$NON-NLS-1$
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+
+				@Override
+				public void run() {
+					delete(workDirectory);
+				}
+			});
+			instance = new Corpus(archive, workDirectory);
+		}
+		return instance;
+	}
+
+	/**
+	 * @return the class folder
+	 */
+	File getClasses() {
+		return classes;
+	}
+
+	/**
+	 * @return the jar containing the same classes as the class folder
+	 */
+	File getArchive() {
+		return archive;
+	}
+
+	private void extract() throws IOException {
+		try (ZipFile zip = new ZipFile(archive)) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.isDirectory() || !entry.getName().endsWith(".class")) { //$NON-NLS-1$
+					continue;
+				}
+				File file = new File(classes, entry.getName());
+				if (!file.getCanonicalPath().startsWith(classes.getCanonicalPath() + File.separator)) {
+					throw new IOException("Invalid entry in the corpus: " + entry.getName()); //$NON-NLS-1$
+				}
+				file.getParentFile().mkdirs();
+				try (InputStream in = zip.getInputStream(entry)) {
+					Files.copy(in, file.toPath());
+				}
+			}
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sf.feeling.decompiler.cfr.CfrDecompilerPlugin;
+import org.sf.feeling.decompiler.cfr.decompiler.CfrDecompiler;
+import org.sf.feeling.decompiler.editor.DecompilationResult;
+import org.sf.feeling.decompiler.editor.DecompilerOptions;
+import org.sf.feeling.decompiler.editor.DecompilerType;
+import org.sf.feeling.decompiler.editor.IDecompiler;
+import org.sf.feeling.decompiler.fernflower.FernFlowerDecompiler;
+import org.sf.feeling.decompiler.jd.JDCoreDecompilerPlugin;
+import org.sf.feeling.decompiler.jd.decompiler.JDCoreDecompiler;
+import org.sf.feeling.decompiler.jd.decompiler.JDCoreSourceMapper;
+import org.sf.feeling.decompiler.procyon.ProcyonDecompilerPlugin;
+import org.sf.feeling.decompiler.procyon.decompiler.ProcyonDecompiler;
+
+/**
+ * Latency of every decompiler adapter for every class of the {@link Corpus},
+ * read from a class folder ({@link IDecompiler#decompile}) and from a jar
+ * ({@link IDecompiler#decompileFromArchive}).
+ * <p>
+ * The <code>cold</code> benchmarks measure the first decompilation in a fresh
+ * JVM, including loading the engine, the <code>warm</code> benchmarks the
+ * steady state. The allocation rate is reported by the <code>gc</code>
+ * profiler, which the Maven configuration enables.
+ * <p>
+ * Jad is not measured, it runs the native executable configured in the
+ * workbench preferences.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DecompilerBenchmark {
+
+	@Param({ DecompilerType.FernFlower, CfrDecompilerPlugin.decompilerType, ProcyonDecompilerPlugin.decompilerType,
+			JDCoreDecompilerPlugin.decompilerType })
+	public String decompiler;
+
+	@Param({ "SmallPojo", "SwitchHeavy", "Lambdas", "Shapes", "NestedInner" })
+	public String corpusClass;
+
+	private IDecompiler engine;
+	private DecompilerOptions options;
+	private String root;
+	private String archive;
+	private String className;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Corpus corpus = Corpus.get();
+		root = corpus.getClasses().getAbsolutePath();
+		archive = corpus.getArchive().getAbsolutePath();
+		className = corpusClass + ".class"; //$NON-NLS-1$
+		// the defaults of the preferences
+		options = new DecompilerOptions(false, false, false);
+		engine = createDecompiler(decompiler);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(10)
+	public DecompilationResult coldDecompile() {
+		return engine.decompile(options, root, Corpus.PACKAGE, className);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(10)
+	public DecompilationResult coldDecompileFromArchive() {
+		return engine.decompileFromArchive(options, archive, Corpus.PACKAGE, className);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 5, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	@Fork(2)
+	public DecompilationResult warmDecompile() {
+		return engine.decompile(options, root, Corpus.PACKAGE, className);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 5, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	@Fork(2)
+	public DecompilationResult warmDecompileFromArchive() {
+		return engine.decompileFromArchive(options, archive, Corpus.PACKAGE, className);
+	}
+
+	private static IDecompiler createDecompiler(String type) {
+		switch (type) {
+		case DecompilerType.FernFlower:
+			return new FernFlowerDecompiler();
+		case CfrDecompilerPlugin.decompilerType:
+			return new CfrDecompiler();
+		case ProcyonDecompilerPlugin.decompilerType:
+			return new ProcyonDecompiler();
+		case JDCoreDecompilerPlugin.decompilerType:
+			return new JDCoreDecompiler(new JDCoreSourceMapper());
+		default:
+			throw new IllegalArgumentException("Unknown decompiler: " + type); //$NON-NLS-1$
+		}
+	}
+}
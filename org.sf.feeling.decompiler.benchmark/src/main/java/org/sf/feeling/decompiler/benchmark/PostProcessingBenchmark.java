@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.internal.ui.preferences.MembersOrderPreferenceCache;
+import org.eclipse.jdt.ui.PreferenceConstants;
+import org.eclipse.jface.preference.PreferenceStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sf.feeling.decompiler.editor.DecompilerSourceMapper;
+import org.sf.feeling.decompiler.jd.JDCoreDecompilerPlugin;
+import org.sf.feeling.decompiler.util.DecompilerOutputUtil;
+import org.sf.feeling.decompiler.util.SortMemberUtil;
+import org.sf.feeling.decompiler.util.SourceLexer;
+
+/**
+ * The stages <code>BaseDecompilerSourceMapper</code> runs on the source of
+ * every decompiled class, for sources of 1k, 10k and 50k lines made by the
+ * {@link SourceGenerator}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PostProcessingBenchmark {
+
+	/**
+	 * The default member sort order of JDT, the workbench preferences are not
+	 * available outside of it.
+	 */
+	@State(Scope.Benchmark)
+	public static class MemberOrder {
+
+		private MembersOrderPreferenceCache memberOrder;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			PreferenceStore store = new PreferenceStore();
+			store.setDefault(PreferenceConstants.APPEARANCE_MEMBER_SORT_ORDER, "T,SF,SI,SM,F,I,C,M"); //$NON-NLS-1$
+			store.setDefault(PreferenceConstants.APPEARANCE_VISIBILITY_SORT_ORDER, "B,V,R,D"); //$NON-NLS-1$
+			store.setDefault(PreferenceConstants.APPEARANCE_ENABLE_VISIBILITY_SORT_ORDER, false);
+			memberOrder = new MembersOrderPreferenceCache();
+			memberOrder.install(store);
+		}
+	}
+
+	@Param({ "1000", "10000", "50000" })
+	public int lines;
+
+	private String source;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		source = SourceGenerator.generate(lines);
+	}
+
+	@Benchmark
+	public String realign() {
+		return new DecompilerOutputUtil(JDCoreDecompilerPlugin.decompilerType, source).realign();
+	}
+
+	@Benchmark
+	public String formatSource() {
+		return DecompilerSourceMapper.format(source);
+	}
+
+	@Benchmark
+	public String sortMember(MemberOrder memberOrder) {
+		return SortMemberUtil.sortMember(source, memberOrder.memberOrder);
+	}
+
+	@Benchmark
+	public String decode() {
+		return SourceLexer.decode(source);
+	}
+
+	@Benchmark
+	public String extractComments() {
+		return SourceLexer.process(source, true, SourceLexer.LINE_NUMBER_COMMENT, new StringBuilder());
+	}
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.benchmark;
+
+/**
+ * Generates sources which look like the output of a decompiler with line
+ * numbers: every statement starts with a <code>/* 12 *&#47;</code> comment,
+ * string literals contain unicode escapes and the decompiler left some comments
+ * behind. The output only depends on the number of lines.
+ */
+final class SourceGenerator {
+
+	static final String PACKAGE = "ecd.generated"; //$NON-NLS-1$
+
+	static final String CLASS_NAME = "Generated"; //$NON-NLS-1$
+
+	private final StringBuilder source = new StringBuilder();
+	private int lines;
+
+	private SourceGenerator() {
+	}
+
+	/**
+	 * @return a compilation unit with about the given number of lines
+	 */
+	static String generate(int lineCount) {
+		SourceGenerator generator = new SourceGenerator();
+		generator.generateUnit(lineCount);
+		return generator.source.toString();
+	}
+
+	private void generateUnit(int lineCount) {
+		line("/*"); //$NON-NLS-1$
+		line(" * Decompiled with CFR 0.151."); //$NON-NLS-1$
+		line(" */"); //$NON-NLS-1$
+		line("package " + PACKAGE + ";"); //$NON-NLS-1$ //$NON-NLS-2$
+		line(""); //$NON-NLS-1$
+		line("import java.util.ArrayList;"); //$NON-NLS-1$
+		line("import java.util.List;"); //$NON-NLS-1$
+		line("import java.util.Map;"); //$NON-NLS-1$
+		line(""); //$NON-NLS-1$
+		line("public class " + CLASS_NAME + " {"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		// members in reverse order, so sorting has to move them
+		int member = 0;
+		while (lines < lineCount - 1) {
+			if (member % 5 == 4) {
+				field(member);
+			} else if (member % 7 == 6) {
+				innerClass(member);
+			} else {
+				method(member);
+			}
+			member++;
+		}
+		line("}"); //$NON-NLS-1$
+	}
+
+	private void field(int member) {
+		line("    /* " + lines + " */ private static final String FIELD_" + member //$NON-NLS-1$ //$NON-NLS-2$
+				+ " = \"caf\\u00e9 \\u00fcber " + member + "\";"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private void innerClass(int member) {
+		line("    /* synthetic */ static class Inner" + member + " {"); //$NON-NLS-1$ //$NON-NLS-2$
+		line("        /* " + lines + " */ int value;"); //$NON-NLS-1$ //$NON-NLS-2$
+		line(""); //$NON-NLS-1$
+		line("        /* " + lines + " */ Inner" + member + "(int value) {"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		line("            /* " + lines + " */ this.value = value;"); //$NON-NLS-1$ //$NON-NLS-2$
+		line("        }"); //$NON-NLS-1$
+		line("    }"); //$NON-NLS-1$
+		line(""); //$NON-NLS-1$
+	}
+
+	private void method(int member) {
+		line("    public List<String> method" + (100000 - member) //$NON-NLS-1$
+				+ "(Map<String, Integer> map, int limit) {"); //$NON-NLS-1$
+		line("        /* " + lines + " */ ArrayList<String> result = new ArrayList<String>();"); //$NON-NLS-1$ //$NON-NLS-2$
+		line("        /* " + lines //$NON-NLS-1$
+				+ " */ for (Map.Entry<String, Integer> entry : map.entrySet()) {"); //$NON-NLS-1$
+		line("            /* " + lines + " */ if (entry.getValue() > limit) {"); //$NON-NLS-1$ //$NON-NLS-2$
+		line("                /* " + lines //$NON-NLS-1$
+				+ " */ result.add(entry.getKey() + \"\\u2192\" + " + member + ");"); //$NON-NLS-1$ //$NON-NLS-2$
+		line("                continue;"); //$NON-NLS-1$
+		line("            }"); //$NON-NLS-1$
+		line("            /* " + lines + " */ switch (entry.getKey().length()) {"); //$NON-NLS-1$ //$NON-NLS-2$
+		line("                case 0: {"); //$NON-NLS-1$
+		line("                    /* " + lines + " */ limit++;"); //$NON-NLS-1$ //$NON-NLS-2$
+		line("                    break;"); //$NON-NLS-1$
+		line("                }"); //$NON-NLS-1$
+		line("                default: {"); //$NON-NLS-1$
+		line("                    /* " + lines + " */ limit -= entry.getKey().hashCode() % 3;"); //$NON-NLS-1$ //$NON-NLS-2$
+		line("                }"); //$NON-NLS-1$
+		line("            }"); //$NON-NLS-1$
+		line("        }"); //$NON-NLS-1$
+		line("        /* " + lines + " */ return result;"); //$NON-NLS-1$ //$NON-NLS-2$
+		line("    }"); //$NON-NLS-1$
+		line(""); //$NON-NLS-1$
+	}
+
+	private void line(String line) {
+		source.append(line).append('\n');
+		lines++;
+	}
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.cfr.decompiler;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.benf.cfr.reader.apiunreleased.ClassFileSource2;
+import org.benf.cfr.reader.apiunreleased.JarContent;
+import org.benf.cfr.reader.bytecode.analysis.parse.utils.Pair;
+import org.benf.cfr.reader.state.ClassFileSourceImpl;
+import org.benf.cfr.reader.util.AnalysisType;
+import org.benf.cfr.reader.util.getopt.Options;
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
+
+/**
+ * CFR class file source which serves the classes of the decompiled archive
+ * from an {@link IClassBytesProvider}. Classes not found there, e.g. JRE
+ * classes, are looked up by CFR's default class file source.
+ */
+class CfrClassFileSource implements ClassFileSource2 {
+
+	private final ClassFileSource2 fallback;
+	private volatile IClassBytesProvider provider;
+
+	CfrClassFileSource(Options options) {
+		this.fallback = new ClassFileSourceImpl(options);
+	}
+
+	/**
+	 * Sets the provider serving the class bytes of the current decompilation. The
+	 * provider may change between decompilations as long as it serves the same
+	 * archive.
+	 */
+	void setProvider(IClassBytesProvider provider) {
+		this.provider = provider;
+	}
+
+	@Override
+	public void informAnalysisRelativePathDetail(String usePath, String classFilePath) {
+		// paths are always relative to the archive root
+	}
+
+	@Override
+	public Collection<String> addJar(String jarPath) {
+		return fallback.addJar(jarPath);
+	}
+
+	@Override
+	public JarContent addJarContent(String jarPath, AnalysisType analysisType) {
+		return fallback.addJarContent(jarPath, analysisType);
+	}
+
+	@Override
+	public String getPossiblyRenamedPath(String path) {
+		return path;
+	}
+
+	@Override
+	public Pair<byte[], String> getClassFileContent(String path) throws IOException {
+		IClassBytesProvider current = provider;
+		if (current != null) {
+			int index = path.lastIndexOf('/');
+			String packege = (index == -1) ? "" : path.substring(0, index); //$NON-NLS-1$
+			byte[] bytes = current.getClassBytes(packege, path.substring(index + 1));
+			if (bytes != null) {
+				return Pair.make(bytes, path);
+			}
+		}
+		return fallback.getClassFileContent(path);
+	}
+}
@@ -9,173 +9,268 @@
 package org.sf.feeling.decompiler.cfr.decompiler;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.time.StopWatch;
-import org.benf.cfr.reader.apiunreleased.ClassFileSource2;
-import org.benf.cfr.reader.bytecode.analysis.parse.utils.Pair;
 import org.benf.cfr.reader.entities.ClassFile;
 import org.benf.cfr.reader.entities.Method;
-import org.benf.cfr.reader.state.ClassFileSourceImpl;
 import org.benf.cfr.reader.state.DCCommonState;
 import org.benf.cfr.reader.state.TypeUsageCollectingDumper;
 import org.benf.cfr.reader.state.TypeUsageInformation;
 import org.benf.cfr.reader.util.CannotLoadClassException;
-import org.benf.cfr.reader.util.getopt.GetOptParser;
 import org.benf.cfr.reader.util.getopt.Options;
 import org.benf.cfr.reader.util.getopt.OptionsImpl;
+import org.benf.cfr.reader.util.output.Dumper;
 import org.benf.cfr.reader.util.output.IllegalIdentifierDump;
 import org.benf.cfr.reader.util.output.MethodErrorCollector;
 import org.benf.cfr.reader.util.output.StringStreamDumper;
 import org.sf.feeling.decompiler.JavaDecompilerPlugin;
 import org.sf.feeling.decompiler.cfr.CfrDecompilerPlugin;
+import org.sf.feeling.decompiler.editor.DecompilationResult;
+import org.sf.feeling.decompiler.editor.DecompilerOptions;
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
 import org.sf.feeling.decompiler.editor.IDecompiler;
-import org.sf.feeling.decompiler.util.FileUtil;
-import org.sf.feeling.decompiler.util.JarClassExtractor;
-import org.sf.feeling.decompiler.util.UnicodeUtil;
+import org.sf.feeling.decompiler.editor.IInMemoryDecompiler;
+import org.sf.feeling.decompiler.util.ArchiveClassBytesProvider;
+import org.sf.feeling.decompiler.util.DirectoryClassBytesProvider;
+import org.sf.feeling.decompiler.util.LineMappingUtil;
+import org.sf.feeling.decompiler.util.SourceLexer;
 
-public class CfrDecompiler implements IDecompiler {
-
-	private String source = ""; //$NON-NLS-1$
-	private long time;
-	private String log = ""; //$NON-NLS-1$
+public class CfrDecompiler implements IInMemoryDecompiler {
 
 	/**
-	 * Performs a <code>Runtime.exec()</code> on CFR with selected options.
-	 * 
-	 * @see IDecompiler#decompile(String, String, String)
+	 * Number of archives for which the parsed CFR state is kept between
+	 * decompilations.
 	 */
-	@Override
-	public void decompile(String root, String packege, String className) {
-		StopWatch stopWatch = new StopWatch();
-		stopWatch.start();
-		log = ""; //$NON-NLS-1$
-		source = ""; //$NON-NLS-1$
-		File workingDir = new File(root + "/" + packege); //$NON-NLS-1$
+	private static final int MAX_CACHED_ARCHIVES = 4;
 
-		String classPathStr = new File(workingDir, className).getAbsolutePath();
+	/**
+	 * Line number comments of CFR, unlike {@link SourceLexer#LINE_NUMBER_COMMENT}
+	 * the number is surrounded by whitespace.
+	 */
+	private static final Pattern LINE_NUMBER_COMMENT = Pattern.compile("/\\*\\s+\\d*\\s+\\*/"); //$NON-NLS-1$
 
-		GetOptParser getOptParser = new GetOptParser();
+	private static Options options;
 
-		try {
-			Pair<List<String>, Options> options = getOptParser.parse(new String[] { classPathStr },
-					OptionsImpl.getFactory());
-			Options namedOptions = options.getSecond();
-			ClassFileSource2 classFileSource = new ClassFileSourceImpl(namedOptions);
-			DCCommonState dcCommonState = new DCCommonState(namedOptions, classFileSource);
-
-			IllegalIdentifierDump illegalIdentifierDump = IllegalIdentifierDump.Factory.get(namedOptions);
-
-			ClassFile classFile = dcCommonState.getClassFileMaybePath(classPathStr);
-			dcCommonState.configureWith(classFile);
-			try {
-				classFile = dcCommonState.getClassFile(classFile.getClassType());
-			} catch (CannotLoadClassException e) {
-				e.printStackTrace();
-			}
-			if (namedOptions.getOption(OptionsImpl.DECOMPILE_INNER_CLASSES).booleanValue()) {
-				classFile.loadInnerClasses(dcCommonState);
-			}
-			TypeUsageCollectingDumper typeUsageCollectingDumper = new TypeUsageCollectingDumper(namedOptions,
-					classFile);
+	/**
+	 * Options which let CFR report the bytecode locations of the statements, to
+	 * map the line numbers.
+	 */
+	private static Options lineNumberOptions;
 
-			classFile.analyseTop(dcCommonState, typeUsageCollectingDumper);
+	/**
+	 * Cached states per archive, there is more than one state per archive if
+	 * classes of it are decompiled concurrently.
+	 */
+	private static final Map<String, List<ArchiveState>> archiveStates = new LinkedHashMap<String,
+			List<ArchiveState>>(MAX_CACHED_ARCHIVES, 0.75f, true) {
 
-			TypeUsageInformation typeUsageInfo = typeUsageCollectingDumper.getRealTypeUsageInformation();
+		private static final long serialVersionUID = 1L;
 
-			MethodErrorCollector methodErrorCollector = new MethodErrorCollector() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, List<ArchiveState>> eldest) {
+			return size() > MAX_CACHED_ARCHIVES;
+		}
+	};
 
-				@Override
-				public void addSummaryError(Method paramMethod, String msg) {
-					log += String.format("\n%s: %s", paramMethod.toString(), msg);
-				}
+	/**
+	 * CFR state shared by successive decompilations of classes from the same
+	 * archive, so that referenced types are parsed only once.
+	 */
+	private static class ArchiveState {
 
-			};
+		private final long lastModified;
+		private final boolean lineNumbers;
+		private boolean inUse;
+		private final Options options;
+		private final CfrClassFileSource classFileSource;
+		private final DCCommonState dcCommonState;
 
-			StringBuilder stringBuilder = new StringBuilder(4096);
-			StringStreamDumper dumper = new StringStreamDumper(methodErrorCollector, stringBuilder, typeUsageInfo,
-					namedOptions, illegalIdentifierDump);
-			classFile.dump(dumper);
-			source = UnicodeUtil.decode(stringBuilder.toString().trim());
-
-			Pattern wp = Pattern.compile("/\\*.+?\\*/", Pattern.DOTALL); //$NON-NLS-1$
-			Matcher m = wp.matcher(source);
-			while (m.find()) {
-				if (m.group().matches("/\\*\\s+\\d*\\s+\\*/")) //$NON-NLS-1$
-					continue;
-				String group = m.group();
-				group = group.replace("/*", ""); //$NON-NLS-1$ //$NON-NLS-2$
-				group = group.replace("*/", ""); //$NON-NLS-1$ //$NON-NLS-2$
-				group = group.replace("*", ""); //$NON-NLS-1$ //$NON-NLS-2$
-				if (log.length() > 0) {
-					log += "\n"; //$NON-NLS-1$
-				}
-				log += group;
+		ArchiveState(long lastModified, boolean lineNumbers) {
+			this.lastModified = lastModified;
+			this.lineNumbers = lineNumbers;
+			this.options = getOptions(lineNumbers);
+			this.classFileSource = new CfrClassFileSource(options);
+			this.dcCommonState = new DCCommonState(options, classFileSource);
+		}
+	}
 
-				source = source.replace(m.group(), "").trim(); //$NON-NLS-1$
+	private static synchronized Options getOptions(boolean lineNumbers) {
+		if (lineNumbers) {
+			if (lineNumberOptions == null) {
+				Map<String, String> optionMap = new HashMap<String, String>();
+				optionMap.put(OptionsImpl.TRACK_BYTECODE_LOC.getName(), Boolean.TRUE.toString());
+				lineNumberOptions = new OptionsImpl(optionMap);
 			}
-
-		} catch (Exception e) {
-			JavaDecompilerPlugin.logError(e, e.getMessage());
+			return lineNumberOptions;
 		}
-
-		time = stopWatch.getTime();
+		if (options == null) {
+			options = new OptionsImpl(new HashMap<String, String>());
+		}
+		return options;
 	}
 
 	/**
-	 * Jad doesn't support decompilation from archives. This methods extracts
-	 * request class file from the specified archive into temp directory and then
-	 * calls <code>decompile</code>.
+	 * Returns an unused cached state for an archive, or a new state if all are in
+	 * use, the archive has changed since or the classes come from a class folder.
+	 * The state has to be returned through {@link #releaseArchiveState}.
 	 * 
-	 * @see IDecompiler#decompileFromArchive(String, String, String)
+	 * @param lineNumbers whether the state reports the bytecode locations
 	 */
-	@Override
-	public void decompileFromArchive(String archivePath, String packege, String className) {
-		StopWatch stopWatch = new StopWatch();
-		stopWatch.start();
-		String tempDir = JavaDecompilerPlugin.getDefault().getPreferenceStore()
-				.getString(JavaDecompilerPlugin.TEMP_DIR);
-		File workingDir = new File(tempDir + "/ecd_cfr_" + System.currentTimeMillis()); //$NON-NLS-1$
-		try {
-			workingDir.mkdirs();
-			JarClassExtractor.extract(archivePath, packege, className, true, workingDir.getAbsolutePath());
-			decompile(workingDir.getAbsolutePath(), "", className); //$NON-NLS-1$
-			time = stopWatch.getTime();
-		} catch (Exception e) {
-			JavaDecompilerPlugin.logError(e, e.getMessage());
-			return;
-		} finally {
-			FileUtil.deltree(workingDir);
+	private static ArchiveState acquireArchiveState(String location, boolean lineNumbers) {
+		File file = (location == null) ? null : new File(location);
+		if (file == null || !file.isFile()) {
+			return new ArchiveState(0, lineNumbers);
+		}
+
+		synchronized (archiveStates) {
+			List<ArchiveState> states = archiveStates.get(location);
+			if (states == null || (!states.isEmpty() && states.get(0).lastModified != file.lastModified())) {
+				states = new ArrayList<>();
+				archiveStates.put(location, states);
+			}
+			for (ArchiveState state : states) {
+				if (!state.inUse && state.lineNumbers == lineNumbers) {
+					state.inUse = true;
+					return state;
+				}
+			}
+			ArchiveState state = new ArchiveState(file.lastModified(), lineNumbers);
+			state.inUse = true;
+			states.add(state);
+			return state;
 		}
 	}
 
-	@Override
-	public long getDecompilationTime() {
-		return time;
+	private static void releaseArchiveState(ArchiveState state) {
+		synchronized (archiveStates) {
+			state.inUse = false;
+		}
 	}
 
+	/**
+	 * Decompiles a class file located in the file system.
+	 * 
+	 * @see IDecompiler#decompile(DecompilerOptions, String, String, String)
+	 */
 	@Override
-	public List<Exception> getExceptions() {
-		return Collections.emptyList();
+	public DecompilationResult decompile(DecompilerOptions options, String root, String packege, String className) {
+		return decompileFromBytes(options, new DirectoryClassBytesProvider(root), packege, className);
 	}
 
 	/**
-	 * @see IDecompiler#getLog()
+	 * Decompiles a class file located in an archive. The classes are read
+	 * straight from the archive instead of being extracted into the temporary
+	 * directory.
+	 * 
+	 * @see IDecompiler#decompileFromArchive(DecompilerOptions, String, String,
+	 *      String)
 	 */
 	@Override
-	public String getLog() {
-		return log;
+	public DecompilationResult decompileFromArchive(DecompilerOptions options, String archivePath, String packege,
+			String className) {
+		StopWatch stopWatch = new StopWatch();
+		stopWatch.start();
+		try (ArchiveClassBytesProvider provider = new ArchiveClassBytesProvider(archivePath)) {
+			return decompileFromBytes(options, provider, packege, className);
+		} catch (Exception e) {
+			JavaDecompilerPlugin.logError(e, e.getMessage());
+			return DecompilationResult.empty(getDecompilerType(), stopWatch.getTime(), Collections.singletonList(e));
+		}
 	}
 
 	/**
-	 * @see IDecompiler#getSource()
+	 * If the source is realigned the line mapping of the result holds pairs of
+	 * original line number and decompiled line number.
+	 * 
+	 * @see IInMemoryDecompiler#decompileFromBytes(DecompilerOptions,
+	 *      IClassBytesProvider, String, String)
 	 */
 	@Override
-	public String getSource() {
-		return source;
+	public DecompilationResult decompileFromBytes(DecompilerOptions options, IClassBytesProvider provider,
+			String packege, String className) {
+		StopWatch stopWatch = new StopWatch();
+		stopWatch.start();
+		final StringBuilder log = new StringBuilder();
+		String source = ""; //$NON-NLS-1$
+		int[] lineMapping = null;
+		List<Exception> exceptions = new ArrayList<>();
+
+		String classPathStr = (packege.length() == 0) ? className : packege + "/" + className; //$NON-NLS-1$
+
+		try {
+			ArchiveState state = acquireArchiveState(provider.getLocation(), options.isRealign());
+			Options namedOptions = state.options;
+			CfrLineNumberDumper lineNumberDumper = null;
+
+			StringBuilder stringBuilder = new StringBuilder(4096);
+			synchronized (state) {
+				state.classFileSource.setProvider(provider);
+				try {
+					DCCommonState dcCommonState = state.dcCommonState;
+
+					IllegalIdentifierDump illegalIdentifierDump = IllegalIdentifierDump.Factory.get(namedOptions);
+
+					ClassFile classFile = dcCommonState.getClassFileMaybePath(classPathStr);
+					dcCommonState.configureWith(classFile);
+					try {
+						classFile = dcCommonState.getClassFile(classFile.getClassType());
+					} catch (CannotLoadClassException e) {
+						e.printStackTrace();
+					}
+					if (namedOptions.getOption(OptionsImpl.DECOMPILE_INNER_CLASSES).booleanValue()) {
+						classFile.loadInnerClasses(dcCommonState);
+					}
+					TypeUsageCollectingDumper typeUsageCollectingDumper = new TypeUsageCollectingDumper(namedOptions,
+							classFile);
+
+					classFile.analyseTop(dcCommonState, typeUsageCollectingDumper);
+
+					TypeUsageInformation typeUsageInfo = typeUsageCollectingDumper.getRealTypeUsageInformation();
+
+					MethodErrorCollector methodErrorCollector = new MethodErrorCollector() {
+
+						@Override
+						public void addSummaryError(Method paramMethod, String msg) {
+							log.append(String.format("\n%s: %s", paramMethod.toString(), msg));
+						}
+
+					};
+
+					Dumper dumper = new StringStreamDumper(methodErrorCollector, stringBuilder, typeUsageInfo,
+							namedOptions, illegalIdentifierDump);
+					if (state.lineNumbers) {
+						lineNumberDumper = new CfrLineNumberDumper(dumper);
+						dumper = lineNumberDumper;
+					}
+					classFile.dump(dumper);
+				} finally {
+					state.classFileSource.setProvider(null);
+					releaseArchiveState(state);
+				}
+			}
+			if (lineNumberDumper != null) {
+				lineMapping = lineNumberDumper.getLineMapping();
+			}
+			String dumped = stringBuilder.toString();
+			LineMappingUtil.shift(lineMapping, -LineMappingUtil.countLeadingLines(dumped));
+			source = SourceLexer.process(dumped.trim(), true, LINE_NUMBER_COMMENT, log, lineMapping);
+			LineMappingUtil.shift(lineMapping, -LineMappingUtil.countLeadingLines(source));
+			source = source.trim();
+
+		} catch (Exception e) {
+			JavaDecompilerPlugin.logError(e, e.getMessage());
+			exceptions.add(e);
+		}
+
+		return new DecompilationResult(getDecompilerType(), source, lineMapping, stopWatch.getTime(), exceptions,
+				log.toString());
 	}
 
 	@Override
@@ -195,11 +290,11 @@ public class CfrDecompiler implements IDecompiler {
 
 	@Override
 	public boolean supportDebugLevel(int level) {
-		return false;
+		return true;
 	}
 
 	@Override
 	public boolean supportDebug() {
-		return false;
+		return true;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.cfr.decompiler;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.benf.cfr.reader.bytecode.analysis.loc.BytecodeLoc;
+import org.benf.cfr.reader.bytecode.analysis.loc.HasByteCodeLoc;
+import org.benf.cfr.reader.entities.Method;
+import org.benf.cfr.reader.entities.attributes.AttributeLineNumberTable;
+import org.benf.cfr.reader.state.TypeUsageInformation;
+import org.benf.cfr.reader.util.output.DelegatingDumper;
+import org.benf.cfr.reader.util.output.Dumper;
+
+/**
+ * Records the decompiled line every bytecode offset is dumped on, to map the
+ * line number tables of the methods to the decompiled source. CFR only reports
+ * the bytecode locations if the option <code>trackbytecodeloc</code> is set.
+ * Like CFR's own tracking an offset dumped more than once belongs to the most
+ * deeply indented statement.
+ */
+class CfrLineNumberDumper extends DelegatingDumper {
+
+	/**
+	 * Per method the offsets and their indentation and decompiled line.
+	 */
+	private final Map<Method, Map<Integer, int[]>> locations;
+
+	CfrLineNumberDumper(Dumper delegate) {
+		this(delegate, new IdentityHashMap<Method, Map<Integer, int[]>>());
+	}
+
+	private CfrLineNumberDumper(Dumper delegate, Map<Method, Map<Integer, int[]>> locations) {
+		super(delegate);
+		this.locations = locations;
+	}
+
+	/**
+	 * Inner classes are dumped through a dumper of their own, which has to
+	 * record into the same locations.
+	 */
+	@Override
+	public Dumper withTypeUsageInformation(TypeUsageInformation innerclassTypeUsageInformation) {
+		return new CfrLineNumberDumper(delegate.withTypeUsageInformation(innerclassTypeUsageInformation), locations);
+	}
+
+	@Override
+	public void informBytecodeLoc(HasByteCodeLoc loc) {
+		BytecodeLoc combinedLoc = loc.getCombinedLoc();
+		int depth = delegate.getIndentLevel();
+		int line = delegate.getCurrentLine();
+		for (Method method : combinedLoc.getMethods()) {
+			Map<Integer, int[]> offsets = locations.get(method);
+			if (offsets == null) {
+				offsets = new HashMap<>();
+				locations.put(method, offsets);
+			}
+			for (Integer offset : combinedLoc.getOffsetsForMethod(method)) {
+				int[] location = offsets.get(offset);
+				if (location == null || depth > location[0]) {
+					offsets.put(offset, new int[] { depth, line });
+				}
+			}
+		}
+		super.informBytecodeLoc(loc);
+	}
+
+	/**
+	 * @return pairs of original line number and decompiled line number, the
+	 *         first line being 1, or <code>null</code> if the class has no line
+	 *         number tables
+	 */
+	int[] getLineMapping() {
+		TreeMap<Integer, Integer> lines = new TreeMap<>();
+		for (Map.Entry<Method, Map<Integer, int[]>> entry : locations.entrySet()) {
+			Method method = entry.getKey();
+			if (!method.hasCodeAttribute()) {
+				continue;
+			}
+			AttributeLineNumberTable table = method.getCodeAttribute().getLineNumberTable();
+			if (table == null || !table.hasEntries()) {
+				continue;
+			}
+			NavigableMap<Integer, Integer> entries = table.getEntries();
+			for (Map.Entry<Integer, int[]> offset : entry.getValue().entrySet()) {
+				Map.Entry<Integer, Integer> originalLine = entries.floorEntry(offset.getKey());
+				if (originalLine == null) {
+					continue;
+				}
+				// several original lines may end up on one decompiled line, keep
+				// the first one
+				Integer decompiledLine = Integer.valueOf(offset.getValue()[1]);
+				Integer previous = lines.get(decompiledLine);
+				if (previous == null || originalLine.getValue().intValue() < previous.intValue()) {
+					lines.put(decompiledLine, originalLine.getValue());
+				}
+			}
+		}
+		if (lines.isEmpty()) {
+			return null;
+		}
+		int[] mapping = new int[lines.size() * 2];
+		int i = 0;
+		for (Map.Entry<Integer, Integer> line : lines.entrySet()) {
+			mapping[i++] = line.getValue().intValue();
+			mapping[i++] = line.getKey().intValue();
+		}
+		return mapping;
+	}
+}
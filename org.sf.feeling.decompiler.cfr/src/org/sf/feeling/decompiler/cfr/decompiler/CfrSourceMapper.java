@@ -12,6 +12,7 @@ import java.util.Collection;
 
 import org.eclipse.core.runtime.Path;
 import org.sf.feeling.decompiler.editor.BaseDecompilerSourceMapper;
+import org.sf.feeling.decompiler.editor.DecompilationResult;
 
 public class CfrSourceMapper extends BaseDecompilerSourceMapper {
 
@@ -22,18 +23,18 @@ public class CfrSourceMapper extends BaseDecompilerSourceMapper {
 
 	@Override
 	protected void printDecompileReport(StringBuffer source, String fileLocation, Collection<Exception> exceptions,
-			long decompilationTime) {
+			DecompilationResult result) {
 		String location = "\tDecompiled from: " //$NON-NLS-1$
 				+ fileLocation;
 		source.append("\n\n/*"); //$NON-NLS-1$
 		source.append("\n\tDECOMPILATION REPORT\n\n"); //$NON-NLS-1$
 		source.append(location).append("\n"); //$NON-NLS-1$
 		source.append("\tTotal time: ") //$NON-NLS-1$
-				.append(decompilationTime).append(" ms\n"); //$NON-NLS-1$
+				.append(result.getDecompilationTime()).append(" ms\n"); //$NON-NLS-1$
 		source.append("\t" //$NON-NLS-1$
-				+ origionalDecompiler.getLog().replaceAll("\t", "") //$NON-NLS-1$ //$NON-NLS-2$
+				+ result.getLog().replaceAll("\t", "") //$NON-NLS-1$ //$NON-NLS-2$
 						.replaceAll("\n\\s*", "\n\t")); //$NON-NLS-1$ //$NON-NLS-2$
-		exceptions.addAll(origionalDecompiler.getExceptions());
+		exceptions.addAll(result.getExceptions());
 		logExceptions(exceptions, source);
 		source.append("\n*/"); //$NON-NLS-1$
 	}
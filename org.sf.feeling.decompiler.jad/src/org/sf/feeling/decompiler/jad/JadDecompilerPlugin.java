@@ -53,7 +53,11 @@ public class JadDecompilerPlugin extends AbstractUIPlugin implements IPropertyCh
 
 	@Override
 	public void propertyChange(PropertyChangeEvent event) {
-
+		// -lnc is added per decompilation from its options, the line number
+		// preference is not part of the cached command line
+		if (!JadDecompiler.OPTION_LNC.equals(event.getProperty())) {
+			JadDecompiler.resetCmdLine();
+		}
 	}
 
 	@Override
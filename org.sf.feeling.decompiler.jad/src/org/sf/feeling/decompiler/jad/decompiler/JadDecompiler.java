@@ -8,30 +8,50 @@
 
 package org.sf.feeling.decompiler.jad.decompiler;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.time.StopWatch;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.sf.feeling.decompiler.JavaDecompilerPlugin;
+import org.sf.feeling.decompiler.editor.DecompilationResult;
+import org.sf.feeling.decompiler.editor.DecompilerOptions;
+import org.sf.feeling.decompiler.editor.IBatchDecompiler;
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
+import org.sf.feeling.decompiler.editor.IConfigurableDecompiler;
 import org.sf.feeling.decompiler.editor.IDecompiler;
 import org.sf.feeling.decompiler.jad.JadDecompilerPlugin;
-import org.sf.feeling.decompiler.util.ClassUtil;
 import org.sf.feeling.decompiler.util.FileUtil;
 import org.sf.feeling.decompiler.util.JarClassExtractor;
 import org.sf.feeling.decompiler.util.UnicodeUtil;
 
 /**
  * This implementation of <code>IDecompiler</code> uses Jad as the underlying
- * decompler.
+ * decompler. Every class costs a Jad process, so exports run Jad once per
+ * package through {@link IBatchDecompiler}.
  */
-public class JadDecompiler implements IDecompiler {
+public class JadDecompiler implements IBatchDecompiler, IConfigurableDecompiler {
 
 	public static final String OPTION_ANNOTATE = "-a"; // format //$NON-NLS-1$
 	public static final String OPTION_ANNOTATE_FQ = "-af"; // format //$NON-NLS-1$
@@ -105,18 +125,72 @@ public class JadDecompiler implements IDecompiler {
 			/* OPTION_INDENT_SPACE, */
 			OPTION_SPLITSTR_MAX, OPTION_LRADIX, OPTION_PI, OPTION_PV, OPTION_IRADIX, };
 
-	private String source = "/* ERROR? */"; //$NON-NLS-1$
-	private StringBuffer log;
-	private List<Exception> excList = new ArrayList<>();
-	private long time;
+	/**
+	 * Hard limit for a single Jad run, Jad may loop forever on obfuscated code.
+	 */
+	private static final long TIMEOUT_SECONDS = 30;
+
+	/**
+	 * Additional time granted to a batch run per decompiled class.
+	 */
+	private static final long BATCH_TIMEOUT_PER_CLASS_SECONDS = 2;
+
+	private static final long MAX_OUTPUT_SIZE = 16 * 1024 * 1024;
+	private static final long MAX_ERRORS_SIZE = 64 * 1024;
+
+	/**
+	 * Jad executable and the options derived from the preferences.
+	 */
+	private static volatile List<String> cmdLineOptions;
+
+	/**
+	 * Open batches by location and package, concurrent exports have one each.
+	 */
+	private final Map<String, Batch> batches = new ConcurrentHashMap<>();
 
-	private String[] buildCmdLine(String classFileName) {
+	/**
+	 * Result of a Jad run over several classes of one package.
+	 */
+	private static class Batch {
+
+		private final DecompilerOptions options;
+		private final String location;
+		private final String packege;
+		private final Map<String, String> sources = new HashMap<>();
+		private final List<Exception> exceptions = new ArrayList<>();
+		private String log;
+		private long time;
+
+		private Batch(DecompilerOptions options, String location, String packege) {
+			this.options = options;
+			this.location = location;
+			this.packege = packege;
+		}
+	}
+
+	/**
+	 * Discards the command line built from the preferences, it is rebuilt on the
+	 * next decompilation.
+	 */
+	public static void resetCmdLine() {
+		cmdLineOptions = null;
+	}
+
+	private static List<String> getCmdLineOptions() {
+		List<String> options = cmdLineOptions;
+		if (options == null) {
+			options = buildCmdLineOptions();
+			cmdLineOptions = options;
+		}
+		return options;
+	}
+
+	private static List<String> buildCmdLineOptions() {
 		ArrayList<String> cmdLine = new ArrayList<>();
 		IPreferenceStore settings = JavaDecompilerPlugin.getDefault().getPreferenceStore();
 
-		// command and special options
+		// command
 		cmdLine.add(settings.getString(JadDecompilerPlugin.CMD));
-		cmdLine.add(OPTION_SENDSTDOUT);
 
 		String indent = settings.getString(OPTION_INDENT_SPACE);
 		if (indent.equals(USE_TAB))
@@ -139,10 +213,6 @@ public class JadDecompiler implements IDecompiler {
 			}
 		}
 
-		if (ClassUtil.isDebug()) {
-			cmdLine.add("-lnc"); //$NON-NLS-1$
-		}
-
 		// integers, 0 means disabled
 		int iValue;
 		for (int i = 0; i < VALUE_OPTION_INT.length; i++) {
@@ -159,11 +229,21 @@ public class JadDecompiler implements IDecompiler {
 				cmdLine.add(VALUE_OPTION_STRING[i] + " " + sValue); //$NON-NLS-1$
 
 		}
+		return Collections.unmodifiableList(cmdLine);
+	}
 
-		cmdLine.add(classFileName);
-		// debugCmdLine(cmdLine);
-		return cmdLine.toArray(new String[cmdLine.size()]);
+	private List<String> buildCmdLine(DecompilerOptions options, List<String> specialOptions,
+			List<String> classFileNames) {
+		List<String> cmdLine = new ArrayList<>(getCmdLineOptions());
+		cmdLine.addAll(specialOptions);
 
+		if (options.isDebug()) {
+			cmdLine.add("-lnc"); //$NON-NLS-1$
+		}
+
+		cmdLine.addAll(classFileNames);
+		// debugCmdLine(cmdLine);
+		return cmdLine;
 	}
 
 	void debugCmdLine(List<String> segments) {
@@ -174,15 +254,80 @@ public class JadDecompiler implements IDecompiler {
 	}
 
 	/**
-	 * Performs a <code>Runtime.exec()</code> on jad executable with selected
-	 * options.
+	 * Runs Jad in the working directory and waits at most <code>timeout</code>
+	 * seconds for it to finish, otherwise Jad is killed. At most
+	 * {@link #MAX_OUTPUT_SIZE} bytes of the standard output and
+	 * {@link #MAX_ERRORS_SIZE} bytes of the error output are captured, problems
+	 * with the captured output are added to <code>exceptions</code>.
+	 * 
+	 * @return the exit status of Jad
+	 */
+	private int execute(List<String> cmdLine, File workingDir, long timeout, OutputStream out, OutputStream errors,
+			List<Exception> exceptions) throws IOException, InterruptedException, TimeoutException {
+		ProcessBuilder builder = new ProcessBuilder(cmdLine).directory(workingDir);
+		builder.environment().clear();
+		Process p = builder.start();
+		try {
+			p.getOutputStream().close();
+			StreamRedirectThread outRedirect = new StreamRedirectThread("output_reader", //$NON-NLS-1$
+					p.getInputStream(), out, MAX_OUTPUT_SIZE);
+			StreamRedirectThread errRedirect = new StreamRedirectThread("error_reader", //$NON-NLS-1$
+					p.getErrorStream(), errors, MAX_ERRORS_SIZE);
+			outRedirect.start();
+			errRedirect.start();
+			if (!p.waitFor(timeout, TimeUnit.SECONDS)) {
+				throw new TimeoutException("Jad did not finish within " + timeout + " seconds."); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			outRedirect.join(); // wait until output stream content is fully
+			// copied
+			errRedirect.join(); // wait until error stream content is fully
+			// copied
+			if (outRedirect.getException() != null)
+				exceptions.add(outRedirect.getException());
+			if (errRedirect.getException() != null)
+				exceptions.add(errRedirect.getException());
+			if (outRedirect.isTruncated())
+				exceptions.add(new IOException("Jad output exceeded " + MAX_OUTPUT_SIZE + " bytes and was truncated.")); //$NON-NLS-1$ //$NON-NLS-2$
+			return p.exitValue();
+		} finally {
+			if (p.isAlive()) {
+				destroyProcessTree(p);
+			}
+		}
+	}
+
+	/**
+	 * Kills the process and the processes it has started. The descendants are
+	 * only known from Java 9 on, so on Java 8 only the process itself is killed.
+	 */
+	private static void destroyProcessTree(Process process) {
+		try {
+			Method descendants = Process.class.getMethod("descendants"); //$NON-NLS-1$
+			Method destroyForcibly = Class.forName("java.lang.ProcessHandle").getMethod("destroyForcibly"); //$NON-NLS-1$ //$NON-NLS-2$
+			Object[] handles = ((Stream<?>) descendants.invoke(process)).toArray();
+			for (Object handle : handles) {
+				destroyForcibly.invoke(handle);
+			}
+		} catch (ReflectiveOperationException e) {
+			// Java 8
+		}
+		process.destroyForcibly();
+	}
+
+	/**
+	 * Performs a Jad run on the class file with selected options.
 	 * 
-	 * @see IDecompiler#decompile(String, String, String)
+	 * @see IDecompiler#decompile(DecompilerOptions, String, String, String)
 	 */
 	@Override
-	public void decompile(String root, String packege, String className) {
-		log = new StringBuffer();
-		source = ""; //$NON-NLS-1$
+	public DecompilationResult decompile(DecompilerOptions options, String root, String packege, String className) {
+		DecompilationResult batchResult = decompileFromBatch(options, root, packege, className);
+		if (batchResult != null) {
+			return batchResult;
+		}
+
+		List<Exception> exceptions = new ArrayList<>();
+		long time;
 		File workingDir = new File(root + "/" + packege); //$NON-NLS-1$
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		ByteArrayOutputStream errors = new ByteArrayOutputStream();
@@ -195,24 +340,11 @@ public class JadDecompiler implements IDecompiler {
 		try {
 
 			errorsP.println("\tJad reported messages/errors:"); //$NON-NLS-1$
-			Process p = Runtime.getRuntime().exec(buildCmdLine(className), new String[] {}, workingDir);
-			StreamRedirectThread outRedirect = new StreamRedirectThread("output_reader", //$NON-NLS-1$
-					p.getInputStream(), bos);
-			StreamRedirectThread errRedirect = new StreamRedirectThread("error_reader", //$NON-NLS-1$
-					p.getErrorStream(), errors);
-			outRedirect.start();
-			errRedirect.start();
-			status = p.waitFor(); // wait for jad to finish
-			outRedirect.join(); // wait until output stream content is fully
-			// copied
-			errRedirect.join(); // wait until error stream content is fully
-			// copied
-			if (outRedirect.getException() != null)
-				excList.add(outRedirect.getException());
-			if (errRedirect.getException() != null)
-				excList.add(errRedirect.getException());
+			errorsP.flush();
+			status = execute(buildCmdLine(options, Collections.singletonList(OPTION_SENDSTDOUT),
+					Collections.singletonList(className)), workingDir, TIMEOUT_SECONDS, bos, errors, exceptions);
 		} catch (Exception e) {
-			excList.add(e);
+			exceptions.add(e);
 		} finally {
 			try {
 				bos.flush();
@@ -222,16 +354,15 @@ public class JadDecompiler implements IDecompiler {
 				errors.flush();
 				errorsP.close();
 			} catch (Exception e) {
-				excList.add(e); // will never get here...
+				exceptions.add(e); // will never get here...
 			}
 			time = stopWatch.getTime();
 		}
 
-		source = UnicodeUtil.decode(bos.toString());
+		String source = UnicodeUtil.decode(bos.toString());
 
-		log = new StringBuffer(errors.toString());
 		// logExceptions();
-		// result = new DecompiledClassFile(classFile, source.toString());
+		return new DecompilationResult(getDecompilerType(), source, null, time, exceptions, errors.toString());
 	}
 
 	/**
@@ -239,46 +370,153 @@ public class JadDecompiler implements IDecompiler {
 	 * request class file from the specified archive into temp directory and then
 	 * calls <code>decompile</code>.
 	 * 
-	 * @see IDecompiler#decompileFromArchive(String, String, String)
+	 * @see IDecompiler#decompileFromArchive(DecompilerOptions, String, String,
+	 *      String)
 	 */
 	@Override
-	public void decompileFromArchive(String archivePath, String packege, String className) {
+	public DecompilationResult decompileFromArchive(DecompilerOptions options, String archivePath, String packege,
+			String className) {
+		DecompilationResult batchResult = decompileFromBatch(options, archivePath, packege, className);
+		if (batchResult != null) {
+			return batchResult;
+		}
+
 		StopWatch stopWatch = new StopWatch();
 		stopWatch.start();
-		File workingDir = new File(
-				JavaDecompilerPlugin.getDefault().getPreferenceStore().getString(JavaDecompilerPlugin.TEMP_DIR) + "/" //$NON-NLS-1$
-						+ System.currentTimeMillis());
+		File workingDir = null;
 
 		try {
-			workingDir.mkdirs();
+			workingDir = createWorkingDir();
 			JarClassExtractor.extract(archivePath, packege, className, true, workingDir.getAbsolutePath());
-			decompile(workingDir.getAbsolutePath(), "", className); //$NON-NLS-1$
-			time = stopWatch.getTime();
+			DecompilationResult result = decompile(options, workingDir.getAbsolutePath(), "", className); //$NON-NLS-1$
+			return new DecompilationResult(getDecompilerType(), result.getSource(), null, stopWatch.getTime(),
+					result.getExceptions(), result.getLog());
 		} catch (Exception e) {
-			excList.add(e);
 			// logExceptions();
-			return;
+			return DecompilationResult.empty(getDecompilerType(), stopWatch.getTime(), Collections.singletonList(e));
 		} finally {
 			FileUtil.deltree(workingDir);
 		}
 	}
 
+	/**
+	 * Writes the classes and their inner classes into a temporary directory and
+	 * runs Jad once over all of them.
+	 * 
+	 * @see IBatchDecompiler#beginBatch(DecompilerOptions, IClassBytesProvider,
+	 *      String, List)
+	 */
 	@Override
-	public long getDecompilationTime() {
-		return time;
+	public Object beginBatch(DecompilerOptions options, IClassBytesProvider provider, String packege,
+			List<String> classNames) {
+		StopWatch stopWatch = new StopWatch();
+		stopWatch.start();
+		File workingDir = null;
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		PrintWriter errorsP = new PrintWriter(new OutputStreamWriter(errors));
+		int status = 0;
+		Batch result = new Batch(options, provider.getLocation(), packege);
+
+		try {
+			workingDir = createWorkingDir();
+			File outputDir = new File(workingDir, "src"); //$NON-NLS-1$
+			outputDir.mkdirs();
+			List<String> classFileNames = new ArrayList<>();
+			for (String className : classNames) {
+				if (writeClass(provider, packege, className, workingDir)) {
+					classFileNames.add(className);
+					for (String innerClassName : provider.getInnerClassNames(packege, className)) {
+						writeClass(provider, packege, innerClassName, workingDir);
+					}
+				}
+			}
+			if (classFileNames.isEmpty()) {
+				return null;
+			}
+
+			errorsP.println("\tJad reported messages/errors:"); //$NON-NLS-1$
+			errorsP.flush();
+			List<String> specialOptions = Arrays.asList(OPTION_OVERWRITE, OPTION_DIR, outputDir.getAbsolutePath(),
+					OPTION_EXT, "java"); //$NON-NLS-1$
+			status = execute(buildCmdLine(options, specialOptions, classFileNames), workingDir,
+					TIMEOUT_SECONDS + BATCH_TIMEOUT_PER_CLASS_SECONDS * classFileNames.size(), new ByteArrayOutputStream(),
+					errors, result.exceptions);
+
+			for (String className : classFileNames) {
+				File sourceFile = new File(outputDir, className.substring(0, className.length() - 6) + ".java"); //$NON-NLS-1$
+				if (sourceFile.isFile()) {
+					result.sources.put(className, UnicodeUtil.decode(FileUtil.getContent(sourceFile)));
+				}
+			}
+		} catch (Exception e) {
+			result.exceptions.add(e);
+		} finally {
+			errorsP.println("\tExit status: " + status); //$NON-NLS-1$
+			errorsP.close();
+			FileUtil.deltree(workingDir);
+		}
+
+		if (result.sources.isEmpty()) {
+			return null;
+		}
+		result.log = errors.toString();
+		result.time = stopWatch.getTime() / result.sources.size();
+		// an export of the same package started later replaces the batch, both
+		// are served from it until one of them ends it
+		batches.put(getBatchKey(result.location, packege), result);
+		return result;
 	}
 
-	@Override
-	public List<Exception> getExceptions() {
-		return excList;
+	private static String getBatchKey(String location, String packege) {
+		return location + '|' + packege;
 	}
 
 	/**
-	 * @see IDecompiler#getLog()
+	 * @return a new directory of its own below the temporary directory, so
+	 *         concurrent runs never share one
 	 */
+	private static File createWorkingDir() throws IOException {
+		Path tempDir = Paths.get(
+				JavaDecompilerPlugin.getDefault().getPreferenceStore().getString(JavaDecompilerPlugin.TEMP_DIR));
+		Files.createDirectories(tempDir);
+		return Files.createTempDirectory(tempDir, "jad").toFile(); //$NON-NLS-1$
+	}
+
+	private boolean writeClass(IClassBytesProvider provider, String packege, String className, File dir) {
+		byte[] bytes = provider.getClassBytes(packege, className);
+		if (bytes == null) {
+			return false;
+		}
+		FileUtil.writeToBinarayFile(new File(dir, className), new ByteArrayInputStream(bytes), true);
+		return true;
+	}
+
 	@Override
-	public String getLog() {
-		return log == null ? "" : log.toString(); //$NON-NLS-1$
+	public void endBatch(Object batch) {
+		if (batch instanceof Batch) {
+			Batch ended = (Batch) batch;
+			batches.remove(getBatchKey(ended.location, ended.packege), ended);
+		}
+	}
+
+	/**
+	 * Serves the source from the open batch if it contains the class and was
+	 * decompiled with the same options.
+	 * 
+	 * @return the result or <code>null</code>
+	 */
+	private DecompilationResult decompileFromBatch(DecompilerOptions options, String location, String packege,
+			String className) {
+		Batch current = batches.get(getBatchKey(location, packege));
+		if (current == null || current.options.isDebug() != options.isDebug()) {
+			return null;
+		}
+		String batchSource = current.sources.get(className);
+		if (batchSource == null) {
+			return null;
+		}
+		return new DecompilationResult(getDecompilerType(), batchSource, null, current.time, current.exceptions,
+				current.log);
 	}
 
 	// private void logExceptions()
@@ -300,17 +538,17 @@ public class JadDecompiler implements IDecompiler {
 	// log.append(stackTraces.toString());
 	// }
 
-	/**
-	 * @see IDecompiler#getSource()
-	 */
 	@Override
-	public String getSource() {
-		return source;
+	public String getDecompilerType() {
+		return JadDecompilerPlugin.decompilerType;
 	}
 
+	/**
+	 * The command line built from the Jad preferences.
+	 */
 	@Override
-	public String getDecompilerType() {
-		return JadDecompilerPlugin.decompilerType;
+	public String getOptionsFingerprint() {
+		return String.join(" ", getCmdLineOptions()); //$NON-NLS-1$
 	}
 
 	@Override
@@ -12,6 +12,7 @@ import java.util.Collection;
 
 import org.eclipse.core.runtime.Path;
 import org.sf.feeling.decompiler.editor.BaseDecompilerSourceMapper;
+import org.sf.feeling.decompiler.editor.DecompilationResult;
 
 public class JadSourceMapper extends BaseDecompilerSourceMapper {
 
@@ -22,16 +23,16 @@ public class JadSourceMapper extends BaseDecompilerSourceMapper {
 
 	@Override
 	protected void printDecompileReport(StringBuffer source, String fileLocation, Collection<Exception> exceptions,
-			long decompilationTime) {
+			DecompilationResult result) {
 		String location = "\tDecompiled from: " //$NON-NLS-1$
 				+ fileLocation;
 		source.append("\n\n/*"); //$NON-NLS-1$
 		source.append("\n\tDECOMPILATION REPORT\n\n"); //$NON-NLS-1$
 		source.append(location).append("\n"); //$NON-NLS-1$
 		source.append("\tTotal time: ") //$NON-NLS-1$
-				.append(decompilationTime).append(" ms\n"); //$NON-NLS-1$
+				.append(result.getDecompilationTime()).append(" ms\n"); //$NON-NLS-1$
 		source.append("\t" //$NON-NLS-1$
-				+ origionalDecompiler.getLog().replaceAll("\t", "").replaceAll("\n", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				+ result.getLog().replaceAll("\t", "").replaceAll("\n", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 						"\n\t")); //$NON-NLS-1$
 		logExceptions(exceptions, source);
 		source.append("\n*/"); //$NON-NLS-1$
@@ -16,14 +16,28 @@ class StreamRedirectThread extends Thread {
 
 	private final InputStream in;
 	private final OutputStream out;
+	private final long limit;
+	private long written;
+	private boolean truncated;
 	private Exception ex;
 
 	private static final int BUFFER_SIZE = 2048;
 
 	StreamRedirectThread(String name, InputStream in, OutputStream out) {
+		this(name, in, out, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param limit maximum number of bytes copied to <code>out</code>, the rest
+	 *              of the stream is read and discarded so that the process does
+	 *              not block on a full pipe
+	 */
+	StreamRedirectThread(String name, InputStream in, OutputStream out, long limit) {
 		super(name);
 		this.in = in;
 		this.out = out;
+		this.limit = limit;
+		setDaemon(true);
 		setPriority(Thread.MAX_PRIORITY - 1);
 	}
 
@@ -31,6 +45,13 @@ class StreamRedirectThread extends Thread {
 		return ex;
 	}
 
+	/**
+	 * @return <code>true</code> if the stream was longer than the limit
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
 	/**
 	 * Copy.
 	 */
@@ -40,8 +61,15 @@ class StreamRedirectThread extends Thread {
 			byte[] cbuf = new byte[BUFFER_SIZE];
 			int count;
 			while ((count = in.read(cbuf, 0, BUFFER_SIZE)) >= 0) {
-				out.write(cbuf, 0, count);
-				out.flush();
+				int length = (int) Math.min(count, limit - written);
+				if (length > 0) {
+					out.write(cbuf, 0, length);
+					out.flush();
+					written += length;
+				}
+				if (length < count) {
+					truncated = true;
+				}
 			}
 		} catch (IOException exc) {
 			// System.err.println("Child I/O Transfer - " + exc);
@@ -14,10 +14,11 @@ import java.util.TreeMap;
 
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.jface.preference.IPreferenceStore;
 import org.jd.core.v1.ClassFileToJavaSourceDecompiler;
+import org.jd.core.v1.api.loader.Loader;
 import org.sf.feeling.decompiler.JavaDecompilerPlugin;
 import org.sf.feeling.decompiler.editor.BaseDecompilerSourceMapper;
+import org.sf.feeling.decompiler.editor.DecompilerOptions;
 import org.sf.feeling.decompiler.jd.decompiler.JDCorePrinter;
 import org.sf.feeling.decompiler.jd.decompiler.JDCoreZipLoader;
 import org.sf.feeling.decompiler.jd.decompiler.JDCoreZipLoader.EntriesCache;
@@ -67,7 +68,8 @@ public abstract class JDSourceMapper extends BaseDecompilerSourceMapper {
 			try {
 				File decompilePath = this.basePath.getAbsoluteFile();
 				if (decompilePath.isFile()) {
-					String result = decompile(decompilePath.toString(), classPath);
+					String result = decompile(decompilePath.toString(), classPath,
+							DecompilerOptions.fromPreferences());
 					if (result != null) {
 						source = result.toCharArray();
 					}
@@ -89,27 +91,19 @@ public abstract class JDSourceMapper extends BaseDecompilerSourceMapper {
 	 * @param basePath          Path to the root of the classpath, either a path to
 	 *                          a directory or a path to a jar file.
 	 * @param internalClassName internal name of the class.
+	 * @param options           options of the decompilation request.
 	 * @return Decompiled class text.
 	 * @throws Exception
 	 */
-	public String decompile(String basePath, String classPath) throws Exception {
-		// Load preferences
-		IPreferenceStore store = JavaDecompilerPlugin.getDefault().getPreferenceStore();
-
-		boolean realignmentLineNumber = store.getBoolean(JavaDecompilerPlugin.ALIGN);
-		boolean unicodeEscape = false; // currently unused :
-										// store.getBoolean(JavaDecompilerPlugin.PREF_ESCAPE_UNICODE_CHARACTERS);
-		boolean showLineNumbers = store.getBoolean(JavaDecompilerPlugin.PREF_DISPLAY_LINE_NUMBERS);
-		// boolean showMetadata =
-		// store.getBoolean(JavaDecompilerPlugin.PREF_DISPLAY_METADATA);
-
-		Map<String, Object> configuration = new TreeMap<>();
-		configuration.put("realignLineNumbers", realignmentLineNumber);
-
-		if (classPath.endsWith(JAVA_CLASS_SUFFIX)) {
-			classPath = classPath.substring(0, classPath.length() - 6);
-		}
+	public String decompile(String basePath, String classPath, DecompilerOptions options) throws Exception {
+		return print(basePath, classPath, options).toString();
+	}
 
+	/**
+	 * Like {@link #decompile(String, String, DecompilerOptions)}, but returns the
+	 * printer, which also holds the line mapping.
+	 */
+	public JDCorePrinter print(String basePath, String classPath, DecompilerOptions options) throws Exception {
 		Path jarPath = Paths.get(basePath);
 
 		EntriesCache cache = null;
@@ -120,17 +114,53 @@ public abstract class JDSourceMapper extends BaseDecompilerSourceMapper {
 		}
 
 		try (JDCoreZipLoader loader = new JDCoreZipLoader(jarPath, cache)) {
-			JDCorePrinter printer = new JDCorePrinter(unicodeEscape, showLineNumbers);
-
-			ClassFileToJavaSourceDecompiler decompiler = new ClassFileToJavaSourceDecompiler();
-			decompiler.decompile(loader, printer, classPath, configuration);
+			JDCorePrinter result = print(loader, classPath, options);
 
 			// Save the cache so we don't have to re-load the class names
 			// in case we decompile another class from the same JAR file
 			entriesCache = loader.getEntriesCache();
 
-			return printer.toString();
+			return result;
+		}
+	}
+
+	/**
+	 * @param loader    loader serving the class files
+	 * @param classPath internal name of the class, optionally with .class suffix.
+	 * @param options   options of the decompilation request.
+	 * @return Decompiled class text.
+	 * @throws Exception
+	 */
+	public String decompile(Loader loader, String classPath, DecompilerOptions options) throws Exception {
+		return print(loader, classPath, options).toString();
+	}
+
+	/**
+	 * Like {@link #decompile(Loader, String, DecompilerOptions)}, but returns the
+	 * printer, which also holds the line mapping. If the source is realigned the
+	 * line numbers are not printed as comments.
+	 */
+	public JDCorePrinter print(Loader loader, String classPath, DecompilerOptions options) throws Exception {
+		boolean realignmentLineNumber = options.isAlign();
+		boolean unicodeEscape = false; // currently unused :
+										// store.getBoolean(JavaDecompilerPlugin.PREF_ESCAPE_UNICODE_CHARACTERS);
+		boolean showLineNumbers = options.isDisplayLineNumbers() && !options.isRealign();
+		// boolean showMetadata =
+		// store.getBoolean(JavaDecompilerPlugin.PREF_DISPLAY_METADATA);
+
+		Map<String, Object> configuration = new TreeMap<>();
+		configuration.put("realignLineNumbers", realignmentLineNumber);
+
+		if (classPath.endsWith(JAVA_CLASS_SUFFIX)) {
+			classPath = classPath.substring(0, classPath.length() - 6);
 		}
+
+		JDCorePrinter printer = new JDCorePrinter(unicodeEscape, showLineNumbers);
+
+		ClassFileToJavaSourceDecompiler decompiler = new ClassFileToJavaSourceDecompiler();
+		decompiler.decompile(loader, printer, classPath, configuration);
+
+		return printer;
 	}
 
 	/**
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.jd.decompiler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jd.core.v1.api.loader.Loader;
+import org.jd.core.v1.api.loader.LoaderException;
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
+
+/**
+ * JD-Core Loader implementation which reads class files lazily from an
+ * {@link IClassBytesProvider}, i.e. from a class folder or from the Java model,
+ * so only the classes JD-Core actually asks for are read.
+ */
+public class JDCoreBytesLoader implements Loader {
+
+	private final IClassBytesProvider provider;
+	private final String classPackage;
+	private final String providerPackage;
+	private final Map<String, byte[]> loaded = new HashMap<>();
+
+	public JDCoreBytesLoader(IClassBytesProvider provider) {
+		this(provider, null, null);
+	}
+
+	/**
+	 * @param provider        source of the class bytes
+	 * @param classPackage    file path like package name of the decompiled class
+	 * @param providerPackage file path like package name under which the
+	 *                        provider serves the classes of
+	 *                        <code>classPackage</code>, e.g. "" for a class
+	 *                        file opened from the file system
+	 */
+	public JDCoreBytesLoader(IClassBytesProvider provider, String classPackage, String providerPackage) {
+		this.provider = provider;
+		this.classPackage = classPackage;
+		this.providerPackage = providerPackage;
+	}
+
+	@Override
+	public boolean canLoad(String internalName) {
+		return getBytes(internalName) != null;
+	}
+
+	@Override
+	public byte[] load(String internalName) throws LoaderException {
+		byte[] bytes = getBytes(internalName);
+		if (bytes == null) {
+			throw new LoaderException("Class not found: " + internalName); //$NON-NLS-1$
+		}
+		return bytes;
+	}
+
+	private byte[] getBytes(String internalName) {
+		if (loaded.containsKey(internalName)) {
+			return loaded.get(internalName);
+		}
+
+		int index = internalName.lastIndexOf('/');
+		String packege = (index == -1) ? "" : internalName.substring(0, index); //$NON-NLS-1$
+		if (classPackage != null && classPackage.equals(packege)) {
+			packege = providerPackage;
+		}
+		byte[] bytes = provider.getClassBytes(packege, internalName.substring(index + 1) + ".class"); //$NON-NLS-1$
+		loaded.put(internalName, bytes);
+		return bytes;
+	}
+}
@@ -9,7 +9,7 @@
 package org.sf.feeling.decompiler.jd.decompiler;
 
 import java.io.File;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.lang3.time.StopWatch;
@@ -17,18 +17,17 @@ import org.jetbrains.java.decompiler.struct.StructClass;
 import org.jetbrains.java.decompiler.struct.lazy.LazyLoader;
 import org.jetbrains.java.decompiler.util.DataInputFullStream;
 import org.sf.feeling.decompiler.JavaDecompilerPlugin;
+import org.sf.feeling.decompiler.editor.DecompilationResult;
+import org.sf.feeling.decompiler.editor.DecompilerOptions;
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
 import org.sf.feeling.decompiler.editor.IDecompiler;
+import org.sf.feeling.decompiler.editor.IInMemoryDecompiler;
 import org.sf.feeling.decompiler.jd.JDCoreDecompilerPlugin;
-import org.sf.feeling.decompiler.util.FileUtil;
-import org.sf.feeling.decompiler.util.UIUtil;
+import org.sf.feeling.decompiler.util.DirectoryClassBytesProvider;
 
 import jd.ide.eclipse.editors.JDSourceMapper;
 
-public class JDCoreDecompiler implements IDecompiler {
-
-	private String source = ""; // $NON-NLS-1$ //$NON-NLS-1$
-	private long time;
-	private String log = ""; //$NON-NLS-1$
+public class JDCoreDecompiler implements IInMemoryDecompiler {
 
 	private JDSourceMapper mapper;
 
@@ -37,113 +36,111 @@ public class JDCoreDecompiler implements IDecompiler {
 	}
 
 	/**
-	 * Performs a <code>Runtime.exec()</code> on jad executable with selected
-	 * options.
+	 * Decompiles a class file located in the file system. The class files are
+	 * read lazily from <code>root</code> through a {@link JDCoreBytesLoader}.
 	 * 
-	 * @see IDecompiler#decompile(String, String, String)
+	 * @see IDecompiler#decompile(DecompilerOptions, String, String, String)
 	 */
 	@Override
-	public void decompile(String root, String classPackage, String className) {
+	public DecompilationResult decompile(DecompilerOptions options, String root, String classPackage,
+			String className) {
 		StopWatch stopWatch = new StopWatch();
 		stopWatch.start();
-		log = ""; //$NON-NLS-1$
-		source = ""; //$NON-NLS-1$
-		Boolean displayNumber = null;
-
-		File workingDir = new File(root); // $NON-NLS-1$
+		String source = ""; //$NON-NLS-1$
+		int[] lineMapping = null;
+		List<Exception> exceptions = new ArrayList<>();
 
-		File zipFile = new File(System.getProperty("java.io.tmpdir"), //$NON-NLS-1$
-				className.replaceAll("(?i)\\.class", System.currentTimeMillis() + ".jar")); //$NON-NLS-1$ //$NON-NLS-2$
-		String zipFileName = zipFile.getAbsolutePath();
+		IClassBytesProvider provider = new DirectoryClassBytesProvider(root);
 
 		try {
+			String providerPackage = classPackage;
 			if (classPackage.length() == 0) {
-                                DataInputFullStream difs = new DataInputFullStream(FileUtil.getBytes(new File(root, className)));
+				DataInputFullStream difs = new DataInputFullStream(provider.getClassBytes(classPackage, className));
 				StructClass structClass = StructClass.create(difs, true, new LazyLoader(null));
 				structClass.releaseResources();
 				classPackage = structClass.qualifiedName.replace("/" //$NON-NLS-1$
 						+ className.replaceAll("(?i)\\.class", ""), ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				if (new File(root, classPackage).isDirectory()) {
+					providerPackage = classPackage;
+				}
 			}
 
-			FileUtil.zipDir(workingDir, classPackage, zipFileName);
+			JDCoreBytesLoader loader = new JDCoreBytesLoader(provider, classPackage, providerPackage);
+			JDCorePrinter printer = mapper.print(loader,
+					(classPackage.length() > 0 ? (classPackage + "/") : "") //$NON-NLS-1$ //$NON-NLS-2$
+							+ className,
+					options);
+			source = printer.toString();
+			lineMapping = printer.getLineMapping();
+		} catch (Exception e) {
+			JavaDecompilerPlugin.logError(e, e.getMessage());
+			exceptions.add(e);
+		}
 
-			if (UIUtil.isDebugPerspective() || JavaDecompilerPlugin.getDefault().isDebugMode()) {
-				displayNumber = JavaDecompilerPlugin.getDefault().isDisplayLineNumber();
-				JavaDecompilerPlugin.getDefault().displayLineNumber(Boolean.TRUE);
-			}
+		return new DecompilationResult(getDecompilerType(), source, lineMapping, stopWatch.getTime(), exceptions,
+				null);
+	}
 
-			source = mapper.decompile(zipFileName, (classPackage.length() > 0 ? (classPackage + "/") : "") //$NON-NLS-1$ //$NON-NLS-2$
-					+ className);
+	/**
+	 * Decompiles from class bytes served by the provider, only the classes
+	 * JD-Core asks for are read.
+	 * 
+	 * @see IInMemoryDecompiler#decompileFromBytes(DecompilerOptions,
+	 *      IClassBytesProvider, String, String)
+	 */
+	@Override
+	public DecompilationResult decompileFromBytes(DecompilerOptions options, IClassBytesProvider provider,
+			String packege, String className) {
+		StopWatch stopWatch = new StopWatch();
+		stopWatch.start();
+		String source = ""; //$NON-NLS-1$
+		int[] lineMapping = null;
+		List<Exception> exceptions = new ArrayList<>();
 
-			if (!zipFile.delete()) {
-				zipFile.deleteOnExit();
-			}
+		try {
+			JDCorePrinter printer = mapper.print(new JDCoreBytesLoader(provider),
+					(packege.length() > 0 ? (packege + "/") : "") //$NON-NLS-1$ //$NON-NLS-2$
+							+ className,
+					options);
+			source = printer.toString();
+			lineMapping = printer.getLineMapping();
 		} catch (Exception e) {
 			JavaDecompilerPlugin.logError(e, e.getMessage());
+			exceptions.add(e);
 		}
 
-		if (displayNumber != null) {
-			JavaDecompilerPlugin.getDefault().displayLineNumber(displayNumber);
-		}
-
-		time = stopWatch.getTime();
+		return new DecompilationResult(getDecompilerType(), source, lineMapping, stopWatch.getTime(), exceptions,
+				null);
 	}
 
 	/**
 	 * Our {@link JDCoreZipLoader} supports direct decompilation from within a JAR
 	 * archive
 	 * 
-	 * @see IDecompiler#decompileFromArchive(String, String, String)
+	 * @see IDecompiler#decompileFromArchive(DecompilerOptions, String, String,
+	 *      String)
 	 */
 	@Override
-	public void decompileFromArchive(String archivePath, String packege, String className) {
+	public DecompilationResult decompileFromArchive(DecompilerOptions options, String archivePath, String packege,
+			String className) {
 		long start = System.nanoTime();
-		Boolean displayNumber = null;
+		String source = ""; //$NON-NLS-1$
+		int[] lineMapping = null;
+		List<Exception> exceptions = new ArrayList<>();
 
 		try {
-			if (UIUtil.isDebugPerspective() || JavaDecompilerPlugin.getDefault().isDebugMode()) {
-				displayNumber = JavaDecompilerPlugin.getDefault().isDisplayLineNumber();
-				JavaDecompilerPlugin.getDefault().displayLineNumber(Boolean.TRUE);
-			}
-
 			String decompileClassName = packege + "/" + className.replaceAll("(?i)\\.class$", ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 
-			source = mapper.decompile(archivePath, decompileClassName);
+			JDCorePrinter printer = mapper.print(archivePath, decompileClassName, options);
+			source = printer.toString();
+			lineMapping = printer.getLineMapping();
 		} catch (Exception e) {
 			JavaDecompilerPlugin.logError(e, e.getMessage());
+			exceptions.add(e);
 		}
 
-		if (displayNumber != null) {
-			JavaDecompilerPlugin.getDefault().displayLineNumber(displayNumber);
-		}
-
-		time = (System.nanoTime() - start) / 1000000;
-	}
-
-	@Override
-	public long getDecompilationTime() {
-		return time;
-	}
-
-	@Override
-	public List<Exception> getExceptions() {
-		return Collections.emptyList();
-	}
-
-	/**
-	 * @see IDecompiler#getLog()
-	 */
-	@Override
-	public String getLog() {
-		return log;
-	}
-
-	/**
-	 * @see IDecompiler#getSource()
-	 */
-	@Override
-	public String getSource() {
-		return source;
+		return new DecompilationResult(getDecompilerType(), source, lineMapping,
+				(System.nanoTime() - start) / 1000000, exceptions, null);
 	}
 
 	@Override
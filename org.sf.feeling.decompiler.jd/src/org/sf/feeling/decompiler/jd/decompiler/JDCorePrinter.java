@@ -7,6 +7,8 @@
 
 package org.sf.feeling.decompiler.jd.decompiler;
 
+import java.util.Arrays;
+
 import org.jd.core.v1.api.printer.Printer;
 
 public class JDCorePrinter implements Printer {
@@ -21,6 +23,10 @@ public class JDCorePrinter implements Printer {
 	protected String lineNumberFormat;
 	protected int lineNumberWidth;
 
+	protected int currentLine = 1;
+	protected int[] lineMapping = new int[64];
+	protected int lineMappingLength = 0;
+
 	protected final boolean escapeUnicodeCharacters;
 	protected final boolean printLineNumbers;
 
@@ -34,12 +40,22 @@ public class JDCorePrinter implements Printer {
 		sb.setLength(0);
 		realLineNumber = 0;
 		indentationCount = 0;
+		currentLine = 1;
+		lineMappingLength = 0;
 	}
 
 	public String toString() {
 		return sb.toString();
 	}
 
+	/**
+	 * @return pairs of original line number and decompiled line number, or
+	 *         <code>null</code> if JD-Core reported no line numbers
+	 */
+	public int[] getLineMapping() {
+		return lineMappingLength == 0 ? null : Arrays.copyOf(lineMapping, lineMappingLength);
+	}
+
 	// --- Printer --- //
 	public void start(int maxLineNumber, int majorVersion, int minorVersion) {
 		this.indentationCount = 0;
@@ -120,6 +136,13 @@ public class JDCorePrinter implements Printer {
 	}
 
 	public void startLine(int lineNumber) {
+		if (lineNumber > 0) {
+			if (lineMappingLength == lineMapping.length) {
+				lineMapping = Arrays.copyOf(lineMapping, lineMappingLength * 2);
+			}
+			lineMapping[lineMappingLength++] = lineNumber;
+			lineMapping[lineMappingLength++] = currentLine;
+		}
 		printLineNumber(lineNumber);
 
 		for (int i = 0; i < indentationCount; i++)
@@ -128,12 +151,14 @@ public class JDCorePrinter implements Printer {
 
 	public void endLine() {
 		sb.append(NEWLINE);
+		currentLine++;
 	}
 
 	public void extraLine(int count) {
 		while (count-- > 0) {
 			printLineNumber(0);
 			sb.append(NEWLINE);
+			currentLine++;
 		}
 	}
 
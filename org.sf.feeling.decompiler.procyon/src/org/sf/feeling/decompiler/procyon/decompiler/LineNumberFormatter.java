@@ -11,9 +11,8 @@
 package org.sf.feeling.decompiler.procyon.decompiler;
 
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
@@ -25,7 +24,7 @@ import java.util.List;
 import com.strobel.decompiler.languages.LineNumberPosition;
 
 /**
- * A <code>LineNumberFormatter</code> is used to rewrite an existing .java file,
+ * A <code>LineNumberFormatter</code> is used to rewrite decompiled source code,
  * introducing line number information. It can handle either, or both, of the
  * following jobs:
  * 
@@ -37,7 +36,7 @@ import com.strobel.decompiler.languages.LineNumberPosition;
  */
 public class LineNumberFormatter {
 	private final List<LineNumberPosition> _positions;
-	private final File _file;
+	private final String _source;
 	private final EnumSet<LineNumberOption> _options;
 
 	public enum LineNumberOption {
@@ -47,21 +46,21 @@ public class LineNumberFormatter {
 	/**
 	 * Constructs an instance.
 	 * 
-	 * @param file                the file whose line numbers should be fixed
+	 * @param source              the source whose line numbers should be fixed
 	 * @param lineNumberPositions a recipe for how to fix the line numbers in
-	 *                            'file'.
+	 *                            'source'.
 	 * @param options             controls how 'this' represents line numbers in the
 	 *                            resulting file
 	 */
-	public LineNumberFormatter(File file, List<LineNumberPosition> lineNumberPositions,
+	public LineNumberFormatter(String source, List<LineNumberPosition> lineNumberPositions,
 			EnumSet<LineNumberOption> options) {
-		_file = file;
+		_source = source;
 		_positions = lineNumberPositions;
 		_options = (options == null ? EnumSet.noneOf(LineNumberOption.class) : options);
 	}
 
 	/**
-	 * Rewrites the file passed to 'this' constructor so that the actual line
+	 * Rewrites the source passed to 'this' constructor so that the actual line
 	 * numbers match the recipe passed to 'this' constructor.
 	 * 
 	 * @return The formatted source code
@@ -76,7 +75,7 @@ public class LineNumberFormatter {
 	}
 
 	/**
-	 * Processes {@link #_file}, breaking apart any lines on which multiple
+	 * Processes {@link #_source}, breaking apart any lines on which multiple
 	 * line-number markers appear in different columns.
 	 * 
 	 * @return the list of broken lines
@@ -86,13 +85,13 @@ public class LineNumberFormatter {
 		int lineOffset = 0;
 		List<String> brokenLines = new ArrayList<>();
 
-		try (BufferedReader r = new BufferedReader(new FileReader(_file))) {
+		try (BufferedReader r = new BufferedReader(new StringReader(_source))) {
 			for (int posIndex = 0; posIndex < _positions.size(); posIndex++) {
 				LineNumberPosition pos = _positions.get(posIndex);
 				o_LineBrokenPositions.add(new LineNumberPosition(pos.getOriginalLine(),
 						pos.getEmittedLine() + lineOffset, pos.getEmittedColumn()));
 
-				// Copy the input file up to but not including the emitted line # in "pos".
+				// Copy the input source up to but not including the emitted line # in "pos".
 				while (numLinesRead < pos.getEmittedLine() - 1) {
 					brokenLines.add(r.readLine());
 					numLinesRead++;
@@ -133,7 +132,7 @@ public class LineNumberFormatter {
 				brokenLines.add(new String(indent) + line);
 			}
 
-			// Copy out the remainder of the file.
+			// Copy out the remainder of the source.
 			String line;
 			while ((line = r.readLine()) != null) {
 				brokenLines.add(line);
@@ -144,7 +143,6 @@ public class LineNumberFormatter {
 
 	private void emitFormatted(List<String> brokenLines, List<LineNumberPosition> lineBrokenPositions, Writer writer)
 			throws IOException {
-		File tempFile = new File(_file.getAbsolutePath() + ".fixed");
 		int globalOffset = 0;
 		int numLinesRead = 0;
 		Iterator<String> lines = brokenLines.iterator();
@@ -234,11 +232,6 @@ public class LineNumberFormatter {
 				w.println(line);
 			}
 		}
-
-		// Delete the original file and rename the formatted temp file over the
-		// original.
-		_file.delete();
-		tempFile.renameTo(_file);
 	}
 
 }
@@ -8,28 +8,28 @@
 
 package org.sf.feeling.decompiler.procyon.decompiler;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
 
 import org.apache.commons.lang3.time.StopWatch;
 import org.sf.feeling.decompiler.JavaDecompilerPlugin;
+import org.sf.feeling.decompiler.editor.DecompilationResult;
+import org.sf.feeling.decompiler.editor.DecompilerOptions;
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
 import org.sf.feeling.decompiler.editor.IDecompiler;
+import org.sf.feeling.decompiler.editor.IInMemoryDecompiler;
 import org.sf.feeling.decompiler.procyon.ProcyonDecompilerPlugin;
 import org.sf.feeling.decompiler.procyon.decompiler.LineNumberFormatter.LineNumberOption;
-import org.sf.feeling.decompiler.util.ClassUtil;
-import org.sf.feeling.decompiler.util.FileUtil;
-import org.sf.feeling.decompiler.util.JarClassExtractor;
+import org.sf.feeling.decompiler.util.ArchiveClassBytesProvider;
+import org.sf.feeling.decompiler.util.DirectoryClassBytesProvider;
 import org.sf.feeling.decompiler.util.Logger;
-import org.sf.feeling.decompiler.util.UnicodeUtil;
+import org.sf.feeling.decompiler.util.SourceLexer;
 
 import com.strobel.assembler.metadata.DeobfuscationUtilities;
 import com.strobel.assembler.metadata.MetadataSystem;
@@ -42,172 +42,245 @@ import com.strobel.decompiler.languages.Language;
 import com.strobel.decompiler.languages.LineNumberPosition;
 import com.strobel.decompiler.languages.TypeDecompilationResults;
 
-public class ProcyonDecompiler implements IDecompiler {
+public class ProcyonDecompiler implements IInMemoryDecompiler {
 
-	private String source = ""; // $NON-NLS-1$ //$NON-NLS-1$
-	private long time;
-	private String log = ""; //$NON-NLS-1$
+	/**
+	 * Number of archives for which the resolved Procyon metadata is kept between
+	 * decompilations.
+	 */
+	private static final int MAX_CACHED_ARCHIVES = 4;
+
+	/**
+	 * Number of types a cached state may hold, a state which loaded more is
+	 * dropped once it is released. The metadata of an archive and of the
+	 * libraries it refers to would otherwise grow with every decompiled class.
+	 */
+	private static final int MAX_RESOLVED_TYPES = 20000;
+
+	/**
+	 * Cached states per archive, there is more than one state per archive if
+	 * classes of it are decompiled concurrently. At most
+	 * {@link #MAX_CACHED_ARCHIVES} archives with states of at most
+	 * {@link #MAX_RESOLVED_TYPES} types, plus the types of one decompilation,
+	 * are kept.
+	 */
+	private static final Map<String, List<ArchiveState>> archiveStates = new LinkedHashMap<String,
+			List<ArchiveState>>(MAX_CACHED_ARCHIVES, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, List<ArchiveState>> eldest) {
+			return size() > MAX_CACHED_ARCHIVES;
+		}
+	};
 
 	/**
-	 * @see IDecompiler#decompile(String, String, String)
+	 * Metadata system shared by successive decompilations of classes from the
+	 * same archive, so that referenced types are resolved only once.
+	 */
+	private static class ArchiveState {
+
+		private final String location;
+		private final long lastModified;
+		private boolean inUse;
+		private final ProcyonTypeLoader typeLoader;
+		private final MetadataSystem metadataSystem;
+
+		ArchiveState(String location, long lastModified) {
+			this.location = location;
+			this.lastModified = lastModified;
+			this.typeLoader = new ProcyonTypeLoader();
+			this.metadataSystem = new NoRetryMetadataSystem(typeLoader);
+			this.metadataSystem.setEagerMethodLoadingEnabled(false);
+		}
+	}
+
+	/**
+	 * Returns an unused cached state for an archive, or a new state if all are in
+	 * use, the archive has changed since or the classes come from a class folder.
+	 * The state has to be returned through {@link #releaseArchiveState}.
+	 */
+	private static ArchiveState acquireArchiveState(String location) {
+		File file = (location == null) ? null : new File(location);
+		if (file == null || !file.isFile()) {
+			return new ArchiveState(null, 0);
+		}
+
+		synchronized (archiveStates) {
+			List<ArchiveState> states = archiveStates.get(location);
+			if (states == null || (!states.isEmpty() && states.get(0).lastModified != file.lastModified())) {
+				states = new ArrayList<>();
+				archiveStates.put(location, states);
+			}
+			for (ArchiveState state : states) {
+				if (!state.inUse) {
+					state.inUse = true;
+					return state;
+				}
+			}
+			ArchiveState state = new ArchiveState(location, file.lastModified());
+			state.inUse = true;
+			states.add(state);
+			return state;
+		}
+	}
+
+	private static void releaseArchiveState(ArchiveState state) {
+		synchronized (archiveStates) {
+			state.inUse = false;
+			if (state.location != null && state.typeLoader.getLoadCount() > MAX_RESOLVED_TYPES) {
+				List<ArchiveState> states = archiveStates.get(state.location);
+				if (states != null) {
+					states.remove(state);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @see IDecompiler#decompile(DecompilerOptions, String, String, String)
+	 */
+	@Override
+	public DecompilationResult decompile(DecompilerOptions options, String root, String packege, String className) {
+		return decompileFromBytes(options, new DirectoryClassBytesProvider(root), packege, className);
+	}
+
+	/**
+	 * Decompiles a class file located in an archive. The classes are read
+	 * straight from the archive instead of being extracted into the temporary
+	 * directory.
+	 * 
+	 * @see IDecompiler#decompileFromArchive(DecompilerOptions, String, String,
+	 *      String)
 	 */
 	@Override
-	public void decompile(String root, String packege, String className) {
+	public DecompilationResult decompileFromArchive(DecompilerOptions options, String archivePath, String packege,
+			String className) {
 		StopWatch stopWatch = new StopWatch();
 		stopWatch.start();
-		log = ""; //$NON-NLS-1$
-		source = ""; //$NON-NLS-1$
-		File workingDir = new File(root + "/" + packege); //$NON-NLS-1$
+		try (ArchiveClassBytesProvider provider = new ArchiveClassBytesProvider(archivePath)) {
+			return decompileFromBytes(options, provider, packege, className);
+		} catch (Exception e) {
+			JavaDecompilerPlugin.logError(e, e.getMessage());
+			return DecompilationResult.empty(getDecompilerType(), stopWatch.getTime(), Collections.singletonList(e));
+		}
+	}
 
-		final String classPathStr = new File(workingDir, className).getAbsolutePath();
+	/**
+	 * If the source is realigned the line mapping of the result holds pairs of
+	 * original line number and decompiled line number, and the line numbers are
+	 * not printed as comments.
+	 * 
+	 * @see IInMemoryDecompiler#decompileFromBytes(DecompilerOptions,
+	 *      IClassBytesProvider, String, String)
+	 */
+	@Override
+	public DecompilationResult decompileFromBytes(DecompilerOptions options, IClassBytesProvider provider,
+			String packege, String className) {
+		StopWatch stopWatch = new StopWatch();
+		stopWatch.start();
+		StringBuilder log = new StringBuilder();
+		String source;
+		int[] lineMapping = null;
+
+		String internalName = (packege.length() == 0) ? className : packege + "/" + className; //$NON-NLS-1$
+		internalName = internalName.replaceAll("(?i)\\.class$", ""); //$NON-NLS-1$ //$NON-NLS-2$
 
 		boolean includeLineNumbers = false;
 		boolean stretchLines = false;
-		if (ClassUtil.isDebug()) {
+		if (options.isDebug()) {
 			includeLineNumbers = true;
 			stretchLines = true;
 		}
 
+		ArchiveState state = acquireArchiveState(provider.getLocation());
+
 		DecompilationOptions decompilationOptions = new DecompilationOptions();
 
 		DecompilerSettings settings = DecompilerSettings.javaDefaults();
-		settings.setTypeLoader(new com.strobel.assembler.InputTypeLoader());
+		settings.setTypeLoader(state.typeLoader);
 		settings.setForceExplicitImports(true);
 
 		decompilationOptions.setSettings(settings);
 		decompilationOptions.setFullDecompilation(true);
 
-		MetadataSystem metadataSystem = new NoRetryMetadataSystem(decompilationOptions.getSettings().getTypeLoader());
-		metadataSystem.setEagerMethodLoadingEnabled(false);
-
-		TypeReference type = metadataSystem.lookupType(classPathStr);
+		PlainTextOutput output = new PlainTextOutput();
+		output.setUnicodeOutputEnabled(decompilationOptions.getSettings().isUnicodeOutputEnabled());
 
-		TypeDefinition resolvedType;
-		if ((type == null) || ((resolvedType = type.resolve()) == null)) {
-			System.err.printf("!!! ERROR: Failed to load class %s.\n", //$NON-NLS-1$
-					new Object[] { classPathStr });
-			return;
-		}
+		TypeDecompilationResults results;
+		synchronized (state) {
+			state.typeLoader.setProvider(provider);
+			try {
+				TypeReference type = state.metadataSystem.lookupType(internalName);
 
-		DeobfuscationUtilities.processType(resolvedType);
-
-		String property = "java.io.tmpdir"; //$NON-NLS-1$
-		String tempDir = System.getProperty(property);
-		File classFile = new File(tempDir, System.currentTimeMillis() + className);
-		try {
-			TypeDecompilationResults results;
-			try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(classFile)))) {
-
-				PlainTextOutput output = new PlainTextOutput(writer);
+				TypeDefinition resolvedType;
+				if ((type == null) || ((resolvedType = type.resolve()) == null)) {
+					System.err.printf("!!! ERROR: Failed to load class %s.\n", //$NON-NLS-1$
+							new Object[] { internalName });
+					return DecompilationResult.empty(getDecompilerType(), stopWatch.getTime(), null);
+				}
 
-				output.setUnicodeOutputEnabled(decompilationOptions.getSettings().isUnicodeOutputEnabled());
+				DeobfuscationUtilities.processType(resolvedType);
 
 				Language lang = decompilationOptions.getSettings().getLanguage();
 
 				// perform the actual decompilation
 				results = lang.decompileType(resolvedType, output, decompilationOptions);
+			} finally {
+				state.typeLoader.setProvider(null);
+				releaseArchiveState(state);
 			}
+		}
+
+		source = output.toString();
 
+		if (options.isRealign()) {
+			lineMapping = getLineMapping(results.getLineNumberPositions());
+		} else if (includeLineNumbers || stretchLines) {
 			List<LineNumberPosition> lineNumberPositions = results.getLineNumberPositions();
 
-			if (includeLineNumbers || stretchLines) {
-				EnumSet<LineNumberOption> lineNumberOptions = EnumSet.noneOf(LineNumberOption.class);
+			EnumSet<LineNumberOption> lineNumberOptions = EnumSet.noneOf(LineNumberOption.class);
 
-				if (includeLineNumbers) {
-					lineNumberOptions.add(LineNumberFormatter.LineNumberOption.LEADING_COMMENTS);
-				}
+			if (includeLineNumbers) {
+				lineNumberOptions.add(LineNumberFormatter.LineNumberOption.LEADING_COMMENTS);
+			}
 
-				if (stretchLines) {
-					lineNumberOptions.add(LineNumberFormatter.LineNumberOption.STRETCHED);
-				}
+			if (stretchLines) {
+				lineNumberOptions.add(LineNumberFormatter.LineNumberOption.STRETCHED);
+			}
 
-				LineNumberFormatter lineFormatter = new LineNumberFormatter(classFile, lineNumberPositions,
-						lineNumberOptions);
+			LineNumberFormatter lineFormatter = new LineNumberFormatter(source, lineNumberPositions,
+					lineNumberOptions);
 
+			try {
 				source = lineFormatter.reformatFile();
-			} else {
-				source = FileUtil.getContent(classFile);
+			} catch (IOException e) {
+				Logger.error(e);
 			}
-
-		} catch (IOException e) {
-			Logger.error(e);
 		}
 
-		source = UnicodeUtil.decode(source);
-
-		classFile.delete();
+		source = SourceLexer.process(source, true, SourceLexer.LINE_NUMBER_COMMENT, log, lineMapping);
 
-		Pattern wp = Pattern.compile("/\\*.+?\\*/", Pattern.DOTALL); //$NON-NLS-1$
-		Matcher m = wp.matcher(source);
-		while (m.find()) {
-			if (m.group().matches("/\\*\\s*\\d*\\s*\\*/")) //$NON-NLS-1$
-				continue;
-			String group = m.group();
-			group = group.replace("/*", ""); //$NON-NLS-1$ //$NON-NLS-2$
-			group = group.replace("*/", ""); //$NON-NLS-1$ //$NON-NLS-2$
-			group = group.replace("*", ""); //$NON-NLS-1$ //$NON-NLS-2$
-			if (log.length() > 0)
-				log += "\n"; //$NON-NLS-1$
-			log += group;
-
-			source = source.replace(m.group(), ""); //$NON-NLS-1$
-		}
-
-		time = stopWatch.getTime();
+		return new DecompilationResult(getDecompilerType(), source, lineMapping, stopWatch.getTime(), null,
+				log.toString());
 	}
 
 	/**
-	 * Jad doesn't support decompilation from archives. This methods extracts
-	 * request class file from the specified archive into temp directory and then
-	 * calls <code>decompile</code>.
-	 * 
-	 * @see IDecompiler#decompileFromArchive(String, String, String)
+	 * @return pairs of original line number and decompiled line number, or
+	 *         <code>null</code> if Procyon reported no line numbers
 	 */
-	@Override
-	public void decompileFromArchive(String archivePath, String packege, String className) {
-		StopWatch stopWatch = new StopWatch();
-		stopWatch.start();
-		File workingDir = new File(
-				JavaDecompilerPlugin.getDefault().getPreferenceStore().getString(JavaDecompilerPlugin.TEMP_DIR) + "/" //$NON-NLS-1$
-						+ System.currentTimeMillis());
-
-		try {
-			workingDir.mkdirs();
-			JarClassExtractor.extract(archivePath, packege, className, true, workingDir.getAbsolutePath());
-			decompile(workingDir.getAbsolutePath(), "", className); //$NON-NLS-1$
-			time = stopWatch.getTime();
-		} catch (Exception e) {
-			JavaDecompilerPlugin.logError(e, e.getMessage());
-			return;
-		} finally {
-			FileUtil.deltree(workingDir);
+	private static int[] getLineMapping(List<LineNumberPosition> positions) {
+		if (positions == null || positions.isEmpty()) {
+			return null;
 		}
-	}
-
-	@Override
-	public long getDecompilationTime() {
-		return time;
-	}
-
-	@Override
-	public List<Exception> getExceptions() {
-		return Collections.emptyList();
-	}
-
-	/**
-	 * @see IDecompiler#getLog()
-	 */
-	@Override
-	public String getLog() {
-		return log;
-	}
-
-	/**
-	 * @see IDecompiler#getSource()
-	 */
-	@Override
-	public String getSource() {
-		return source;
+		int[] lineMapping = new int[positions.size() * 2];
+		int i = 0;
+		for (LineNumberPosition position : positions) {
+			lineMapping[i++] = position.getOriginalLine();
+			lineMapping[i++] = position.getEmittedLine();
+		}
+		return lineMapping;
 	}
 
 	@Override
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.procyon.decompiler;
+
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ClasspathTypeLoader;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * Procyon type loader which serves the classes of the decompiled archive from
+ * an {@link IClassBytesProvider}. Classes not found there, e.g. JRE classes,
+ * are loaded from the class path.
+ */
+class ProcyonTypeLoader implements ITypeLoader {
+
+	private final ITypeLoader fallback = new ClasspathTypeLoader();
+	private volatile IClassBytesProvider provider;
+	private int loadCount;
+
+	/**
+	 * Sets the provider serving the class bytes of the current decompilation. The
+	 * provider may change between decompilations as long as it serves the same
+	 * archive.
+	 */
+	void setProvider(IClassBytesProvider provider) {
+		this.provider = provider;
+	}
+
+	/**
+	 * @return the number of types this loader was asked for; the metadata system
+	 *         asks once per type and keeps the types loaded and the ones it
+	 *         failed to load
+	 */
+	int getLoadCount() {
+		return loadCount;
+	}
+
+	@Override
+	public boolean tryLoadType(String internalName, Buffer buffer) {
+		loadCount++;
+		IClassBytesProvider current = provider;
+		if (current != null) {
+			int index = internalName.lastIndexOf('/');
+			String packege = (index == -1) ? "" : internalName.substring(0, index); //$NON-NLS-1$
+			byte[] bytes = current.getClassBytes(packege, internalName.substring(index + 1) + ".class"); //$NON-NLS-1$
+			if (bytes != null) {
+				buffer.reset(bytes.length);
+				buffer.putByteArray(bytes, 0, bytes.length);
+				buffer.position(0);
+				return true;
+			}
+		}
+		return fallback.tryLoadType(internalName, buffer);
+	}
+}
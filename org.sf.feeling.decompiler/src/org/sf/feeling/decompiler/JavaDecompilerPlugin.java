@@ -9,6 +9,7 @@
 package org.sf.feeling.decompiler;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
@@ -28,13 +29,17 @@ import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.swt.graphics.RGB;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 import org.sf.feeling.decompiler.editor.DecompilerType;
 import org.sf.feeling.decompiler.editor.IDecompilerDescriptor;
 import org.sf.feeling.decompiler.editor.JavaDecompilerBufferManager;
 import org.sf.feeling.decompiler.extension.DecompilerAdapterManager;
+import org.sf.feeling.decompiler.service.DecompilerService;
 import org.sf.feeling.decompiler.source.attach.IAttachSourceHandler;
+import org.sf.feeling.decompiler.util.DecompileWatchdog;
+import org.sf.feeling.decompiler.util.DecompiledSourceCache;
 import org.sf.feeling.decompiler.util.FileUtil;
 import org.sf.feeling.decompiler.util.Logger;
 import org.sf.feeling.decompiler.util.SortMemberUtil;
@@ -56,6 +61,11 @@ public class JavaDecompilerPlugin extends AbstractUIPlugin implements IPropertyC
 	public static final String DEFAULT_EDITOR = "org.sf.feeling.decompiler.default_editor"; //$NON-NLS-1$ ;
 	public static final String EXPORT_ENCODING = "org.sf.feeling.decompiler.export.encoding"; //$NON-NLS-1$ ;
 	public static final String ATTACH_SOURCE = "org.sf.feeling.decompiler.attach_source"; //$NON-NLS-1$ ;
+	public static final String DECOMPILE_TIMEOUT = "org.sf.feeling.decompiler.timeout"; //$NON-NLS-1$ ;
+	public static final String DECOMPILE_MEMORY_LIMIT = "org.sf.feeling.decompiler.memory_limit"; //$NON-NLS-1$ ;
+	public static final String PARALLEL_DECOMPILE = "org.sf.feeling.decompiler.parallel"; //$NON-NLS-1$ ;
+	public static final String DECOMPILER_SERVICE = "org.sf.feeling.decompiler.service"; //$NON-NLS-1$ ;
+	public static final String DECOMPILER_SERVICE_PORT = "org.sf.feeling.decompiler.service.port"; //$NON-NLS-1$ ;
 
 	public static final String bytecodeMnemonicPreferencesPrefix = "BYTECODEMNEMONIC_"; //$NON-NLS-1$
 	public static final String BYTECODE_MNEMONIC = bytecodeMnemonicPreferencesPrefix + "bytecodeMnemonic"; //$NON-NLS-1$
@@ -97,6 +107,18 @@ public class JavaDecompilerPlugin extends AbstractUIPlugin implements IPropertyC
 
 	private int sourceMode = 0;
 
+	/**
+	 * Characters of decompiled sources kept in memory.
+	 */
+	private static final long SOURCE_CACHE_MEMORY_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * Bytes of decompiled sources kept in the workspace metadata.
+	 */
+	private static final long SOURCE_CACHE_DISK_SIZE = 128 * 1024 * 1024;
+
+	private DecompiledSourceCache sourceCache;
+
 	public Map<String, IDecompilerDescriptor> getDecompilerDescriptorMap() {
 		return decompilerDescriptorMap;
 	}
@@ -114,15 +136,23 @@ public class JavaDecompilerPlugin extends AbstractUIPlugin implements IPropertyC
 	}
 
 	public static void logError(Throwable t, String message) {
-		JavaDecompilerPlugin.getDefault().getLog().log(new Status(IStatus.ERROR, PLUGIN_ID, 0, message, t));
+		log(IStatus.ERROR, t, message);
 	}
 
 	public static void logInfo(String message) {
-		JavaDecompilerPlugin.getDefault().getLog().log(new Status(IStatus.INFO, PLUGIN_ID, 0, message, null));
+		log(IStatus.INFO, null, message);
 	}
 
+	/**
+	 * Logs to the platform log, or to the console if the plugin is not running,
+	 * e.g. when the decompilers are used by the benchmarks.
+	 */
 	public static void log(int severity, Throwable t, String message) {
-		JavaDecompilerPlugin.getDefault().getLog().log(new Status(severity, PLUGIN_ID, 0, message, t));
+		if (plugin == null) {
+			Logger.debug(message, t);
+			return;
+		}
+		plugin.getLog().log(new Status(severity, PLUGIN_ID, 0, message, t));
 	}
 
 	public static ImageDescriptor getImageDescriptor(String path) {
@@ -156,6 +186,11 @@ public class JavaDecompilerPlugin extends AbstractUIPlugin implements IPropertyC
 		store.setDefault(DEFAULT_EDITOR, true);
 		store.setDefault(ATTACH_SOURCE, true);
 		store.setDefault(EXPORT_ENCODING, "UTF-8"); //$NON-NLS-1$
+		store.setDefault(DECOMPILE_TIMEOUT, 30);
+		store.setDefault(DECOMPILE_MEMORY_LIMIT, 1024);
+		store.setDefault(PARALLEL_DECOMPILE, false);
+		store.setDefault(DECOMPILER_SERVICE, false);
+		store.setDefault(DECOMPILER_SERVICE_PORT, 0);
 
 		PreferenceConverter.setDefault(store, BYTECODE_MNEMONIC, new RGB(0, 0, 0));
 		store.setDefault(BYTECODE_MNEMONIC_BOLD, true);
@@ -192,8 +227,23 @@ public class JavaDecompilerPlugin extends AbstractUIPlugin implements IPropertyC
 
 	@Override
 	public void propertyChange(PropertyChangeEvent event) {
-		if (event.getProperty().equals(IGNORE_EXISTING))
+		if (event.getProperty().equals(IGNORE_EXISTING)) {
 			JavaDecompilerBufferManager.closeDecompilerBuffers(false);
+		} else if (event.getProperty().equals(DECOMPILER_SERVICE)) {
+			if (getPreferenceStore().getBoolean(DECOMPILER_SERVICE)) {
+				try {
+					DecompilerService.start();
+				} catch (IOException e) {
+					logError(e, "Failed to start the decompiler service"); //$NON-NLS-1$
+				}
+			} else {
+				DecompilerService.stop();
+			}
+		} else if (event.getProperty().equals(DECOMPILE_TIMEOUT)
+				|| event.getProperty().equals(DECOMPILE_MEMORY_LIMIT)) {
+			// classes which exceeded the old budget may fit into the new one
+			DecompileWatchdog.clearFailures();
+		}
 	}
 
 	@Override
@@ -202,7 +252,9 @@ public class JavaDecompilerPlugin extends AbstractUIPlugin implements IPropertyC
 		setDefaultDecompiler(getPreferenceStore());
 		getPreferenceStore().addPropertyChangeListener(this);
 		SortMemberUtil.deleteDecompilerProject();
-		Display.getDefault().asyncExec(new SetupRunnable());
+		if (PlatformUI.isWorkbenchRunning()) {
+			Display.getDefault().asyncExec(new SetupRunnable());
+		}
 	}
 
 	@Override
@@ -224,6 +276,7 @@ public class JavaDecompilerPlugin extends AbstractUIPlugin implements IPropertyC
 
 	@Override
 	public void stop(BundleContext context) throws Exception {
+		DecompilerService.stop();
 		FileUtil.deltree(new File(getPreferenceStore().getString(JavaDecompilerPlugin.TEMP_DIR)));
 
 		super.stop(context);
@@ -333,6 +386,18 @@ public class JavaDecompilerPlugin extends AbstractUIPlugin implements IPropertyC
 		this.sourceMode = sourceMode;
 	}
 
+	/**
+	 * @return the cache of decompiled sources, stored in the state location of
+	 *         this plug-in so that it survives restarts
+	 */
+	public synchronized DecompiledSourceCache getSourceCache() {
+		if (sourceCache == null) {
+			sourceCache = new DecompiledSourceCache(getStateLocation().append("sources").toFile(), //$NON-NLS-1$
+					SOURCE_CACHE_MEMORY_SIZE, SOURCE_CACHE_DISK_SIZE);
+		}
+		return sourceCache;
+	}
+
 	public String getDefaultExportEncoding() {
 		return getPreferenceStore().getDefaultString(JavaDecompilerPlugin.EXPORT_ENCODING);
 	}
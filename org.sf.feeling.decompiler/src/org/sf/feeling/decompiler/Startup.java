@@ -8,11 +8,22 @@
 
 package org.sf.feeling.decompiler;
 
+import java.io.IOException;
+
 import org.eclipse.ui.IStartup;
+import org.sf.feeling.decompiler.service.DecompilerService;
 
 public class Startup implements IStartup {
 
 	@Override
 	public void earlyStartup() {
+		JavaDecompilerPlugin plugin = JavaDecompilerPlugin.getDefault();
+		if (plugin.getPreferenceStore().getBoolean(JavaDecompilerPlugin.DECOMPILER_SERVICE)) {
+			try {
+				DecompilerService.start();
+			} catch (IOException e) {
+				JavaDecompilerPlugin.logError(e, "Failed to start the decompiler service"); //$NON-NLS-1$
+			}
+		}
 	}
 }
@@ -13,10 +13,22 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.zip.Deflater;
 import java.util.zip.ZipOutputStream;
 
@@ -24,6 +36,7 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jdt.core.IClassFile;
 import org.eclipse.jdt.core.IJavaElement;
@@ -41,14 +54,22 @@ import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.FileDialog;
 import org.sf.feeling.decompiler.JavaDecompilerPlugin;
+import org.sf.feeling.decompiler.editor.BaseDecompilerSourceMapper;
+import org.sf.feeling.decompiler.editor.DecompilerSourceMapper;
+import org.sf.feeling.decompiler.editor.SourceMapperFactory;
 import org.sf.feeling.decompiler.i18n.Messages;
 import org.sf.feeling.decompiler.util.DecompileUtil;
 import org.sf.feeling.decompiler.util.FileUtil;
-import org.sf.feeling.decompiler.util.Logger;
 import org.sf.feeling.decompiler.util.UIUtil;
 
 public class ExportSourceAction extends Action {
 
+	/**
+	 * Upper bound of the decompiling threads, every thread holds the state of
+	 * a decompiler for the exported archive.
+	 */
+	private static final int MAX_EXPORT_THREADS = 8;
+
 	private List selection = null;
 	private boolean isFlat = false;
 
@@ -146,7 +167,7 @@ public class ExportSourceAction extends Action {
 						try {
 							FileUtil.deleteDirectory(null, workingDir, 0);
 						} catch (IOException e) {
-							Logger.debug(e);
+							JavaDecompilerPlugin.logError(e, ""); //$NON-NLS-1$
 						}
 					}
 				}
@@ -203,11 +224,6 @@ public class ExportSourceAction extends Action {
 		monitor.beginTask(Messages.getString("ExportSourceAction.Task.Begin"), //$NON-NLS-1$
 				1000000);
 
-		final File workingDir = new File(
-				JavaDecompilerPlugin.getDefault().getPreferenceStore().getString(JavaDecompilerPlugin.TEMP_DIR)
-						+ "/export/" //$NON-NLS-1$
-						+ System.currentTimeMillis());
-
 		Map classes = new HashMap();
 		for (int i = 0; i < children.length; i++) {
 			if (monitor.isCanceled())
@@ -226,95 +242,214 @@ public class ExportSourceAction extends Action {
 		monitor.worked(20000);
 
 		IPackageFragment[] pkgs = (IPackageFragment[]) classes.keySet().toArray(new IPackageFragment[0]);
-		int step = 880000 / pkgs.length;
-		for (int i = 0; i < pkgs.length; i++) {
-			if (monitor.isCanceled())
-				return;
-			IPackageFragment pkg = pkgs[i];
-			List clazzs = (List) classes.get(pkg);
-			if (clazzs.size() == 0) {
-				monitor.worked(step);
-				continue;
+		int step = 980000 / Math.max(1, pkgs.length);
+		File zipFile = new File(projectFile);
+		// cancelling the futures of a ForkJoinPool does not interrupt the workers
+		ExecutorService pool = Executors.newFixedThreadPool(getExportThreads(), new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Export Sources"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
 			}
+		});
+		try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)))) {
+			zos.setLevel(Deflater.BEST_SPEED);
+			Set<String> entries = new HashSet<>();
 			int total = 0;
-			int classStep = step / clazzs.size();
-			for (int j = 0; j < clazzs.size(); j++) {
+			for (int i = 0; i < pkgs.length; i++) {
 				if (monitor.isCanceled())
 					return;
-				IJavaElement clazz = (IJavaElement) clazzs.get(j);
-				if (clazz instanceof IClassFile && clazz.getParent() instanceof IPackageFragment) {
-					String className = pkg.getElementName();
-					if (pkg.getElementName().length() > 0) {
-						className += ("." + clazz.getElementName()); //$NON-NLS-1$
+				IPackageFragment pkg = pkgs[i];
+				List clazzs = (List) classes.get(pkg);
+				if (clazzs.size() == 0) {
+					monitor.worked(step);
+					total += step;
+					continue;
+				}
+				List<IClassFile> classFiles = new ArrayList<>();
+				for (int j = 0; j < clazzs.size(); j++) {
+					if (clazzs.get(j) instanceof IClassFile) {
+						classFiles.add((IClassFile) clazzs.get(j));
 					}
-					monitor.subTask(className);
-					try {
-						IClassFile cf = (IClassFile) clazz;
-						if (cf.getElementName().indexOf('$') != -1)
-							continue;
-						String result = DecompileUtil.decompile(cf, decompilerType, always, reuseBuf, true);
-						if (result != null) {
-							String packageName = pkg.getElementName().replace('.', '/');
-							if (packageName.length() > 0)
-								packageName += "/"; //$NON-NLS-1$
-							FileUtil.writeToFile(
-									new File(workingDir, packageName + cf.getElementName().replaceAll("\\..+", "") //$NON-NLS-1$ //$NON-NLS-2$
-											+ ".java"), //$NON-NLS-1$
-									result);
-						} else {
-							IStatus status = new Status(IStatus.ERROR, JavaDecompilerPlugin.PLUGIN_ID,
-									Messages.getFormattedString("ExportSourceAction.Status.Error.DecompileFailed", //$NON-NLS-1$
-											new String[] { className }));
-							throw new CoreException(status);
-						}
-					} catch (Exception e) {
-						IStatus status = new Status(IStatus.ERROR, JavaDecompilerPlugin.PLUGIN_ID,
-								Messages.getFormattedString("ExportSourceAction.Status.Error.DecompileFailed", //$NON-NLS-1$
-										new String[] { className }));
-						exceptions.add(status);
+				}
+				DecompilerSourceMapper sourceMapper = SourceMapperFactory.getSourceMapper(decompilerType);
+				Object batch = null;
+				if (sourceMapper instanceof BaseDecompilerSourceMapper) {
+					batch = ((BaseDecompilerSourceMapper) sourceMapper).beginBatch(pkg, classFiles);
+				}
+				int worked;
+				try {
+					worked = exportClasses(monitor, pool, sourceMapper, decompilerType, reuseBuf, always, zos, entries,
+							pkg, classFiles, step, exceptions);
+				} finally {
+					if (sourceMapper instanceof BaseDecompilerSourceMapper) {
+						((BaseDecompilerSourceMapper) sourceMapper).endBatch(batch);
 					}
+				}
+				if (monitor.isCanceled())
+					return;
+				if (worked < step) {
+					monitor.worked(step - worked);
+				}
+				total += step;
+			}
+			if (total < 980000) {
+				monitor.worked(980000 - total);
+			}
+		} catch (IOException e) {
+			final IStatus status = new Status(IStatus.ERROR, JavaDecompilerPlugin.PLUGIN_ID,
+					Messages.getString("ExportSourceAction.Status.Error.ExportFailed"), //$NON-NLS-1$
+					e);
+			exceptions.add(status);
+		} finally {
+			pool.shutdownNow();
+			// the archive is incomplete
+			if (monitor.isCanceled()) {
+				zipFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Decompiles the class files of a package on the pool and streams the
+	 * sources into the zip. At most two classes per thread are in flight; the
+	 * entries are written and failures are reported in the order of the class
+	 * files, independent of the order in which the decompilations finish.
+	 * 
+	 * @return the work reported to the monitor
+	 */
+	private int exportClasses(IProgressMonitor monitor, ExecutorService pool, DecompilerSourceMapper sourceMapper,
+			String decompilerType, boolean reuseBuf, boolean always, ZipOutputStream zos, Set<String> entries,
+			IPackageFragment pkg, List<IClassFile> classFiles, int step, List exceptions)
+			throws InterruptedException, IOException {
+		List<IClassFile> exported = new ArrayList<>();
+		for (IClassFile cf : classFiles) {
+			if (cf.getElementName().indexOf('$') == -1) {
+				exported.add(cf);
+			}
+		}
+		if (exported.isEmpty()) {
+			return 0;
+		}
+
+		// attached sources are looked up through the Java model, which is
+		// not thread safe
+		boolean concurrent = sourceMapper instanceof BaseDecompilerSourceMapper
+				&& (always || !hasSourceAttachment((IPackageFragmentRoot) pkg.getParent()));
+		int window = concurrent ? getExportThreads() * 2 : 1;
 
+		int total = 0;
+		int classStep = step / exported.size();
+		Deque<Future<String>> pending = new ArrayDeque<>();
+		int next = 0;
+		try {
+			for (IClassFile cf : exported) {
+				while (next < exported.size() && pending.size() < window) {
+					pending.add(pool.submit(createExportTask(monitor, exported.get(next++), sourceMapper, concurrent,
+							decompilerType, always, reuseBuf)));
+				}
+
+				String className = pkg.getElementName();
+				if (pkg.getElementName().length() > 0) {
+					className += ("." + cf.getElementName()); //$NON-NLS-1$
+				}
+				monitor.subTask(className);
+
+				String result = null;
+				Throwable failure = null;
+				try {
+					result = getResult(pending.poll(), monitor);
+				} catch (OperationCanceledException e) {
+					return total;
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (ExecutionException e) {
+					failure = e.getCause() != null ? e.getCause() : e;
+				} catch (Exception e) {
+					failure = e;
+				}
+				if (result != null) {
+					String packageName = pkg.getElementName().replace('.', '/');
+					if (packageName.length() > 0)
+						packageName += "/"; //$NON-NLS-1$
+					String path = packageName + cf.getElementName().replaceAll("\\..+", "") //$NON-NLS-1$ //$NON-NLS-2$
+							+ ".java"; //$NON-NLS-1$
+					// the same package may be selected from several roots
+					if (entries.add(path)) {
+						FileUtil.writeToZip(zos, path, result);
+					}
+				} else {
+					String message = Messages.getFormattedString("ExportSourceAction.Status.Error.DecompileFailed", //$NON-NLS-1$
+							new String[] { className });
+					if (failure != null) {
+						JavaDecompilerPlugin.logError(failure, message);
+					}
+					exceptions.add(new Status(IStatus.ERROR, JavaDecompilerPlugin.PLUGIN_ID, message, failure));
 				}
 				total += classStep;
 				monitor.worked(classStep);
 			}
-			if (total < step) {
-				monitor.worked(step - total);
+		} finally {
+			for (Future<String> future : pending) {
+				future.cancel(true);
 			}
 		}
-		try {
-			int exportStep = 80000 / pkgs.length;
-			monitor.setTaskName(Messages.getString("ExportSourceAction.Task.ExportSource")); //$NON-NLS-1$
-			monitor.subTask(""); //$NON-NLS-1$
-			try (ZipOutputStream zos = new ZipOutputStream(
-					new BufferedOutputStream(new FileOutputStream(projectFile)))) {
-				zos.setLevel(Deflater.BEST_SPEED);
-				FileUtil.recursiveZip(monitor, zos, workingDir, "", //$NON-NLS-1$
-						null, exportStep);
-				monitor.subTask(""); //$NON-NLS-1$
-			}
+		return total;
+	}
 
-			int total = exportStep * pkgs.length;
-			if (total < 80000) {
-				monitor.worked(80000 - total);
+	/**
+	 * Waits for the decompilation while polling the monitor for cancellation.
+	 */
+	private static String getResult(Future<String> future, IProgressMonitor monitor) throws Exception {
+		while (true) {
+			if (monitor.isCanceled()) {
+				throw new OperationCanceledException();
 			}
+			try {
+				return future.get(100, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// check for cancellation
+			}
+		}
+	}
+
+	private Callable<String> createExportTask(final IProgressMonitor monitor, final IClassFile cf,
+			final DecompilerSourceMapper sourceMapper, final boolean concurrent, final String decompilerType,
+			final boolean always, final boolean reuseBuf) {
+		return new Callable<String>() {
 
-			int deleteStep = 20000 / pkgs.length;
-			monitor.setTaskName(Messages.getString("ExportSourceAction.Task.Clean")); //$NON-NLS-1$
-			monitor.subTask(""); //$NON-NLS-1$
-			FileUtil.deleteDirectory(monitor, workingDir.getParentFile(), deleteStep);
-			total = deleteStep * pkgs.length;
-			if (total < 20000) {
-				monitor.worked(20000 - total);
+			@Override
+			public String call() throws Exception {
+				// the queued tasks are still started after the export was cancelled
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+				if (concurrent) {
+					return ((BaseDecompilerSourceMapper) sourceMapper).decompile(cf, new ArrayList<Exception>());
+				}
+				return DecompileUtil.decompile(cf, decompilerType, always, reuseBuf, true);
 			}
-		} catch (Exception e) {
-			final IStatus status = new Status(IStatus.ERROR, JavaDecompilerPlugin.PLUGIN_ID,
-					Messages.getString("ExportSourceAction.Status.Error.ExportFailed"), //$NON-NLS-1$
-					e);
-			exceptions.add(status);
+		};
+	}
+
+	private boolean hasSourceAttachment(IPackageFragmentRoot root) {
+		try {
+			return root.getSourceAttachmentPath() != null;
+		} catch (JavaModelException e) {
+			return true;
 		}
 	}
 
+	/**
+	 * @return number of threads decompiling classes during an export, one core
+	 *         is left to the UI
+	 */
+	private static int getExportThreads() {
+		return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, MAX_EXPORT_THREADS));
+	}
+
 	private void collectClasses(IJavaElement element, Map classes, IProgressMonitor monitor) throws JavaModelException {
 		if (element instanceof IPackageFragment) {
 			IPackageFragment pkg = (IPackageFragment) element;
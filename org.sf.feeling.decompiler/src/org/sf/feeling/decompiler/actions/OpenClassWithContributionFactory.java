@@ -43,10 +43,15 @@ import org.eclipse.ui.menus.ExtensionContributionFactory;
 import org.eclipse.ui.menus.IContributionRoot;
 import org.eclipse.ui.services.IServiceLocator;
 import org.sf.feeling.decompiler.JavaDecompilerPlugin;
+import org.sf.feeling.decompiler.editor.BaseDecompilerSourceMapper;
+import org.sf.feeling.decompiler.editor.DecompilerSourceMapper;
 import org.sf.feeling.decompiler.editor.DecompilerType;
 import org.sf.feeling.decompiler.editor.IDecompilerDescriptor;
 import org.sf.feeling.decompiler.editor.JavaDecompilerClassFileEditor;
+import org.sf.feeling.decompiler.editor.SourceMapperFactory;
 import org.sf.feeling.decompiler.i18n.Messages;
+import org.sf.feeling.decompiler.util.DecompileWatchdog;
+import org.sf.feeling.decompiler.util.DecompileWatchdog.RaceReport;
 
 public class OpenClassWithContributionFactory extends ExtensionContributionFactory {
 
@@ -64,16 +69,44 @@ public class OpenClassWithContributionFactory extends ExtensionContributionFacto
 
 		@Override
 		public String getText() {
+			String text = classEditor.getLabel();
 			if (DecompilerType.FernFlower.equals(decompilerType))
-				return Messages.getString("JavaDecompilerActionBarContributor.Action.DecompileWithFernFlower"); //$NON-NLS-1$
+				text = Messages.getString("JavaDecompilerActionBarContributor.Action.DecompileWithFernFlower"); //$NON-NLS-1$
 			else {
 				IDecompilerDescriptor decompilerDescriptor = JavaDecompilerPlugin.getDefault()
 						.getDecompilerDescriptor(decompilerType);
 				if (decompilerDescriptor != null)
-					return decompilerDescriptor.getDecompileAction().getText();
+					text = decompilerDescriptor.getDecompileAction().getText();
 
 			}
-			return classEditor.getLabel();
+			return text + getRaceResult();
+		}
+
+		/**
+		 * @return the outcome of the decompiler in the last parallel decompilation
+		 *         of the class, or an empty string
+		 */
+		private String getRaceResult() {
+			if (classes.size() != 1) {
+				return ""; //$NON-NLS-1$
+			}
+			DecompilerSourceMapper sourceMapper = SourceMapperFactory.getSourceMapper(decompilerType);
+			if (!(sourceMapper instanceof BaseDecompilerSourceMapper)) {
+				return ""; //$NON-NLS-1$
+			}
+			String classKey = ((BaseDecompilerSourceMapper) sourceMapper).getClassKey((IClassFile) classes.get(0));
+			RaceReport report = DecompileWatchdog.getRaceReport(classKey);
+			if (report == null || report.getTime(decompilerType) == -1) {
+				return ""; //$NON-NLS-1$
+			}
+
+			String key = "OpenClassWithContributionFactory.Race.Finished"; //$NON-NLS-1$
+			if (decompilerType.equals(report.getWinner())) {
+				key = "OpenClassWithContributionFactory.Race.Won"; //$NON-NLS-1$
+			} else if (report.isCancelled(decompilerType)) {
+				key = "OpenClassWithContributionFactory.Race.Cancelled"; //$NON-NLS-1$
+			}
+			return Messages.getFormattedString(key, new Object[] { report.getTime(decompilerType) });
 		}
 
 		@Override
@@ -0,0 +1,388 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.sf.feeling.decompiler.JavaDecompilerPlugin;
+import org.sf.feeling.decompiler.editor.BaseDecompilerSourceMapper;
+import org.sf.feeling.decompiler.editor.DecompilationResult;
+import org.sf.feeling.decompiler.editor.DecompilerOptions;
+import org.sf.feeling.decompiler.editor.DecompilerSourceMapper;
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
+import org.sf.feeling.decompiler.editor.SourceMapperFactory;
+import org.sf.feeling.decompiler.util.ArchiveClassBytesProvider;
+import org.sf.feeling.decompiler.util.DecompiledSourceCache;
+import org.sf.feeling.decompiler.util.DirectoryClassBytesProvider;
+import org.sf.feeling.decompiler.util.FileUtil;
+
+/**
+ * Decompiles all classes of jars or class folders into sources jars without
+ * the Java model or the workbench. The classes are decompiled concurrently by
+ * the same decompilers, with the same post processing and source cache as in
+ * the editor; the sources are written in a deterministic order.
+ */
+public class BatchDecompiler {
+
+	/**
+	 * Outcome of the decompilation of a single class.
+	 */
+	public static class DecompiledClass {
+
+		private String path;
+		private String className;
+		private String source;
+		private String decompilerType;
+		private long time;
+		private boolean cached;
+		private Exception exception;
+
+		/**
+		 * @return path of the source, e.g. <code>java/lang/String.java</code>
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return binary name of the class
+		 */
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * @return the source or <code>null</code> if no decompiler succeeded
+		 */
+		public String getSource() {
+			return source;
+		}
+
+		/**
+		 * @return type of the decompiler which produced the source, or
+		 *         <code>null</code> if it was taken from the source cache
+		 */
+		public String getDecompilerType() {
+			return decompilerType;
+		}
+
+		/**
+		 * @return milliseconds the decompiler took
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public boolean isCached() {
+			return cached;
+		}
+
+		/**
+		 * @return the cause of a failure, may be <code>null</code>
+		 */
+		public Exception getException() {
+			return exception;
+		}
+	}
+
+	private final String decompilerType;
+	private final DecompilerOptions options;
+	private int threads = 1;
+	private long timeoutMillis;
+	private Set<String> classNames;
+	private boolean useCache = true;
+
+	/**
+	 * @param decompilerType type of the decompiler tried first, the others are
+	 *                       fallbacks as in the editor
+	 */
+	public BatchDecompiler(String decompilerType, DecompilerOptions options) {
+		this.decompilerType = decompilerType;
+		this.options = options;
+	}
+
+	/**
+	 * @param threads number of classes decompiled at once
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * @param timeoutMillis time limit of every decompiler tried for a class, no
+	 *                      limit if not positive
+	 */
+	public void setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * @param classNames binary names of the classes to decompile, e.g.
+	 *                   <code>java.lang.String</code>, or <code>null</code> to
+	 *                   decompile all classes
+	 */
+	public void setClassNames(Set<String> classNames) {
+		this.classNames = classNames;
+	}
+
+	/**
+	 * @param useCache <code>false</code> to neither read nor fill the source
+	 *                 cache
+	 */
+	public void setUseCache(boolean useCache) {
+		this.useCache = useCache;
+	}
+
+	/**
+	 * Decompiles the classes of the jar or class folder into the sources jar and
+	 * records them in the summary.
+	 *
+	 * @throws IOException if the input cannot be read or the output cannot be
+	 *                     written
+	 */
+	public void decompile(File input, File output, BatchSummary summary, IProgressMonitor monitor)
+			throws IOException, InterruptedException {
+		// fail early on an unknown decompiler
+		getSourceMapper();
+
+		long start = System.currentTimeMillis();
+		final boolean archive = !input.isDirectory();
+		IClassBytesProvider provider = archive ? new ArchiveClassBytesProvider(input.getAbsolutePath())
+				: new DirectoryClassBytesProvider(input.getAbsolutePath());
+		summary.beginInput(input.getAbsolutePath(), output.getAbsolutePath());
+		// future.cancel(true) does not interrupt the tasks of a ForkJoinPool, the
+		// watchdog needs the interrupt to stop the decompiler
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Batch Decompiler"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		boolean completed = false;
+		try {
+			List<String> paths = archive ? listArchiveClasses(input) : listDirectoryClasses(input);
+			monitor.beginTask(input.getName(), paths.size());
+			if (paths.isEmpty()) {
+				// a zip needs at least one entry
+				completed = true;
+				return;
+			}
+
+			if (output.getParentFile() != null) {
+				output.getParentFile().mkdirs();
+			}
+			try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+				zos.setLevel(Deflater.BEST_SPEED);
+
+				Deque<Future<DecompiledClass>> pending = new ArrayDeque<>();
+				int next = 0;
+				try {
+					while (next < paths.size() || !pending.isEmpty()) {
+						while (next < paths.size() && pending.size() < threads * 2) {
+							pending.add(pool.submit(createTask(provider, archive, paths.get(next++))));
+						}
+						if (monitor.isCanceled()) {
+							throw new InterruptedException();
+						}
+						DecompiledClass unit = getResult(pending.poll());
+						monitor.subTask(unit.className);
+						if (unit.source != null) {
+							FileUtil.writeToZip(zos, unit.path, unit.source);
+							if (unit.cached) {
+								summary.addCached();
+							} else {
+								summary.addDecompiled(unit.decompilerType, unit.time);
+							}
+						} else {
+							summary.addFailure(unit.className,
+									unit.exception == null ? null : unit.exception.toString());
+						}
+						monitor.worked(1);
+					}
+				} finally {
+					for (Future<DecompiledClass> future : pending) {
+						future.cancel(true);
+					}
+				}
+			}
+			completed = true;
+		} finally {
+			pool.shutdownNow();
+			// do not leave an incomplete sources jar behind
+			if (!completed && output.exists()) {
+				output.delete();
+			}
+			if (provider instanceof ArchiveClassBytesProvider) {
+				((ArchiveClassBytesProvider) provider).close();
+			}
+			summary.endInput(System.currentTimeMillis() - start);
+			monitor.done();
+		}
+	}
+
+	private static DecompiledClass getResult(Future<DecompiledClass> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			// the task does not throw
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private Callable<DecompiledClass> createTask(final IClassBytesProvider provider, final boolean archive,
+			final String path) {
+		return new Callable<DecompiledClass>() {
+
+			@Override
+			public DecompiledClass call() {
+				return decompile(provider, archive, path);
+			}
+		};
+	}
+
+	/**
+	 * Decompiles a single class, or takes its source from the source cache.
+	 *
+	 * @param archive <code>true</code> if the location of the provider is an
+	 *                archive, otherwise it is the root directory of the classes
+	 * @param path    path of the class file, e.g.
+	 *                <code>java/lang/String.class</code>
+	 */
+	public DecompiledClass decompile(IClassBytesProvider provider, boolean archive, String path) {
+		int index = path.lastIndexOf('/');
+		String pkg = index == -1 ? "" : path.substring(0, index); //$NON-NLS-1$
+		String className = path.substring(index + 1);
+
+		DecompiledClass unit = new DecompiledClass();
+		unit.path = path.substring(0, path.length() - ".class".length()) + ".java"; //$NON-NLS-1$ //$NON-NLS-2$
+		unit.className = getBinaryName(path);
+		try {
+			BaseDecompilerSourceMapper sourceMapper = getSourceMapper();
+			DecompiledSourceCache sourceCache = JavaDecompilerPlugin.getDefault().getSourceCache();
+			String cacheKey = useCache ? sourceMapper.getCacheKey(provider, pkg, className) : null;
+			unit.source = cacheKey == null ? null : sourceCache.get(cacheKey);
+			if (unit.source != null) {
+				unit.cached = true;
+				return unit;
+			}
+
+			Collection<Exception> exceptions = Collections.synchronizedList(new ArrayList<Exception>());
+			DecompilationResult result = sourceMapper.decompile(options, provider, archive, pkg, className,
+					timeoutMillis, exceptions);
+			if (result != null) {
+				unit.source = result.getSource();
+				unit.decompilerType = result.getDecompilerType();
+				unit.time = result.getDecompilationTime();
+				if (cacheKey != null && exceptions.isEmpty()) {
+					// cached where it is looked up, and under the decompiler which
+					// produced the source
+					sourceCache.put(cacheKey, unit.source);
+					if (unit.decompilerType != null && !unit.decompilerType.equals(decompilerType)) {
+						sourceCache.put(sourceMapper.getCacheKey(provider, pkg, className, unit.decompilerType),
+								unit.source);
+					}
+				}
+			} else if (!exceptions.isEmpty()) {
+				unit.exception = exceptions.iterator().next();
+			}
+		} catch (Exception e) {
+			unit.source = null;
+			unit.exception = e;
+		}
+		return unit;
+	}
+
+	private BaseDecompilerSourceMapper getSourceMapper() {
+		DecompilerSourceMapper mapper = SourceMapperFactory.getSourceMapper(decompilerType);
+		if (!(mapper instanceof BaseDecompilerSourceMapper)) {
+			throw new IllegalArgumentException("Unknown decompiler: " + decompilerType); //$NON-NLS-1$
+		}
+		return (BaseDecompilerSourceMapper) mapper;
+	}
+
+	/**
+	 * @return the paths of the outer classes in the archive, sorted
+	 */
+	private List<String> listArchiveClasses(File archive) throws IOException {
+		List<String> paths = new ArrayList<>();
+		try (ZipFile zipFile = new ZipFile(archive)) {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (!entry.isDirectory() && isSelected(entry.getName())) {
+					paths.add(entry.getName());
+				}
+			}
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	/**
+	 * @return the paths of the outer classes below the class folder, sorted
+	 */
+	private List<String> listDirectoryClasses(File directory) {
+		List<String> paths = new ArrayList<>();
+		collectClasses(directory, "", paths); //$NON-NLS-1$
+		Collections.sort(paths);
+		return paths;
+	}
+
+	private void collectClasses(File directory, String prefix, List<String> paths) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String path = prefix + file.getName();
+			if (file.isDirectory()) {
+				collectClasses(file, path + "/", paths); //$NON-NLS-1$
+			} else if (isSelected(path)) {
+				paths.add(path);
+			}
+		}
+	}
+
+	private boolean isSelected(String path) {
+		if (!path.endsWith(".class") || path.startsWith("META-INF/")) //$NON-NLS-1$ //$NON-NLS-2$
+			return false;
+		if (path.substring(path.lastIndexOf('/') + 1).indexOf('$') != -1)
+			return false;
+		return classNames == null || classNames.contains(getBinaryName(path));
+	}
+
+	private static String getBinaryName(String path) {
+		return path.substring(0, path.length() - ".class".length()).replace('/', '.'); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+
+/**
+ * Machine readable summary of a batch decompilation: the classes decompiled,
+ * taken from the source cache and failed per input, and the classes and time
+ * per decompiler. Not thread safe, the {@link BatchDecompiler} records from a
+ * single thread.
+ */
+public class BatchSummary {
+
+	private static class InputSummary {
+
+		private final String input;
+		private final String output;
+		private int classes;
+		private int cached;
+		private final List<String[]> failures = new ArrayList<>();
+		private long time;
+
+		InputSummary(String input, String output) {
+			this.input = input;
+			this.output = output;
+		}
+	}
+
+	private static class EngineSummary {
+
+		private int classes;
+		private long time;
+	}
+
+	private final List<InputSummary> inputs = new ArrayList<>();
+	private final Map<String, EngineSummary> engines = new TreeMap<>();
+	private InputSummary current;
+
+	/**
+	 * Starts recording the classes of the given input.
+	 */
+	public void beginInput(String input, String output) {
+		current = new InputSummary(input, output);
+		inputs.add(current);
+	}
+
+	/**
+	 * Ends recording the current input.
+	 *
+	 * @param time milliseconds the input took, including writing the sources
+	 */
+	public void endInput(long time) {
+		current.time = time;
+		current = null;
+	}
+
+	/**
+	 * Records a class decompiled by the given decompiler.
+	 *
+	 * @param time milliseconds the decompiler took
+	 */
+	public void addDecompiled(String decompilerType, long time) {
+		current.classes++;
+		EngineSummary engine = engines.get(decompilerType);
+		if (engine == null) {
+			engine = new EngineSummary();
+			engines.put(decompilerType, engine);
+		}
+		engine.classes++;
+		engine.time += time;
+	}
+
+	/**
+	 * Records a class whose source was taken from the source cache.
+	 */
+	public void addCached() {
+		current.classes++;
+		current.cached++;
+	}
+
+	/**
+	 * Records a class no decompiler succeeded with.
+	 *
+	 * @param message cause of the failure, may be <code>null</code>
+	 */
+	public void addFailure(String className, String message) {
+		current.classes++;
+		current.failures.add(new String[] { className, message });
+	}
+
+	public int getClassCount() {
+		int count = 0;
+		for (InputSummary input : inputs) {
+			count += input.classes;
+		}
+		return count;
+	}
+
+	public int getFailureCount() {
+		int count = 0;
+		for (InputSummary input : inputs) {
+			count += input.failures.size();
+		}
+		return count;
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		int cached = 0;
+		long time = 0;
+		JsonArray inputArray = new JsonArray();
+		for (InputSummary input : inputs) {
+			JsonArray failures = new JsonArray();
+			for (String[] failure : input.failures) {
+				JsonObject failureJson = new JsonObject().add("class", failure[0]); //$NON-NLS-1$
+				if (failure[1] != null) {
+					failureJson.add("message", failure[1]); //$NON-NLS-1$
+				}
+				failures.add(failureJson);
+			}
+			inputArray.add(new JsonObject().add("input", input.input) //$NON-NLS-1$
+					.add("output", input.output) //$NON-NLS-1$
+					.add("classes", input.classes) //$NON-NLS-1$
+					.add("cached", input.cached) //$NON-NLS-1$
+					.add("failed", input.failures.size()) //$NON-NLS-1$
+					.add("timeMillis", input.time) //$NON-NLS-1$
+					.add("failures", failures)); //$NON-NLS-1$
+			cached += input.cached;
+			time += input.time;
+		}
+
+		JsonObject engineObject = new JsonObject();
+		for (Map.Entry<String, EngineSummary> entry : engines.entrySet()) {
+			engineObject.add(entry.getKey(), new JsonObject().add("classes", entry.getValue().classes) //$NON-NLS-1$
+					.add("timeMillis", entry.getValue().time)); //$NON-NLS-1$
+		}
+
+		json.add("classes", getClassCount()); //$NON-NLS-1$
+		json.add("cached", cached); //$NON-NLS-1$
+		json.add("failed", getFailureCount()); //$NON-NLS-1$
+		json.add("timeMillis", time); //$NON-NLS-1$
+		json.add("engines", engineObject); //$NON-NLS-1$
+		json.add("inputs", inputArray); //$NON-NLS-1$
+		return json;
+	}
+}
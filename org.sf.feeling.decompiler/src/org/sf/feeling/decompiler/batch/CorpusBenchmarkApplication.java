@@ -0,0 +1,412 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.batch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IProjectDescription;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.eclipse.jdt.core.IClassFile;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.sf.feeling.decompiler.JavaDecompilerPlugin;
+import org.sf.feeling.decompiler.editor.DecompilerType;
+import org.sf.feeling.decompiler.util.DecompileUtil;
+
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.WriterConfig;
+
+/**
+ * Measures the whole pipeline of opening a class, from
+ * {@link DecompileUtil#decompile(IClassFile, String, boolean, boolean, boolean)}
+ * to mapping the source ranges, for every class of a corpus of jars, e.g.
+ *
+ * <pre>
+ * eclipse -nosplash -data /tmp/corpus-ws -application org.sf.feeling.decompiler.corpus
+ *     -input corpus/ -output results.json -label `git rev-parse --short HEAD`
+ * </pre>
+ *
+ * The jars are added to a Java project of the workspace given by
+ * <code>-data</code>, which should be a dedicated one: the project is
+ * recreated, the preferences are changed during the run and the source cache
+ * is cleared. Every decompiler is run with every option set; the Java model is
+ * closed and the source cache cleared between the runs. The JDK classes can be
+ * measured with a jar of them, e.g. <code>rt.jar</code> of a Java 8 or a jar
+ * of the <code>java.base</code> classes extracted from a later JDK.
+ * <p>
+ * The result is written as JSON, see {@link CorpusBenchmarkResult}. The exit
+ * code is 0 if all classes were decompiled, 2 if some failed and 1 if the
+ * arguments are invalid or the corpus could not be set up.
+ */
+public class CorpusBenchmarkApplication implements IApplication {
+
+	private static final Integer EXIT_ERROR = Integer.valueOf(1);
+	private static final Integer EXIT_FAILURES = Integer.valueOf(2);
+
+	private static final String PROJECT_NAME = ".decompiler-corpus"; //$NON-NLS-1$
+
+	private static final String USAGE = "Usage: -input <jar|directory of jars> [-input ...]\n" //$NON-NLS-1$
+			+ "  [-output <json file>] [-label <text>]\n" //$NON-NLS-1$
+			+ "  [-decompiler <type> ...] [-options <" + getOptionSetNames() + "> ...]\n" //$NON-NLS-1$ //$NON-NLS-2$
+			+ "  [-warmup <classes>] [-limit <classes per jar>]"; //$NON-NLS-1$
+
+	/**
+	 * Preferences selecting the post processing.
+	 */
+	private static class OptionSet {
+
+		private static final OptionSet[] ALL = { new OptionSet("default", false, false, true, false), //$NON-NLS-1$
+				new OptionSet("raw", false, false, false, false), //$NON-NLS-1$
+				new OptionSet("lineNumbers", true, true, true, false), //$NON-NLS-1$
+				new OptionSet("sorted", false, false, true, true) //$NON-NLS-1$
+		};
+
+		private final String name;
+		private final boolean lineNumbers;
+		private final boolean align;
+		private final boolean format;
+		private final boolean sort;
+
+		OptionSet(String name, boolean lineNumbers, boolean align, boolean format, boolean sort) {
+			this.name = name;
+			this.lineNumbers = lineNumbers;
+			this.align = align;
+			this.format = format;
+			this.sort = sort;
+		}
+
+		void apply(IPreferenceStore prefs) {
+			prefs.setValue(JavaDecompilerPlugin.PREF_DISPLAY_LINE_NUMBERS, lineNumbers);
+			prefs.setValue(JavaDecompilerPlugin.ALIGN, align);
+			prefs.setValue(JavaDecompilerPlugin.USE_ECLIPSE_FORMATTER, format);
+			prefs.setValue(JavaDecompilerPlugin.USE_ECLIPSE_SORTER, sort);
+		}
+
+		JsonObject toJson() {
+			return new JsonObject().add("name", name) //$NON-NLS-1$
+					.add("lineNumbers", lineNumbers) //$NON-NLS-1$
+					.add("align", align) //$NON-NLS-1$
+					.add("format", format) //$NON-NLS-1$
+					.add("sort", sort); //$NON-NLS-1$
+		}
+
+		static OptionSet get(String name) {
+			for (OptionSet optionSet : ALL) {
+				if (optionSet.name.equals(name)) {
+					return optionSet;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Preferences changed by the benchmark, restored afterwards.
+	 */
+	private static final String[] CHANGED_PREFERENCES = { JavaDecompilerPlugin.PREF_DISPLAY_LINE_NUMBERS,
+			JavaDecompilerPlugin.ALIGN, JavaDecompilerPlugin.USE_ECLIPSE_FORMATTER,
+			JavaDecompilerPlugin.USE_ECLIPSE_SORTER, JavaDecompilerPlugin.IGNORE_EXISTING,
+			JavaDecompilerPlugin.ATTACH_SOURCE, JavaDecompilerPlugin.PREF_DISPLAY_METADATA };
+
+	private volatile boolean stopped;
+
+	@Override
+	public Object start(IApplicationContext context) throws Exception {
+		String[] args = (String[]) context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+
+		List<File> jars = new ArrayList<>();
+		List<String> decompilerTypes = new ArrayList<>();
+		List<OptionSet> optionSets = new ArrayList<>();
+		File output = null;
+		String label = null;
+		int warmup = 100;
+		int limit = Integer.MAX_VALUE;
+
+		try {
+			for (int i = 0; args != null && i < args.length; i++) {
+				String arg = args[i];
+				if (i + 1 >= args.length) {
+					return usage("Missing value of " + arg); //$NON-NLS-1$
+				}
+				String value = args[++i];
+				if ("-input".equals(arg)) { //$NON-NLS-1$
+					if (!addJars(new File(value), jars)) {
+						return usage("No jar found: " + value); //$NON-NLS-1$
+					}
+				} else if ("-output".equals(arg)) { //$NON-NLS-1$
+					output = new File(value);
+				} else if ("-decompiler".equals(arg)) { //$NON-NLS-1$
+					decompilerTypes.add(value);
+				} else if ("-options".equals(arg)) { //$NON-NLS-1$
+					OptionSet optionSet = OptionSet.get(value);
+					if (optionSet == null) {
+						return usage("Unknown option set " + value); //$NON-NLS-1$
+					}
+					optionSets.add(optionSet);
+				} else if ("-warmup".equals(arg)) { //$NON-NLS-1$
+					warmup = Integer.parseInt(value);
+				} else if ("-limit".equals(arg)) { //$NON-NLS-1$
+					limit = Integer.parseInt(value);
+				} else if ("-label".equals(arg)) { //$NON-NLS-1$
+					label = value;
+				} else {
+					return usage("Unknown argument " + arg); //$NON-NLS-1$
+				}
+			}
+		} catch (NumberFormatException e) {
+			return usage(e.getMessage());
+		}
+		if (jars.isEmpty()) {
+			return usage(null);
+		}
+		if (decompilerTypes.isEmpty()) {
+			decompilerTypes.add(DecompilerType.FernFlower);
+			String[] types = JavaDecompilerPlugin.getDefault().getDecompilerDescriptorTypes();
+			Arrays.sort(types);
+			decompilerTypes.addAll(Arrays.asList(types));
+		}
+		if (optionSets.isEmpty()) {
+			optionSets.addAll(Arrays.asList(OptionSet.ALL));
+		}
+
+		CorpusBenchmarkResult result = new CorpusBenchmarkResult(label);
+		for (File jar : jars) {
+			result.addInput(jar.getAbsolutePath());
+		}
+
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		Map<String, String> savedPreferences = new LinkedHashMap<>();
+		for (String key : CHANGED_PREFERENCES) {
+			savedPreferences.put(key, prefs.getString(key));
+		}
+		// always decompile, never look for sources
+		prefs.setValue(JavaDecompilerPlugin.IGNORE_EXISTING, true);
+		prefs.setValue(JavaDecompilerPlugin.ATTACH_SOURCE, false);
+		prefs.setValue(JavaDecompilerPlugin.PREF_DISPLAY_METADATA, false);
+
+		IJavaProject project = null;
+		try {
+			project = createProject(jars);
+			List<IClassFile> classFiles = listClassFiles(project, limit);
+			for (String decompilerType : decompilerTypes) {
+				for (OptionSet optionSet : optionSets) {
+					if (stopped) {
+						break;
+					}
+					optionSet.apply(prefs);
+					run(project, classFiles, decompilerType, optionSet, warmup, result);
+				}
+			}
+		} catch (CoreException e) {
+			System.err.println("Failed to set up the corpus: " + e); //$NON-NLS-1$
+			JavaDecompilerPlugin.logError(e, "Failed to set up the corpus"); //$NON-NLS-1$
+			return EXIT_ERROR;
+		} finally {
+			for (Map.Entry<String, String> entry : savedPreferences.entrySet()) {
+				prefs.setValue(entry.getKey(), entry.getValue());
+			}
+			if (project != null) {
+				project.getProject().delete(true, true, null);
+			}
+		}
+
+		String json = result.toJson().toString(WriterConfig.PRETTY_PRINT);
+		if (output != null) {
+			try (Writer writer = new OutputStreamWriter(new FileOutputStream(output), "UTF-8")) { //$NON-NLS-1$
+				writer.write(json);
+			}
+		} else {
+			System.out.println(json);
+		}
+		return result.getFailureCount() > 0 ? EXIT_FAILURES : IApplication.EXIT_OK;
+	}
+
+	@Override
+	public void stop() {
+		stopped = true;
+	}
+
+	private void run(IJavaProject project, List<IClassFile> classFiles, String decompilerType, OptionSet optionSet,
+			int warmup, CorpusBenchmarkResult result) throws CoreException {
+		// start without decompiled sources, buffers and source ranges
+		JavaDecompilerPlugin.getDefault().getSourceCache().clear();
+		project.close();
+		for (int i = 0; i < warmup && i < classFiles.size() && !stopped; i++) {
+			decompile(classFiles.get(i), decompilerType);
+		}
+		JavaDecompilerPlugin.getDefault().getSourceCache().clear();
+		project.close();
+		System.gc();
+		resetPeakHeap();
+
+		result.beginRun(decompilerType, optionSet.toJson());
+		long start = System.nanoTime();
+		int failed = 0;
+		for (IClassFile classFile : classFiles) {
+			if (stopped) {
+				break;
+			}
+			long classStart = System.nanoTime();
+			String message = decompile(classFile, decompilerType);
+			long nanos = System.nanoTime() - classStart;
+			boolean failure = message != null;
+			if (failure) {
+				failed++;
+			}
+			result.addClass(getClassName(classFile), nanos, failure,
+					failure && message.length() > 0 ? message : null);
+		}
+		long time = (System.nanoTime() - start) / 1000000;
+		result.endRun(time, getPeakHeap());
+		System.err.println(decompilerType + "/" + optionSet.name + ": " + classFiles.size() //$NON-NLS-1$ //$NON-NLS-2$
+				+ " classes, " + failed + " failed, " + time + " ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/**
+	 * @return <code>null</code> if the class was decompiled, otherwise the cause
+	 *         of the failure, empty if unknown
+	 */
+	private static String decompile(IClassFile classFile, String decompilerType) {
+		try {
+			String source = DecompileUtil.decompile(classFile, decompilerType, true, false, true);
+			return source == null ? "" : null; //$NON-NLS-1$
+		} catch (CoreException | RuntimeException e) {
+			return e.toString();
+		}
+	}
+
+	private static String getClassName(IClassFile classFile) {
+		String pkg = classFile.getParent().getElementName();
+		String name = classFile.getElementName();
+		name = name.substring(0, name.length() - ".class".length()); //$NON-NLS-1$
+		return pkg.length() == 0 ? name : pkg + '.' + name;
+	}
+
+	private static IJavaProject createProject(List<File> jars) throws CoreException {
+		IProject project = ResourcesPlugin.getWorkspace().getRoot().getProject(PROJECT_NAME);
+		if (project.exists()) {
+			project.delete(true, true, null);
+		}
+		project.create(null);
+		project.open(null);
+		IProjectDescription description = project.getDescription();
+		description.setNatureIds(new String[] { JavaCore.NATURE_ID });
+		project.setDescription(description, null);
+
+		IJavaProject javaProject = JavaCore.create(project);
+		List<IClasspathEntry> entries = new ArrayList<>();
+		for (File jar : jars) {
+			entries.add(JavaCore.newLibraryEntry(new Path(jar.getAbsolutePath()), null, null));
+		}
+		javaProject.setRawClasspath(entries.toArray(new IClasspathEntry[entries.size()]), null);
+		return javaProject;
+	}
+
+	/**
+	 * @return the outer classes of the jars, at most <code>limit</code> per jar
+	 */
+	private static List<IClassFile> listClassFiles(IJavaProject project, int limit) throws CoreException {
+		List<IClassFile> classFiles = new ArrayList<>();
+		for (IPackageFragmentRoot root : project.getPackageFragmentRoots()) {
+			int count = 0;
+			for (IJavaElement pkg : root.getChildren()) {
+				for (IJavaElement child : ((IPackageFragment) pkg).getChildren()) {
+					if (child instanceof IClassFile && child.getElementName().indexOf('$') == -1 && count < limit) {
+						classFiles.add((IClassFile) child);
+						count++;
+					}
+				}
+			}
+		}
+		return classFiles;
+	}
+
+	private static boolean addJars(File input, List<File> jars) {
+		if (input.isFile()) {
+			jars.add(input);
+			return true;
+		}
+		File[] files = input.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".jar"); //$NON-NLS-1$
+			}
+		});
+		if (files == null || files.length == 0) {
+			return false;
+		}
+		Arrays.sort(files);
+		jars.addAll(Arrays.asList(files));
+		return true;
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * @return the sum of the peaks of the heap pools, an upper bound of the peak
+	 *         of the heap
+	 */
+	private static long getPeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private static String getOptionSetNames() {
+		StringBuilder names = new StringBuilder();
+		for (OptionSet optionSet : OptionSet.ALL) {
+			if (names.length() > 0) {
+				names.append('|');
+			}
+			names.append(optionSet.name);
+		}
+		return names.toString();
+	}
+
+	private Object usage(String message) {
+		if (message != null) {
+			System.err.println(message);
+		}
+		System.err.println(USAGE);
+		return EXIT_ERROR;
+	}
+}
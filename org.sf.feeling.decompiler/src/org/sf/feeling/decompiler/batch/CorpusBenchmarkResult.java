@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.batch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+
+/**
+ * Measurements of the {@link CorpusBenchmarkApplication}: per decompiler and
+ * option set the latency of every class, the throughput, the peak heap and the
+ * failures. Not thread safe, the classes are decompiled one after another.
+ */
+public class CorpusBenchmarkResult {
+
+	/**
+	 * Failures listed per run, the count is always complete.
+	 */
+	private static final int MAX_LISTED_FAILURES = 100;
+
+	private static class Run {
+
+		private final String decompilerType;
+		private final JsonObject options;
+		private long[] latencies = new long[1024];
+		private int classes;
+		private int failed;
+		private final List<String[]> failures = new ArrayList<>();
+		private long time;
+		private long peakHeap;
+
+		Run(String decompilerType, JsonObject options) {
+			this.decompilerType = decompilerType;
+			this.options = options;
+		}
+	}
+
+	private final String label;
+	private final List<String> inputs = new ArrayList<>();
+	private final List<Run> runs = new ArrayList<>();
+	private Run current;
+
+	/**
+	 * @param label identifies the measured code, e.g. a commit, may be
+	 *              <code>null</code>
+	 */
+	public CorpusBenchmarkResult(String label) {
+		this.label = label;
+	}
+
+	public void addInput(String input) {
+		inputs.add(input);
+	}
+
+	/**
+	 * Starts recording the classes decompiled with the decompiler and options.
+	 */
+	public void beginRun(String decompilerType, JsonObject options) {
+		current = new Run(decompilerType, options);
+		runs.add(current);
+	}
+
+	/**
+	 * Records a class.
+	 * 
+	 * @param nanos   time of the whole pipeline for the class
+	 * @param message cause of a failure, <code>null</code> if the class was
+	 *                decompiled
+	 */
+	public void addClass(String className, long nanos, boolean failed, String message) {
+		if (current.classes == current.latencies.length) {
+			current.latencies = Arrays.copyOf(current.latencies, current.classes * 2);
+		}
+		current.latencies[current.classes++] = nanos;
+		if (failed) {
+			current.failed++;
+			if (current.failures.size() < MAX_LISTED_FAILURES) {
+				current.failures.add(new String[] { className, message });
+			}
+		}
+	}
+
+	/**
+	 * Ends recording the current run.
+	 * 
+	 * @param time     milliseconds of the run
+	 * @param peakHeap peak of the used heap during the run in bytes
+	 */
+	public void endRun(long time, long peakHeap) {
+		current.time = time;
+		current.peakHeap = peakHeap;
+		current = null;
+	}
+
+	public int getFailureCount() {
+		int count = 0;
+		for (Run run : runs) {
+			count += run.failed;
+		}
+		return count;
+	}
+
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		if (label != null) {
+			json.add("label", label); //$NON-NLS-1$
+		}
+		json.add("timestamp", System.currentTimeMillis()); //$NON-NLS-1$
+		json.add("java", System.getProperty("java.version")); //$NON-NLS-1$ //$NON-NLS-2$
+		json.add("maxHeapBytes", Runtime.getRuntime().maxMemory()); //$NON-NLS-1$
+		JsonArray inputArray = new JsonArray();
+		for (String input : inputs) {
+			inputArray.add(input);
+		}
+		json.add("inputs", inputArray); //$NON-NLS-1$
+
+		JsonArray runArray = new JsonArray();
+		for (Run run : runs) {
+			long[] sorted = Arrays.copyOf(run.latencies, run.classes);
+			Arrays.sort(sorted);
+			long total = 0;
+			for (long latency : sorted) {
+				total += latency;
+			}
+
+			JsonArray failures = new JsonArray();
+			for (String[] failure : run.failures) {
+				JsonObject failureJson = new JsonObject().add("class", failure[0]); //$NON-NLS-1$
+				if (failure[1] != null) {
+					failureJson.add("message", failure[1]); //$NON-NLS-1$
+				}
+				failures.add(failureJson);
+			}
+
+			runArray.add(new JsonObject().add("decompiler", run.decompilerType) //$NON-NLS-1$
+					.add("options", run.options) //$NON-NLS-1$
+					.add("classes", run.classes) //$NON-NLS-1$
+					.add("failed", run.failed) //$NON-NLS-1$
+					.add("timeMillis", run.time) //$NON-NLS-1$
+					.add("classesPerSecond", run.time == 0 ? 0 : run.classes * 1000.0 / run.time) //$NON-NLS-1$
+					.add("latencyMillis", new JsonObject() //$NON-NLS-1$
+							.add("mean", sorted.length == 0 ? 0 : toMillis(total / sorted.length)) //$NON-NLS-1$
+							.add("p50", toMillis(percentile(sorted, 50))) //$NON-NLS-1$
+							.add("p95", toMillis(percentile(sorted, 95))) //$NON-NLS-1$
+							.add("p99", toMillis(percentile(sorted, 99))) //$NON-NLS-1$
+							.add("max", toMillis(percentile(sorted, 100)))) //$NON-NLS-1$
+					.add("peakHeapBytes", run.peakHeap) //$NON-NLS-1$
+					.add("failures", failures)); //$NON-NLS-1$
+		}
+		json.add("runs", runArray); //$NON-NLS-1$
+		return json;
+	}
+
+	/**
+	 * Nearest rank percentile.
+	 */
+	private static long percentile(long[] sorted, int percent) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / 1000000.0;
+	}
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.sf.feeling.decompiler.JavaDecompilerPlugin;
+import org.sf.feeling.decompiler.editor.DecompilerOptions;
+import org.sf.feeling.decompiler.service.DecompilerService;
+
+import com.eclipsesource.json.WriterConfig;
+
+/**
+ * Headless batch decompiler, e.g.
+ *
+ * <pre>
+ * eclipse -nosplash -application org.sf.feeling.decompiler.batch -input a.jar -input classes -output out
+ * </pre>
+ *
+ * The preferences of the workspace given by <code>-data</code> select the
+ * decompiler, the post processing and the time limit; the decompiler and the
+ * time limit can be overridden by arguments. The exit code is 0 if all classes
+ * were decompiled, 2 if some failed and 1 if the arguments are invalid or an
+ * input could not be processed.
+ * <p>
+ * With <code>-serve</code> the application runs the
+ * {@link DecompilerService} until it is stopped instead.
+ */
+public class DecompilerApplication implements IApplication {
+
+	private static final Integer EXIT_ERROR = Integer.valueOf(1);
+	private static final Integer EXIT_FAILURES = Integer.valueOf(2);
+
+	private static final String USAGE = "Usage: -serve\n" //$NON-NLS-1$
+			+ "   or: -input <jar|directory> [-input ...] -output <jar|directory>\n" //$NON-NLS-1$
+			+ "  [-decompiler <type>] [-classes <file with binary class names>] [-threads <n>]\n" //$NON-NLS-1$
+			+ "  [-timeout <seconds per class and decompiler>] [-summary <json file>] [-nocache]"; //$NON-NLS-1$
+
+	private final NullProgressMonitor monitor = new NullProgressMonitor();
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	@Override
+	public Object start(IApplicationContext context) throws Exception {
+		String[] args = (String[]) context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+
+		List<File> inputs = new ArrayList<>();
+		File output = null;
+		File summaryFile = null;
+		File classList = null;
+		String decompilerType = prefs.getString(JavaDecompilerPlugin.DECOMPILER_TYPE);
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+		long timeoutMillis = TimeUnit.SECONDS.toMillis(prefs.getInt(JavaDecompilerPlugin.DECOMPILE_TIMEOUT));
+		boolean useCache = true;
+
+		try {
+			for (int i = 0; args != null && i < args.length; i++) {
+				String arg = args[i];
+				if ("-serve".equals(arg)) { //$NON-NLS-1$
+					return serve();
+				}
+				if ("-nocache".equals(arg)) { //$NON-NLS-1$
+					useCache = false;
+					continue;
+				}
+				if (i + 1 >= args.length) {
+					return usage("Missing value of " + arg); //$NON-NLS-1$
+				}
+				String value = args[++i];
+				if ("-input".equals(arg)) { //$NON-NLS-1$
+					inputs.add(new File(value));
+				} else if ("-output".equals(arg)) { //$NON-NLS-1$
+					output = new File(value);
+				} else if ("-decompiler".equals(arg)) { //$NON-NLS-1$
+					decompilerType = value;
+				} else if ("-classes".equals(arg)) { //$NON-NLS-1$
+					classList = new File(value);
+				} else if ("-threads".equals(arg)) { //$NON-NLS-1$
+					threads = Integer.parseInt(value);
+				} else if ("-timeout".equals(arg)) { //$NON-NLS-1$
+					timeoutMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+				} else if ("-summary".equals(arg)) { //$NON-NLS-1$
+					summaryFile = new File(value);
+				} else {
+					return usage("Unknown argument " + arg); //$NON-NLS-1$
+				}
+			}
+		} catch (NumberFormatException e) {
+			return usage(e.getMessage());
+		}
+		if (inputs.isEmpty() || output == null) {
+			return usage(null);
+		}
+
+		BatchDecompiler decompiler = new BatchDecompiler(decompilerType, DecompilerOptions.fromPreferences());
+		decompiler.setThreads(threads);
+		decompiler.setTimeoutMillis(timeoutMillis);
+		decompiler.setUseCache(useCache);
+		if (classList != null) {
+			decompiler.setClassNames(readClassNames(classList));
+		}
+
+		boolean toDirectory = inputs.size() > 1 || output.isDirectory();
+		BatchSummary summary = new BatchSummary();
+		boolean error = false;
+		for (File input : inputs) {
+			if (monitor.isCanceled()) {
+				break;
+			}
+			File sourcesJar = toDirectory ? new File(output, getSourcesJarName(input)) : output;
+			try {
+				decompiler.decompile(input, sourcesJar, summary, monitor);
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Failed to decompile " + input + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+				JavaDecompilerPlugin.logError(e, "Failed to decompile " + input); //$NON-NLS-1$
+				error = true;
+			} catch (InterruptedException e) {
+				error = true;
+				break;
+			}
+		}
+
+		String json = summary.toJson().toString(WriterConfig.PRETTY_PRINT);
+		if (summaryFile != null) {
+			try (Writer writer = new OutputStreamWriter(new FileOutputStream(summaryFile), "UTF-8")) { //$NON-NLS-1$
+				writer.write(json);
+			}
+		} else {
+			System.out.println(json);
+		}
+
+		if (error) {
+			return EXIT_ERROR;
+		}
+		return summary.getFailureCount() > 0 ? EXIT_FAILURES : IApplication.EXIT_OK;
+	}
+
+	@Override
+	public void stop() {
+		monitor.setCanceled(true);
+		stopped.countDown();
+	}
+
+	private Object serve() throws IOException, InterruptedException {
+		DecompilerService.start();
+		System.out.println("Decompiler service described by " + DecompilerService.getServiceFile()); //$NON-NLS-1$
+		try {
+			stopped.await();
+		} finally {
+			DecompilerService.stop();
+		}
+		return IApplication.EXIT_OK;
+	}
+
+	private Object usage(String message) {
+		if (message != null) {
+			System.err.println(message);
+		}
+		System.err.println(USAGE);
+		return EXIT_ERROR;
+	}
+
+	/**
+	 * Reads binary class names, one per line. Empty lines and lines starting
+	 * with <code>#</code> are skipped.
+	 */
+	private Set<String> readClassNames(File file) throws IOException {
+		Set<String> classNames = new HashSet<>();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), "UTF-8"))) { //$NON-NLS-1$
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#")) { //$NON-NLS-1$
+					classNames.add(line);
+				}
+			}
+		}
+		return classNames;
+	}
+
+	private String getSourcesJarName(File input) {
+		String name = input.getName();
+		int index = name.lastIndexOf('.');
+		if (index > 0 && !input.isDirectory()) {
+			name = name.substring(0, index);
+		}
+		return name + "-sources.jar"; //$NON-NLS-1$
+	}
+}
@@ -10,14 +10,21 @@ package org.sf.feeling.decompiler.editor;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.jdt.core.IClassFile;
 import org.eclipse.jdt.core.IPackageFragment;
@@ -31,10 +38,17 @@ import org.eclipse.jdt.internal.core.ExternalPackageFragmentRoot;
 import org.eclipse.jdt.internal.core.PackageFragmentRoot;
 import org.eclipse.jdt.internal.core.SourceMapper;
 import org.eclipse.jdt.internal.ui.javaeditor.IClassFileEditorInput;
+import org.eclipse.jdt.ui.PreferenceConstants;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
 import org.sf.feeling.decompiler.JavaDecompilerPlugin;
 import org.sf.feeling.decompiler.fernflower.FernFlowerDecompiler;
+import org.sf.feeling.decompiler.util.ClassFileBytesProvider;
 import org.sf.feeling.decompiler.util.ClassUtil;
+import org.sf.feeling.decompiler.util.DecompileMetrics;
+import org.sf.feeling.decompiler.util.DecompileWatchdog;
+import org.sf.feeling.decompiler.util.DecompiledSourceCache;
 import org.sf.feeling.decompiler.util.DecompileUtil;
 import org.sf.feeling.decompiler.util.DecompilerOutputUtil;
 import org.sf.feeling.decompiler.util.Logger;
@@ -45,9 +59,12 @@ import org.sf.feeling.decompiler.util.UIUtil;
 
 public abstract class BaseDecompilerSourceMapper extends DecompilerSourceMapper {
 
+	/**
+	 * Version of this plugin, which post processes the decompiled source.
+	 */
+	private static final String CORE_VERSION = getBundleVersion(BaseDecompilerSourceMapper.class);
+
 	protected IDecompiler origionalDecompiler;
-	private IDecompiler usedDecompiler;
-	private String classLocation;
 
 	private static Map<String, String> options = new HashMap<>();
 	static {
@@ -57,6 +74,17 @@ public abstract class BaseDecompilerSourceMapper extends DecompilerSourceMapper
 		options.put(CompilerOptions.OPTION_Source, DecompilerOutputUtil.getMaxDecompileLevel()); // $NON-NLS-1$
 	}
 
+	/**
+	 * Sources decompiled while class files are opened, by class, decompiler and
+	 * options, see {@link #beginRequest()}.
+	 */
+	private static final Map<String, String> requestSources = new HashMap<>();
+
+	/**
+	 * Number of class files being opened.
+	 */
+	private static int openRequests;
+
 	public BaseDecompilerSourceMapper(IPath sourcePath, String rootPath) {
 
 		this(sourcePath, rootPath, options);
@@ -147,71 +175,375 @@ public abstract class BaseDecompilerSourceMapper extends DecompilerSourceMapper
 		int index = className.lastIndexOf('/');
 		className = className.substring(index + 1);
 
-		classLocation = ""; //$NON-NLS-1$
+		// the source and its ranges are already mapped if the class was decompiled
+		// for the same request
+		String cacheKey = getCacheKey(type, root, className, origionalDecompiler.getDecompilerType());
+		String requestKey = getRequestKey(type, root, className, cacheKey);
+		String decompiledSource = getRequestSource(requestKey);
+		if (decompiledSource != null) {
+			return decompiledSource.toCharArray();
+		}
+
+		decompiledSource = getDecompiledSource(type, root, className, cacheKey, exceptions);
+		if (decompiledSource == null) {
+			return null;
+		}
+
+		DecompileMetrics.Timer timer = DecompileMetrics.start(DecompileMetrics.Phase.MAP_SOURCE);
+		char[] sourceAsCharArray = decompiledSource.toCharArray();
+		if (originalSourceMapper.containsKey(root)) {
+			SourceMapper rootSourceMapper = originalSourceMapper.get(root);
+			if (rootSourceMapper.findSource(type, info) == null) {
+				SourceMapperUtil.mapSource(rootSourceMapper, type, sourceAsCharArray, info);
+			}
+		}
+
+		updateSourceRanges(type, sourceAsCharArray);
+		timer.stop(origionalDecompiler.getDecompilerType(), getLibraryName(root));
+		putRequestSource(requestKey, decompiledSource);
+		return sourceAsCharArray;
+	}
+
+	/**
+	 * Starts opening a class file. Mapping the source into the Java model calls
+	 * {@link #findSource(IType, IBinaryType)} several times, until
+	 * {@link #endRequest()} these calls reuse the source of the first one instead
+	 * of decompiling the class again.
+	 */
+	public static void beginRequest() {
+		synchronized (requestSources) {
+			openRequests++;
+		}
+	}
+
+	/**
+	 * Finishes opening a class file, the sources are dropped once no class file
+	 * is being opened.
+	 */
+	public static void endRequest() {
+		synchronized (requestSources) {
+			if (openRequests > 0 && --openRequests == 0) {
+				requestSources.clear();
+			}
+		}
+	}
+
+	private static String getRequestSource(String requestKey) {
+		if (requestKey == null) {
+			return null;
+		}
+		synchronized (requestSources) {
+			return requestSources.get(requestKey);
+		}
+	}
+
+	private static void putRequestSource(String requestKey, String source) {
+		synchronized (requestSources) {
+			if (openRequests > 0 && requestKey != null) {
+				requestSources.put(requestKey, source);
+			}
+		}
+	}
+
+	/**
+	 * The key holds the cache key with the hashes of the class bytes, so a class
+	 * changed on disk while a request is open is decompiled again.
+	 * 
+	 * @return the key or <code>null</code> if no request is open or the class
+	 *         bytes are not available
+	 */
+	private String getRequestKey(IType type, IPackageFragmentRoot root, String className, String cacheKey) {
+		synchronized (requestSources) {
+			if (openRequests == 0) {
+				return null;
+			}
+		}
+		if (cacheKey == null) {
+			return null;
+		}
+		return root.getHandleIdentifier() + '|' + type.getPackageFragment().getElementName() + '|' + className + '|'
+				+ cacheKey;
+	}
 
-		usedDecompiler = decompile(null, type, exceptions, root, className);
+	/**
+	 * Decompiles the class file like {@link #findSource(IType, IBinaryType)}, but
+	 * neither looks for attached source nor maps the source into the Java model.
+	 * It may therefore be called from several threads at once, e.g. by the source
+	 * export.
+	 * 
+	 * @return the source or <code>null</code> if no decompiler succeeded
+	 */
+	public String decompile(IClassFile classFile, Collection<Exception> exceptions) {
+		IType type = classFile.getType();
+		IPackageFragment pkgFrag = type.getPackageFragment();
+		IPackageFragmentRoot root = (IPackageFragmentRoot) pkgFrag.getParent();
+		String className = classFile.getElementName();
+		return getDecompiledSource(type, root, className,
+				getCacheKey(type, root, className, origionalDecompiler.getDecompilerType()), exceptions);
+	}
+
+	/**
+	 * Returns the source from the source cache, or decompiles the class and
+	 * caches the source if no exception occurred. The source is cached under the
+	 * selected decompiler, where it is looked up, and also under the decompiler
+	 * which produced it if another decompiler won the race or took over after a
+	 * failure.
+	 * 
+	 * @param cacheKey the key of the selected decompiler, or <code>null</code> if
+	 *                 the class bytes are not available
+	 */
+	private String getDecompiledSource(IType type, IPackageFragmentRoot root, String className, String cacheKey,
+			Collection<Exception> exceptions) {
+		DecompiledSourceCache sourceCache = JavaDecompilerPlugin.getDefault().getSourceCache();
+		String decompiledSource = cacheKey == null ? null : sourceCache.get(cacheKey);
+		if (decompiledSource == null) {
+			DecompilationResult result = decompileSource(type, exceptions, root, className);
+			if (result == null) {
+				return null;
+			}
+			decompiledSource = result.getSource();
+			if (cacheKey != null && exceptions.isEmpty()) {
+				sourceCache.put(cacheKey, decompiledSource);
+				if (!origionalDecompiler.getDecompilerType().equals(result.getDecompilerType())) {
+					String producerKey = getCacheKey(type, root, className, result.getDecompilerType());
+					if (producerKey != null) {
+						sourceCache.put(producerKey, decompiledSource);
+					}
+				}
+			}
+		}
+		return decompiledSource;
+	}
 
-		if (usedDecompiler == null || usedDecompiler.getSource() == null || usedDecompiler.getSource().length() == 0) {
-			if (usedDecompiler == null || !DecompilerType.FernFlower.equals(usedDecompiler.getDecompilerType())) {
-				usedDecompiler = decompile(new FernFlowerDecompiler(), type, exceptions, root, className);
-				if (usedDecompiler == null || usedDecompiler.getSource() == null
-						|| usedDecompiler.getSource().length() == 0) {
+	/**
+	 * Decompiles the class and applies the post processing selected in the
+	 * preferences.
+	 * 
+	 * @return the result with the post processed source, or <code>null</code> if
+	 *         no decompiler succeeded
+	 */
+	private DecompilationResult decompileSource(IType type, Collection<Exception> exceptions, IPackageFragmentRoot root,
+			String className) {
+		DecompilerOptions decompilerOptions = DecompilerOptions.fromPreferences();
+
+		StringBuilder classLocation = new StringBuilder();
+
+		DecompilationResult result = decompile(decompilerOptions, null, type, exceptions, root, className,
+				classLocation);
+
+		if (result == null || result.isEmpty()) {
+			if (result == null || !DecompilerType.FernFlower.equals(result.getDecompilerType())) {
+				classLocation.setLength(0);
+				result = decompile(decompilerOptions, new FernFlowerDecompiler(), type, exceptions, root, className,
+						classLocation);
+				if (result == null || result.isEmpty()) {
 					return null;
 				}
 			}
 		}
 
-		String code = usedDecompiler.getSource();
+		String source = postProcess(decompilerOptions, result, classLocation.toString(), getLibraryName(root),
+				exceptions);
+		return new DecompilationResult(result.getDecompilerType(), source, result.getLineMapping(),
+				result.getDecompilationTime(), result.getExceptions(), result.getLog());
+	}
+
+	/**
+	 * Applies the post processing selected in the preferences to the output of
+	 * the decompiler.
+	 * 
+	 * @param location location of the class shown in the report
+	 * @param library  name of the jar or class folder of the class, for the
+	 *                 {@link DecompileMetrics}
+	 */
+	private String postProcess(DecompilerOptions decompilerOptions, DecompilationResult result, String location,
+			String library, Collection<Exception> exceptions) {
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		boolean debugView = UIUtil.isDebugPerspective() || JavaDecompilerPlugin.getDefault().isDebugMode();
+
+		String decompilerType = result.getDecompilerType();
+		IDecompiler usedDecompiler = getDecompiler(decompilerType);
+		String code = result.getSource();
 
 		boolean showReport = prefs.getBoolean(JavaDecompilerPlugin.PREF_DISPLAY_METADATA);
-		if (!showReport) {
+		boolean realign = (decompilerOptions.isDisplayLineNumbers() && decompilerOptions.isAlign()) || debugView;
+		if (!showReport || realign) {
+			DecompileMetrics.Timer timer = DecompileMetrics.start(DecompileMetrics.Phase.REMOVE_COMMENTS);
 			code = usedDecompiler.removeComment(code);
+			timer.stop(decompilerType, library);
 		}
 
-		boolean showLineNumber = prefs.getBoolean(JavaDecompilerPlugin.PREF_DISPLAY_LINE_NUMBERS);
-		boolean align = prefs.getBoolean(JavaDecompilerPlugin.ALIGN);
-		if ((showLineNumber && align) || UIUtil.isDebugPerspective()
-				|| JavaDecompilerPlugin.getDefault().isDebugMode()) {
-			if (showReport)
-				code = usedDecompiler.removeComment(code);
-			DecompilerOutputUtil decompilerOutputUtil = new DecompilerOutputUtil(usedDecompiler.getDecompilerType(),
-					code);
+		if (realign) {
+			DecompileMetrics.Timer timer = DecompileMetrics.start(DecompileMetrics.Phase.REALIGN);
+			DecompilerOutputUtil decompilerOutputUtil = new DecompilerOutputUtil(decompilerType, code,
+					result.getLineMapping());
 			code = decompilerOutputUtil.realign();
+			timer.stop(decompilerType, library);
 		}
 
 		StringBuffer source = new StringBuffer();
 
-		if (!(UIUtil.isDebugPerspective() || JavaDecompilerPlugin.getDefault().isDebugMode())) {
+		if (!debugView) {
 			boolean useSorter = prefs.getBoolean(JavaDecompilerPlugin.USE_ECLIPSE_SORTER);
 			if (useSorter) {
-				className = new String(info.getName());
-				fullName = new String(info.getFileName());
-				if (fullName.lastIndexOf(className) != -1) {
-					className = fullName.substring(fullName.lastIndexOf(className));
-				}
-
-				code = SortMemberUtil.sortMember(type.getPackageFragment().getElementName(), className, code);
+				DecompileMetrics.Timer timer = DecompileMetrics.start(DecompileMetrics.Phase.SORT);
+				code = SortMemberUtil.sortMember(code);
+				timer.stop(decompilerType, library);
 			}
 
+			DecompileMetrics.Timer timer = DecompileMetrics.start(DecompileMetrics.Phase.FORMAT);
 			source.append(formatSource(code));
+			timer.stop(decompilerType, library);
 
 			if (showReport) {
-				printDecompileReport(source, classLocation, exceptions, usedDecompiler.getDecompilationTime());
+				printDecompileReport(source, location, exceptions, result);
 			}
 		} else {
 			source.append(code);
 		}
 
-		char[] sourceAsCharArray = source.toString().toCharArray();
-		if (originalSourceMapper.containsKey(root)) {
-			SourceMapper rootSourceMapper = originalSourceMapper.get(root);
-			if (rootSourceMapper.findSource(type, info) == null) {
-				SourceMapperUtil.mapSource(rootSourceMapper, type, sourceAsCharArray, info);
+		return source.toString();
+	}
+
+	/**
+	 * Decompiles a class served by the provider and applies the post processing
+	 * selected in the preferences. Neither the Java model nor the workbench is
+	 * used, e.g. by the headless batch decompiler. The source cache is left to
+	 * the caller, see {@link #getCacheKey(IClassBytesProvider, String, String)}.
+	 * 
+	 * @param archive       <code>true</code> if the location of the provider is
+	 *                      an archive, otherwise it is the root directory of the
+	 *                      classes
+	 * @param timeoutMillis time limit of every decompiler tried, no limit if not
+	 *                      positive
+	 * @return the result with the post processed source, or <code>null</code> if
+	 *         no decompiler succeeded
+	 */
+	public DecompilationResult decompile(final DecompilerOptions decompilerOptions, final IClassBytesProvider provider,
+			final boolean archive, final String pkg, final String className, long timeoutMillis,
+			Collection<Exception> exceptions) {
+		final String location = provider.getLocation();
+		String library = new File(location).getName();
+		DecompileMetrics.Timer timer = DecompileMetrics.start(DecompileMetrics.Phase.EXTRACT);
+		byte[] bytes = provider.getClassBytes(pkg, className);
+		timer.stop(origionalDecompiler.getDecompilerType(), library);
+		if (bytes == null) {
+			return null;
+		}
+		IDecompiler decompiler = ClassUtil.checkAvailableDecompiler(origionalDecompiler,
+				new ByteArrayInputStream(bytes));
+		int level = ClassUtil.getLevel(new ByteArrayInputStream(bytes));
+		String classPath = pkg.length() == 0 ? className : pkg + "/" + className; //$NON-NLS-1$
+
+		timer = DecompileMetrics.start(DecompileMetrics.Phase.DECOMPILE);
+		DecompilationResult result = DecompileWatchdog.decompile(location + "/" + classPath, //$NON-NLS-1$
+				DigestUtils.sha1Hex(bytes), level, decompiler, new DecompileWatchdog.Task() {
+
+					@Override
+					public DecompilationResult decompile(IDecompiler candidate) throws Exception {
+						if (candidate instanceof IInMemoryDecompiler) {
+							return ((IInMemoryDecompiler) candidate).decompileFromBytes(decompilerOptions, provider, pkg,
+									className);
+						}
+						if (archive) {
+							return candidate.decompileFromArchive(decompilerOptions, location, pkg, className);
+						}
+						return candidate.decompile(decompilerOptions, location, pkg, className);
+					}
+				}, exceptions, timeoutMillis);
+		timer.stop(getDecompilerType(result, decompiler), library);
+		if (result.isEmpty()) {
+			return null;
+		}
+
+		String source = postProcess(decompilerOptions, result, location, library, exceptions);
+		return new DecompilationResult(result.getDecompilerType(), source, result.getLineMapping(),
+				result.getDecompilationTime(), result.getExceptions(), result.getLog());
+	}
+
+	private String getCacheKey(IType type, IPackageFragmentRoot root, String className, String decompilerType) {
+		String pkg = type.getPackageFragment().getElementName().replace('.', '/');
+		return getCacheKey(new ClassFileBytesProvider(root, getArchivePath(root)), pkg, className, decompilerType);
+	}
+
+	/**
+	 * Builds the key of the decompiled source in the source cache from the class
+	 * bytes, the inner class bytes, the decompiler and the preferences which
+	 * change the output.
+	 * 
+	 * @return the key or <code>null</code> if the class bytes are not available
+	 */
+	public String getCacheKey(IClassBytesProvider provider, String pkg, String className) {
+		return getCacheKey(provider, pkg, className, origionalDecompiler.getDecompilerType());
+	}
+
+	/**
+	 * Like {@link #getCacheKey(IClassBytesProvider, String, String)}, but for the
+	 * source produced by the given decompiler instead of the selected one.
+	 */
+	public String getCacheKey(IClassBytesProvider provider, String pkg, String className, String decompilerType) {
+		String location = provider.getLocation();
+		byte[] bytes = provider.getClassBytes(pkg, className);
+		if (bytes == null) {
+			return null;
+		}
+
+		List<String> innerClassNames = provider.getInnerClassNames(pkg, className);
+		Collections.sort(innerClassNames);
+		StringBuilder innerClasses = new StringBuilder();
+		for (String innerClassName : innerClassNames) {
+			byte[] innerBytes = provider.getClassBytes(pkg, innerClassName);
+			innerClasses.append(innerClassName).append(':');
+			if (innerBytes != null) {
+				innerClasses.append(DigestUtils.sha1Hex(innerBytes));
 			}
+			innerClasses.append(';');
 		}
 
-		updateSourceRanges(type, sourceAsCharArray);
-		return sourceAsCharArray;
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		String options = getOptionsFingerprint(decompilerType);
+		if (prefs.getBoolean(JavaDecompilerPlugin.PREF_DISPLAY_METADATA)) {
+			// the report names the location the class was decompiled from
+			options += ';' + location;
+		}
+
+		// the source is post processed by this plugin, e.g. realigned and formatted
+		String version = getBundleVersion(getDecompiler(decompilerType).getClass()) + '/' + CORE_VERSION;
+
+		return DecompiledSourceCache.createKey(DigestUtils.sha1Hex(bytes), DigestUtils.sha1Hex(innerClasses.toString()),
+				decompilerType, version, options);
+	}
+
+	/**
+	 * @return the preferences which change the output of the decompiler
+	 */
+	private String getOptionsFingerprint(String decompilerType) {
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		StringBuilder options = new StringBuilder();
+		options.append(prefs.getBoolean(JavaDecompilerPlugin.PREF_DISPLAY_LINE_NUMBERS)).append(';')
+				.append(prefs.getBoolean(JavaDecompilerPlugin.ALIGN)).append(';')
+				.append(prefs.getBoolean(JavaDecompilerPlugin.USE_ECLIPSE_FORMATTER)).append(';')
+				.append(prefs.getBoolean(JavaDecompilerPlugin.USE_ECLIPSE_SORTER)).append(';')
+				.append(UIUtil.isDebugPerspective() || JavaDecompilerPlugin.getDefault().isDebugMode()).append(';')
+				.append(prefs.getBoolean(JavaDecompilerPlugin.PREF_DISPLAY_METADATA)).append(';')
+				.append(prefs.getBoolean(JavaDecompilerPlugin.PARALLEL_DECOMPILE));
+		if (prefs.getBoolean(JavaDecompilerPlugin.USE_ECLIPSE_SORTER)) {
+			// the members are sorted in the order of the Java appearance preferences
+			IPreferenceStore jdtPrefs = PreferenceConstants.getPreferenceStore();
+			options.append(';').append(jdtPrefs.getString(PreferenceConstants.APPEARANCE_MEMBER_SORT_ORDER));
+			options.append(';').append(jdtPrefs.getBoolean(PreferenceConstants.APPEARANCE_ENABLE_VISIBILITY_SORT_ORDER));
+			options.append(';').append(jdtPrefs.getString(PreferenceConstants.APPEARANCE_VISIBILITY_SORT_ORDER));
+		}
+		IDecompiler decompiler = getDecompiler(decompilerType);
+		if (decompiler instanceof IConfigurableDecompiler) {
+			options.append(';').append(((IConfigurableDecompiler) decompiler).getOptionsFingerprint());
+		}
+		return options.toString();
+	}
+
+	private static String getBundleVersion(Class<?> clazz) {
+		Bundle bundle = FrameworkUtil.getBundle(clazz);
+		return bundle == null ? "" : bundle.getVersion().toString(); //$NON-NLS-1$
 	}
 
 	private void updateSourceRanges(IType type, char[] attachedSource) {
@@ -235,56 +567,48 @@ public abstract class BaseDecompilerSourceMapper extends DecompilerSourceMapper
 		return false;
 	}
 
-	private IDecompiler decompile(IDecompiler decompiler, IType type, Collection<Exception> exceptions,
-			IPackageFragmentRoot root, String className) {
-		IDecompiler result = decompiler;
+	private DecompilationResult decompile(DecompilerOptions decompilerOptions, IDecompiler decompiler, IType type,
+			Collection<Exception> exceptions, IPackageFragmentRoot root, String className,
+			StringBuilder classLocation) {
+		IDecompiler current = decompiler;
 
 		String pkg = type.getPackageFragment().getElementName().replace('.', '/');
 
-		Boolean displayNumber = null;
-		if (UIUtil.isDebugPerspective() || JavaDecompilerPlugin.getDefault().isDebugMode()) {
-			displayNumber = JavaDecompilerPlugin.getDefault().isDisplayLineNumber();
-			JavaDecompilerPlugin.getDefault().displayLineNumber(Boolean.TRUE);
-		}
-
 		try {
 			if (root.isArchive()) {
 				String archivePath = getArchivePath(root);
-				classLocation += archivePath;
+				classLocation.append(archivePath);
 
-				if (result == null) {
+				if (current == null) {
 					try {
-						result = ClassUtil.checkAvailableDecompiler(origionalDecompiler,
+						current = ClassUtil.checkAvailableDecompiler(origionalDecompiler,
 								new ByteArrayInputStream(type.getClassFile().getBytes()));
 					} catch (JavaModelException e) {
-						result = origionalDecompiler;
+						current = origionalDecompiler;
 					}
 				}
-				result.decompileFromArchive(archivePath, pkg, className);
+				return decompileSupervised(decompilerOptions, current, type, exceptions, root, archivePath, pkg,
+						className);
 			} else {
 				String rootLocation = null;
 				try {
 					if (root.getUnderlyingResource() != null) {
 						rootLocation = root.getUnderlyingResource().getLocation().toOSString();
-						classLocation += rootLocation + "/" //$NON-NLS-1$
-								+ pkg + "/" //$NON-NLS-1$
-								+ className;
 					} else if (root instanceof ExternalPackageFragmentRoot) {
 						rootLocation = ((ExternalPackageFragmentRoot) root).getPath().toOSString();
-						classLocation += rootLocation + "/" //$NON-NLS-1$
-								+ pkg + "/" //$NON-NLS-1$
-								+ className;
 					} else {
 						rootLocation = root.getPath().toOSString();
-						classLocation += rootLocation + "/" //$NON-NLS-1$
-								+ pkg + "/" //$NON-NLS-1$
-								+ className;
 					}
+					classLocation.append(rootLocation).append("/") //$NON-NLS-1$
+							.append(pkg).append("/") //$NON-NLS-1$
+							.append(className);
 
-					if (result == null) {
-						result = ClassUtil.checkAvailableDecompiler(origionalDecompiler, new File(classLocation));
+					if (current == null) {
+						current = ClassUtil.checkAvailableDecompiler(origionalDecompiler,
+								new File(classLocation.toString()));
 					}
-					result.decompile(rootLocation, pkg, className);
+					return decompileSupervised(decompilerOptions, current, type, exceptions, root, rootLocation, pkg,
+							className);
 				} catch (JavaModelException e) {
 					exceptions.add(e);
 				}
@@ -292,50 +616,199 @@ public abstract class BaseDecompilerSourceMapper extends DecompilerSourceMapper
 		} catch (Exception e) {
 			exceptions.add(e);
 		}
+		return null;
+	}
+
+	/**
+	 * @return the decompiler of the given type, used to post process its output
+	 */
+	private IDecompiler getDecompiler(String decompilerType) {
+		if (origionalDecompiler.getDecompilerType().equals(decompilerType)) {
+			return origionalDecompiler;
+		}
+		IDecompilerDescriptor descriptor = JavaDecompilerPlugin.getDefault().getDecompilerDescriptor(decompilerType);
+		if (descriptor != null) {
+			return descriptor.getDecompiler();
+		}
+		return new FernFlowerDecompiler();
+	}
 
-		if (displayNumber != null) {
-			JavaDecompilerPlugin.getDefault().displayLineNumber(displayNumber);
+	/**
+	 * Decompiles the class under the supervision of the
+	 * {@link DecompileWatchdog}, which falls back to the other decompilers if the
+	 * given one fails or exceeds its budget.
+	 * 
+	 * @return the result of the decompilation
+	 */
+	private DecompilationResult decompileSupervised(final DecompilerOptions decompilerOptions, IDecompiler decompiler,
+			IType type, Collection<Exception> exceptions, final IPackageFragmentRoot root, final String location,
+			final String pkg, final String className) {
+		String library = getLibraryName(root);
+		int level;
+		String classHash;
+		DecompileMetrics.Timer timer = DecompileMetrics.start(DecompileMetrics.Phase.EXTRACT);
+		try {
+			byte[] bytes = type.getClassFile().getBytes();
+			level = ClassUtil.getLevel(new ByteArrayInputStream(bytes));
+			classHash = DigestUtils.sha1Hex(bytes);
+		} catch (JavaModelException e) {
+			level = -1;
+			classHash = null;
 		}
+		timer.stop(decompiler.getDecompilerType(), library);
+		final boolean archive = root.isArchive();
+		timer = DecompileMetrics.start(DecompileMetrics.Phase.DECOMPILE);
+		DecompilationResult result = DecompileWatchdog.decompile(getClassKey(type.getClassFile()), classHash, level,
+				decompiler, new DecompileWatchdog.Task() {
+
+					@Override
+					public DecompilationResult decompile(IDecompiler candidate) throws Exception {
+						DecompilationResult result = decompileFromBytes(decompilerOptions, candidate, root, location,
+								pkg, className);
+						if (result != null) {
+							return result;
+						}
+						if (archive) {
+							return candidate.decompileFromArchive(decompilerOptions, location, pkg, className);
+						}
+						return candidate.decompile(decompilerOptions, location, pkg, className);
+					}
+				}, exceptions);
+		timer.stop(getDecompilerType(result, decompiler), library);
 		return result;
 	}
 
+	/**
+	 * @return the decompiler which produced the result, or the one tried first
+	 *         if all failed
+	 */
+	private static String getDecompilerType(DecompilationResult result, IDecompiler decompiler) {
+		return result.isEmpty() ? decompiler.getDecompilerType() : result.getDecompilerType();
+	}
+
+	/**
+	 * @return name of the jar or class folder, for the {@link DecompileMetrics}
+	 */
+	private static String getLibraryName(IPackageFragmentRoot root) {
+		return root.getPath().lastSegment();
+	}
+
+	/**
+	 * @return the key identifying the class file in the
+	 *         {@link DecompileWatchdog}
+	 */
+	public String getClassKey(IClassFile classFile) {
+		IPackageFragment fragment = (IPackageFragment) classFile.getParent();
+		return getArchivePath((IPackageFragmentRoot) fragment.getParent()) + "/" //$NON-NLS-1$
+				+ fragment.getElementName().replace('.', '/') + "/" //$NON-NLS-1$
+				+ classFile.getElementName();
+	}
+
+	/**
+	 * Decompiles through {@link IInMemoryDecompiler} if the decompiler supports
+	 * it, serving the class bytes from the Java model.
+	 * 
+	 * @return the result or <code>null</code> if the caller has to fall back to
+	 *         the file system based decompilation
+	 */
+	private DecompilationResult decompileFromBytes(DecompilerOptions decompilerOptions, IDecompiler decompiler,
+			IPackageFragmentRoot root, String location, String pkg, String className) {
+		if (!(decompiler instanceof IInMemoryDecompiler)) {
+			return null;
+		}
+		IClassBytesProvider provider = new ClassFileBytesProvider(root, location);
+		if (provider.getClassBytes(pkg, className) == null) {
+			return null;
+		}
+		return ((IInMemoryDecompiler) decompiler).decompileFromBytes(decompilerOptions, provider, pkg, className);
+	}
+
+	/**
+	 * Lets an {@link IBatchDecompiler} decompile the given class files of a
+	 * package at once before {@link #findSource(IType)} is called for each of
+	 * them. Class files the decompiler would not be used for are skipped. Does
+	 * nothing for other decompilers.
+	 * 
+	 * @return the batch to pass to {@link #endBatch(Object)}, or
+	 *         <code>null</code>
+	 */
+	public Object beginBatch(IPackageFragment fragment, List<IClassFile> classFiles) {
+		if (!(origionalDecompiler instanceof IBatchDecompiler)) {
+			return null;
+		}
+		IPackageFragmentRoot root = (IPackageFragmentRoot) fragment.getParent();
+		String pkg = fragment.getElementName().replace('.', '/');
+		IClassBytesProvider provider = new ClassFileBytesProvider(root, getArchivePath(root));
+
+		List<String> classNames = new ArrayList<>();
+		for (IClassFile classFile : classFiles) {
+			String className = classFile.getElementName();
+			byte[] bytes = provider.getClassBytes(pkg, className);
+			if (className.indexOf('$') == -1 && bytes != null && ClassUtil
+					.checkAvailableDecompiler(origionalDecompiler, new ByteArrayInputStream(bytes)) == origionalDecompiler) {
+				classNames.add(className);
+			}
+		}
+		if (classNames.isEmpty()) {
+			return null;
+		}
+		return ((IBatchDecompiler) origionalDecompiler).beginBatch(DecompilerOptions.fromPreferences(), provider, pkg,
+				classNames);
+	}
+
+	/**
+	 * Ends a batch started by {@link #beginBatch(IPackageFragment, List)}.
+	 */
+	public void endBatch(Object batch) {
+		if (origionalDecompiler instanceof IBatchDecompiler) {
+			((IBatchDecompiler) origionalDecompiler).endBatch(batch);
+		}
+	}
+
 	@Override
 	public String decompile(String decompilerType, File file) {
 		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
-
-		Boolean displayNumber = null;
-		if (UIUtil.isDebugPerspective() || JavaDecompilerPlugin.getDefault().isDebugMode()) {
-			displayNumber = JavaDecompilerPlugin.getDefault().isDisplayLineNumber();
-			JavaDecompilerPlugin.getDefault().displayLineNumber(Boolean.TRUE);
-		}
+		final DecompilerOptions decompilerOptions = DecompilerOptions.fromPreferences();
 
 		IDecompiler currentDecompiler = ClassUtil.checkAvailableDecompiler(origionalDecompiler, file);
 
-		currentDecompiler.decompile(file.getParentFile().getAbsolutePath(), "", //$NON-NLS-1$
-				file.getName());
-
-		if (displayNumber != null) {
-			JavaDecompilerPlugin.getDefault().displayLineNumber(displayNumber);
+		int level = -1;
+		String classHash = null;
+		try {
+			level = ClassUtil.getLevel(new FileInputStream(file));
+			classHash = DigestUtils.sha1Hex(Files.readAllBytes(file.toPath()));
+		} catch (IOException e) {
+			Logger.debug(e);
 		}
+		final File classFile = file;
+		DecompilationResult result = DecompileWatchdog.decompile(file.getAbsolutePath(), classHash, level,
+				currentDecompiler, new DecompileWatchdog.Task() {
+
+					@Override
+					public DecompilationResult decompile(IDecompiler candidate) throws Exception {
+						return candidate.decompile(decompilerOptions, classFile.getParentFile().getAbsolutePath(),
+								"", //$NON-NLS-1$
+								classFile.getName());
+					}
+				}, new ArrayList<Exception>());
 
-		if (currentDecompiler.getSource() == null || currentDecompiler.getSource().length() == 0)
+		if (result.isEmpty())
 			return null;
 
-		String code = currentDecompiler.getSource();
+		currentDecompiler = getDecompiler(result.getDecompilerType());
+		String code = result.getSource();
 
 		boolean showReport = prefs.getBoolean(JavaDecompilerPlugin.PREF_DISPLAY_METADATA);
 		if (!showReport) {
 			code = currentDecompiler.removeComment(code);
 		}
 
-		boolean showLineNumber = prefs.getBoolean(JavaDecompilerPlugin.PREF_DISPLAY_LINE_NUMBERS);
-		boolean align = prefs.getBoolean(JavaDecompilerPlugin.ALIGN);
-		if ((showLineNumber && align) || UIUtil.isDebugPerspective()
+		if ((decompilerOptions.isDisplayLineNumbers() && decompilerOptions.isAlign()) || UIUtil.isDebugPerspective()
 				|| JavaDecompilerPlugin.getDefault().isDebugMode()) {
 			if (showReport)
 				code = currentDecompiler.removeComment(code);
 			DecompilerOutputUtil decompilerOutputUtil = new DecompilerOutputUtil(currentDecompiler.getDecompilerType(),
-					code);
+					code, result.getLineMapping());
 			code = decompilerOutputUtil.realign();
 		}
 
@@ -346,9 +819,7 @@ public abstract class BaseDecompilerSourceMapper extends DecompilerSourceMapper
 
 			if (showReport) {
 				Collection<Exception> exceptions = new LinkedList<>();
-				exceptions.addAll(currentDecompiler.getExceptions());
-				printDecompileReport(source, file.getAbsolutePath(), exceptions,
-						currentDecompiler.getDecompilationTime());
+				printDecompileReport(source, file.getAbsolutePath(), exceptions, result);
 			}
 		} else {
 			source.append(code);
@@ -378,5 +849,5 @@ public abstract class BaseDecompilerSourceMapper extends DecompilerSourceMapper
 	}
 
 	protected abstract void printDecompileReport(StringBuffer source, String location, Collection<Exception> exceptions,
-			long decompilationTime);
+			DecompilationResult result);
 }
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.editor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a single decompilation as returned by {@link IDecompiler}.
+ */
+public final class DecompilationResult {
+
+	private final String decompilerType;
+	private final String source;
+	private final int[] lineMapping;
+	private final long decompilationTime;
+	private final List<Exception> exceptions;
+	private final String log;
+
+	/**
+	 * @param decompilerType    type of the decompiler which produced the result
+	 * @param source            decompiled source, may be empty
+	 * @param lineMapping       pairs of original and decompiled line numbers, or
+	 *                          <code>null</code> if not available
+	 * @param decompilationTime time taken in milliseconds
+	 * @param exceptions        exceptions which occurred during decompilation
+	 * @param log               decompiler specific log
+	 */
+	public DecompilationResult(String decompilerType, String source, int[] lineMapping, long decompilationTime,
+			List<Exception> exceptions, String log) {
+		this.decompilerType = decompilerType;
+		this.source = source == null ? "" : source; //$NON-NLS-1$
+		this.lineMapping = lineMapping == null ? null : lineMapping.clone();
+		this.decompilationTime = decompilationTime;
+		this.exceptions = exceptions == null || exceptions.isEmpty() ? Collections.<Exception>emptyList()
+				: Collections.unmodifiableList(new ArrayList<>(exceptions));
+		this.log = log == null ? "" : log; //$NON-NLS-1$
+	}
+
+	/**
+	 * @return an empty result, e.g. if the class could not be read
+	 */
+	public static DecompilationResult empty(String decompilerType, long decompilationTime,
+			List<Exception> exceptions) {
+		return new DecompilationResult(decompilerType, "", null, decompilationTime, exceptions, ""); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public String getDecompilerType() {
+		return decompilerType;
+	}
+
+	/**
+	 * @return the decompiled source, never <code>null</code>
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return <code>true</code> if no source was produced
+	 */
+	public boolean isEmpty() {
+		return source.length() == 0;
+	}
+
+	/**
+	 * @return pairs of original line number (from the line number table) and
+	 *         decompiled line number, or <code>null</code> if the decompiler did
+	 *         not produce a mapping
+	 */
+	public int[] getLineMapping() {
+		return lineMapping == null ? null : lineMapping.clone();
+	}
+
+	/**
+	 * @return time taken by decompilation in milliseconds
+	 */
+	public long getDecompilationTime() {
+		return decompilationTime;
+	}
+
+	/**
+	 * @return the exceptions which occurred during decompilation, never
+	 *         <code>null</code>
+	 */
+	public List<Exception> getExceptions() {
+		return exceptions;
+	}
+
+	/**
+	 * @return decompilation log specific to physical decompiler, never
+	 *         <code>null</code>
+	 */
+	public String getLog() {
+		return log;
+	}
+}
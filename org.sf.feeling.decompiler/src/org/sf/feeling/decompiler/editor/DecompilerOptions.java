@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.editor;
+
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.sf.feeling.decompiler.JavaDecompilerPlugin;
+import org.sf.feeling.decompiler.util.ClassUtil;
+import org.sf.feeling.decompiler.util.UIUtil;
+
+/**
+ * Immutable snapshot of the settings a decompilation depends on. It is taken
+ * once per request, so changing the preferences or the perspective while a
+ * class is decompiled does not affect it, and concurrent requests do not
+ * interfere with each other.
+ */
+public final class DecompilerOptions {
+
+	private final boolean displayLineNumbers;
+	private final boolean align;
+	private final boolean debug;
+
+	public DecompilerOptions(boolean displayLineNumbers, boolean align, boolean debug) {
+		this.displayLineNumbers = displayLineNumbers;
+		this.align = align;
+		this.debug = debug;
+	}
+
+	/**
+	 * Takes the options from the preferences. In the debug perspective and in
+	 * debug mode line numbers are always displayed.
+	 */
+	public static DecompilerOptions fromPreferences() {
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		boolean debugView = UIUtil.isDebugPerspective() || JavaDecompilerPlugin.getDefault().isDebugMode();
+		return new DecompilerOptions(prefs.getBoolean(JavaDecompilerPlugin.PREF_DISPLAY_LINE_NUMBERS) || debugView,
+				prefs.getBoolean(JavaDecompilerPlugin.ALIGN), ClassUtil.isDebug());
+	}
+
+	/**
+	 * @return <code>true</code> if the original line numbers are output as
+	 *         comments
+	 */
+	public boolean isDisplayLineNumbers() {
+		return displayLineNumbers;
+	}
+
+	/**
+	 * @return <code>true</code> if the code is aligned to the original line
+	 *         numbers
+	 */
+	public boolean isAlign() {
+		return align;
+	}
+
+	/**
+	 * @return <code>true</code> if the source is used for debugging, i.e. the
+	 *         decompiler should produce line number information
+	 */
+	public boolean isDebug() {
+		return debug;
+	}
+
+	/**
+	 * @return <code>true</code> if the code is aligned to the original line
+	 *         numbers after decompilation. The decompiler should then report the
+	 *         line numbers through {@link DecompilationResult#getLineMapping()}
+	 *         instead of printing them as comments.
+	 */
+	public boolean isRealign() {
+		return displayLineNumbers && debug;
+	}
+
+	@Override
+	public String toString() {
+		return "lineNumbers=" + displayLineNumbers + ";align=" + align + ";debug=" + debug; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+}
@@ -10,7 +10,9 @@ package org.sf.feeling.decompiler.editor;
 
 import java.io.File;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.IPath;
@@ -40,6 +42,21 @@ public abstract class DecompilerSourceMapper extends SourceMapper {
 
 	protected static Map<IPackageFragmentRoot, SourceMapper> originalSourceMapper = new ConcurrentHashMap<IPackageFragmentRoot, SourceMapper>();
 
+	/**
+	 * Sources longer than this are not formatted, formatting them takes seconds
+	 * while the decompilers already indent their output.
+	 */
+	private static final int MAX_FORMAT_LENGTH = 1024 * 1024;
+
+	/**
+	 * Idle formatters, a formatter must not be used by two threads at once. The
+	 * formatter options do not depend on any preference, so the formatters stay
+	 * valid.
+	 */
+	private static final Queue<CodeFormatter> formatters = new ConcurrentLinkedQueue<>();
+
+	private static Map<String, String> formatterOptions;
+
 	protected boolean isAttachedSource;
 
 	public DecompilerSourceMapper(IPath sourcePath, String rootPath, Map options) {
@@ -100,27 +117,12 @@ public abstract class DecompilerSourceMapper extends SourceMapper {
 		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
 		boolean useFormatter = prefs.getBoolean(JavaDecompilerPlugin.USE_ECLIPSE_FORMATTER);
 
-		if (source != null && useFormatter) {
-			CompilerOptions option = new CompilerOptions();
-			Map<String, String> options = option.getMap();
-			options.put(CompilerOptions.OPTION_Compliance, DecompilerOutputUtil.getMaxDecompileLevel()); // $NON-NLS-1$
-			options.put(CompilerOptions.OPTION_Source, DecompilerOutputUtil.getMaxDecompileLevel()); // $NON-NLS-1$
-			CodeFormatter formatter = ToolFactory.createCodeFormatter(options);
-			TextEdit textEdit = formatter.format(CodeFormatter.K_COMPILATION_UNIT, source, 0, source.length(), 0, null);
-			if (textEdit != null) {
-				IDocument document = new Document(source);
-				try {
-					textEdit.apply(document);
-				} catch (BadLocationException e) {
-					JavaDecompilerPlugin.log(IStatus.WARNING, e, "Unable to apply text formatting."); //$NON-NLS-1$
-				}
-				result = document.get();
-			}
-
-			if (result == null) {
-				JavaDecompilerPlugin.log(IStatus.WARNING, null, "Could not format code, it will remain unformatted."); //$NON-NLS-1$
-				result = source;
-			}
+		if (source != null && useFormatter && source.length() > MAX_FORMAT_LENGTH) {
+			JavaDecompilerPlugin.log(IStatus.INFO, null,
+					"Code is too long to be formatted, it will remain unformatted."); //$NON-NLS-1$
+			result = source;
+		} else if (source != null && useFormatter) {
+			result = format(source);
 		} else {
 			result = source;
 		}
@@ -128,6 +130,52 @@ public abstract class DecompilerSourceMapper extends SourceMapper {
 		return result.trim();
 	}
 
+	/**
+	 * Formats the source with the Eclipse code formatter, independent of the
+	 * preferences.
+	 * 
+	 * @return the formatted source, or the source if it cannot be formatted
+	 */
+	public static String format(String source) {
+		String result = null;
+		CodeFormatter formatter = formatters.poll();
+		if (formatter == null) {
+			formatter = ToolFactory.createCodeFormatter(getFormatterOptions());
+		}
+		TextEdit textEdit;
+		try {
+			textEdit = formatter.format(CodeFormatter.K_COMPILATION_UNIT, source, 0, source.length(), 0, null);
+		} finally {
+			formatters.offer(formatter);
+		}
+		if (textEdit != null) {
+			IDocument document = new Document(source);
+			try {
+				textEdit.apply(document);
+			} catch (BadLocationException e) {
+				JavaDecompilerPlugin.log(IStatus.WARNING, e, "Unable to apply text formatting."); //$NON-NLS-1$
+			}
+			result = document.get();
+		}
+
+		if (result == null) {
+			JavaDecompilerPlugin.log(IStatus.WARNING, null, "Could not format code, it will remain unformatted."); //$NON-NLS-1$
+			result = source;
+		}
+		return result;
+	}
+
+	private static synchronized Map<String, String> getFormatterOptions() {
+		if (formatterOptions == null) {
+			CompilerOptions option = new CompilerOptions();
+			Map<String, String> options = option.getMap();
+			options.put(CompilerOptions.OPTION_Compliance, DecompilerOutputUtil.getMaxDecompileLevel()); // $NON-NLS-1$
+			options.put(CompilerOptions.OPTION_Source, DecompilerOutputUtil.getMaxDecompileLevel()); // $NON-NLS-1$
+			formatterOptions = options;
+		}
+		return formatterOptions;
+	}
+
 	protected String getArchivePath(IPackageFragmentRoot root) {
 		String archivePath = null;
 		IResource resource;
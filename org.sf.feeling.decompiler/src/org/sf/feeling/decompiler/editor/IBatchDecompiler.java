@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.editor;
+
+import java.util.List;
+
+/**
+ * Optional extension of {@link IDecompiler} for decompilers which are
+ * expensive to start per class, e.g. external executables. A batch decompiles
+ * several classes of one package at once; the following
+ * <code>decompile</code> and <code>decompileFromArchive</code> calls for these
+ * classes are answered from the batch until it is ended. Several batches may
+ * be open at once, e.g. during concurrent exports.
+ */
+public interface IBatchDecompiler extends IDecompiler {
+
+	/**
+	 * Decompiles the given classes of a package in one go.
+	 *
+	 * @param options    options of the decompilation, calls with other options are
+	 *                   not answered from the batch
+	 * @param provider   source of the class bytes, its location is the root or
+	 *                   archive path later passed to <code>decompile</code> or
+	 *                   <code>decompileFromArchive</code>
+	 * @param packege    file path like package name
+	 * @param classNames file names of the top level class files
+	 * @return the batch to pass to {@link #endBatch(Object)}, or
+	 *         <code>null</code> if no class was decompiled
+	 */
+	public Object beginBatch(DecompilerOptions options, IClassBytesProvider provider, String packege,
+			List<String> classNames);
+
+	/**
+	 * Discards the results of the given batch, the batches of others are kept.
+	 *
+	 * @param batch as returned by <code>beginBatch</code>, may be
+	 *              <code>null</code>
+	 */
+	public void endBatch(Object batch);
+}
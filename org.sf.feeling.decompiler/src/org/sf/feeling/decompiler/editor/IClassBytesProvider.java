@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.editor;
+
+import java.util.List;
+
+/**
+ * Supplies class file bytes to an {@link IInMemoryDecompiler}. Parameters use
+ * the same file path-like format as {@link IDecompiler}: packege = com/acme
+ * className = Foo.class
+ */
+public interface IClassBytesProvider {
+
+	/**
+	 * @return path of the archive or directory the classes are served from, used
+	 *         for reporting and as a cache key
+	 */
+	public String getLocation();
+
+	/**
+	 * @param packege   file path like package name
+	 * @param className file name of the class file
+	 * @return the bytes of the class file, or <code>null</code> if the class is
+	 *         not available
+	 */
+	public byte[] getClassBytes(String packege, String className);
+
+	/**
+	 * Lists the nested classes of a class, e.g. Foo$Bar.class and
+	 * Foo$Bar$Baz.class for Foo.class.
+	 *
+	 * @param packege   file path like package name
+	 * @param className file name of the outer class file
+	 * @return non-<code>null</code> list of class file names in the same package
+	 */
+	public List<String> getInnerClassNames(String packege, String className);
+}
@@ -0,0 +1,21 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.editor;
+
+/**
+ * Optional extension of {@link IDecompiler} for decompilers with options of
+ * their own, which change the output and so the key of the cached sources.
+ */
+public interface IConfigurableDecompiler extends IDecompiler {
+
+	/**
+	 * @return the current values of the options which change the output
+	 */
+	public String getOptionsFingerprint();
+}
@@ -8,8 +8,6 @@
 
 package org.sf.feeling.decompiler.editor;
 
-import java.util.List;
-
 /**
  * Generic Java Decompiler Interface. Decompilers work in file system terms, so
  * methods take file path-like parameters as opposed to Java style package and
@@ -17,51 +15,36 @@ import java.util.List;
  * directory /bar needs to be decompiled then the following should be passed to
  * a <code>IDecompiler</code> instance: root = /bar packege = com/acme className
  * = Foo.class
+ * <p>
+ * Decompilers do not keep the result of a decompilation, every call returns a
+ * {@link DecompilationResult} and takes the {@link DecompilerOptions} it
+ * depends on, so one instance may serve concurrent requests.
  */
 public interface IDecompiler {
 
 	/**
 	 * Decompiles a class file located in file system (not in archive)
 	 * 
+	 * @param options   options of this decompilation
 	 * @param root      path to the directory which is root for this class package
 	 *                  hierarchy
 	 * @param packege   file path like package name
 	 * @param className file name of the class file
+	 * @return the result, never <code>null</code>
 	 */
-	public void decompile(String root, String packege, String className);
+	public DecompilationResult decompile(DecompilerOptions options, String root, String packege, String className);
 
 	/**
 	 * Decompiles a class file located in archive.
 	 * 
+	 * @param options     options of this decompilation
 	 * @param archivePath path to archive that contains the class to be decompiled
 	 * @param packege     file path like package name
 	 * @param className   file name of the class file
+	 * @return the result, never <code>null</code>
 	 */
-	public void decompileFromArchive(String archivePath, String packege, String className);
-
-	/**
-	 * @return time taken by decompilation
-	 */
-	public long getDecompilationTime();
-
-	/**
-	 * If any exceptions occured during decompilation thaey should be included into
-	 * the <code>List</code> returned by this method.
-	 * 
-	 * @return non-<code>null</code> value which is a list containing
-	 *         <code>java.lang.Exception</code>'s
-	 */
-	public List<Exception> getExceptions();
-
-	/**
-	 * @return decompilation log specific to physical decompiler
-	 */
-	public String getLog();
-
-	/**
-	 * @return Class file source which is the result of decompilation.
-	 */
-	public String getSource();
+	public DecompilationResult decompileFromArchive(DecompilerOptions options, String archivePath, String packege,
+			String className);
 
 	public String getDecompilerType();
 
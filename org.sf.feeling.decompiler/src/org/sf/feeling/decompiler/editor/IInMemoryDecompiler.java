@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.editor;
+
+/**
+ * Optional extension of {@link IDecompiler} for decompilers which can work on
+ * class bytes directly instead of extracting them into the temporary
+ * directory.
+ */
+public interface IInMemoryDecompiler extends IDecompiler {
+
+	/**
+	 * Decompiles a class whose bytes, and the bytes of its inner classes and
+	 * sibling types, are served by the given provider.
+	 *
+	 * @param options   options of this decompilation
+	 * @param provider  source of the class bytes
+	 * @param packege   file path like package name
+	 * @param className file name of the class file
+	 * @return the result, never <code>null</code>
+	 */
+	public DecompilationResult decompileFromBytes(DecompilerOptions options, IClassBytesProvider provider,
+			String packege, String className);
+}
@@ -20,10 +20,17 @@ import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
 import org.eclipse.jdt.core.IBuffer;
 import org.eclipse.jdt.core.IClassFile;
+import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.ISourceReference;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.internal.core.BufferManager;
@@ -82,7 +89,9 @@ import org.eclipse.ui.texteditor.IWorkbenchActionDefinitionIds;
 import org.eclipse.ui.texteditor.IncrementalFindAction;
 import org.sf.feeling.decompiler.JavaDecompilerPlugin;
 import org.sf.feeling.decompiler.actions.DecompileActionGroup;
+import org.sf.feeling.decompiler.i18n.Messages;
 import org.sf.feeling.decompiler.util.ClassUtil;
+import org.sf.feeling.decompiler.util.DecompileMetrics;
 import org.sf.feeling.decompiler.util.DecompileUtil;
 import org.sf.feeling.decompiler.util.DecompilerOutputUtil;
 import org.sf.feeling.decompiler.util.FileUtil;
@@ -101,6 +110,27 @@ public class JavaDecompilerClassFileEditor extends ClassFileEditor {
 	private boolean selectionChange = false;
 	private ISourceReference selectedElement = null;
 	private String decompilerType = null;
+	private Job decompileJob;
+	private boolean sourcePending = false;
+
+	/**
+	 * Runs the background decompilations one after another, the source mappers
+	 * are shared by all editors.
+	 */
+	private static final ISchedulingRule DECOMPILE_RULE = new ISchedulingRule() {
+
+		@Override
+		public boolean contains(ISchedulingRule rule) {
+			return rule == this;
+		}
+
+		@Override
+		public boolean isConflicting(ISchedulingRule rule) {
+			return rule == this;
+		}
+	};
+
+	private static Job lastDecompileJob;
 
 	public ISourceReference getSelectedElement() {
 		return selectedElement;
@@ -151,40 +181,302 @@ public class JavaDecompilerClassFileEditor extends ClassFileEditor {
 			IClassFile cf = ((IClassFileEditorInput) input).getClassFile();
 
 			decompilerType = type;
-			String origSrc = cf.getSource();
-			if (origSrc == null || (origSrc != null && always) || (origSrc != null && !always && !reuseBuf)
-					|| debugOptionChange(origSrc) || force) {
-				DecompilerSourceMapper sourceMapper = SourceMapperFactory.getSourceMapper(decompilerType);
-				char[] src = sourceMapper == null ? null : sourceMapper.findSource(cf.getType());
-				if (src == null) {
-					if (DecompilerType.FernFlower.equals(decompilerType)) {
-						src = SourceMapperFactory.getSourceMapper(DecompilerType.FernFlower).findSource(cf.getType());
-					} else {
-						IDecompilerDescriptor decompilerDescriptor = JavaDecompilerPlugin.getDefault()
-								.getDecompilerDescriptor(decompilerType);
-						if (decompilerDescriptor != null) {
-							src = decompilerDescriptor.getDecompilerSourceMapper().findSource(cf.getType());
-						}
+			BaseDecompilerSourceMapper.beginRequest();
+			try {
+				String origSrc = cf.getSource();
+				if (needsDecompilation(cf, origSrc, force, reuseBuf, always)) {
+					char[] src = findSource(cf, decompilerType);
+					if (src == null) {
+						return false;
+					}
+					DecompileMetrics.Timer timer = DecompileMetrics.start(DecompileMetrics.Phase.BUFFER);
+					classBuffer = BufferManager.createBuffer(cf);
+					setBufferContents(cf, src);
+					timer.stop(decompilerType,
+							cf.getAncestor(IJavaElement.PACKAGE_FRAGMENT_ROOT).getPath().lastSegment());
+
+					opened = true;
+				}
+			} finally {
+				BaseDecompilerSourceMapper.endRequest();
+			}
+			return opened;
+
+		}
+		return false;
+	}
+
+	private static boolean needsDecompilation(IClassFile cf, String origSrc, boolean force, boolean reuseBuf,
+			boolean always) {
+		return origSrc == null || isPlaceholder(cf, origSrc) || (origSrc != null && always)
+				|| (origSrc != null && !always && !reuseBuf) || debugOptionChange(origSrc) || force;
+	}
+
+	private static String getPlaceholder(IClassFile cf) {
+		return Messages.getFormattedString("JavaDecompilerClassFileEditor.Placeholder", //$NON-NLS-1$
+				new String[] { cf.getElementName() });
+	}
+
+	/**
+	 * @return <code>true</code> if the source is the placeholder shown while the
+	 *         class file is decompiled, which must never be reused
+	 */
+	private static boolean isPlaceholder(IClassFile cf, String source) {
+		return source != null && source.equals(getPlaceholder(cf));
+	}
+
+	/**
+	 * Removes the placeholder from the buffer manager, unless the buffer of the
+	 * class file has been replaced since. Otherwise the placeholder would be
+	 * served as the source of the class file, e.g. to hovers and searches.
+	 */
+	private void removePlaceholder(IBuffer placeholder) {
+		if (placeholder == null || !(placeholder.getOwner() instanceof IClassFile)) {
+			return;
+		}
+		IClassFile cf = (IClassFile) placeholder.getOwner();
+		JavaDecompilerBufferManager bufferManager = getBufferManager();
+		if (bufferManager.getBuffer(cf) == placeholder && isPlaceholder(cf, placeholder.getContents())) {
+			bufferManager.removeBuffer(placeholder);
+		}
+	}
+
+	private static char[] findSource(IClassFile cf, String type) throws JavaModelException {
+		DecompilerSourceMapper sourceMapper = SourceMapperFactory.getSourceMapper(type);
+		char[] src = sourceMapper == null ? null : sourceMapper.findSource(cf.getType());
+		if (src == null) {
+			if (DecompilerType.FernFlower.equals(type)) {
+				src = SourceMapperFactory.getSourceMapper(DecompilerType.FernFlower).findSource(cf.getType());
+			} else {
+				IDecompilerDescriptor decompilerDescriptor = JavaDecompilerPlugin.getDefault()
+						.getDecompilerDescriptor(type);
+				if (decompilerDescriptor != null) {
+					src = decompilerDescriptor.getDecompilerSourceMapper().findSource(cf.getType());
+				}
+			}
+		}
+		return src;
+	}
+
+	private void setBufferContents(IClassFile cf, char[] markedSrc) throws JavaModelException {
+		classBuffer.setContents(markedSrc);
+		getBufferManager().addBuffer(classBuffer);
+
+		SourceMapperFactory.getSourceMapper(decompilerType).mapSourceSwitch(cf.getType(), markedSrc, true);
+
+		ClassFileSourceMap.updateSource(getBufferManager(), (ClassFile) cf, markedSrc);
+	}
+
+	/**
+	 * Shows a placeholder while the class file is decompiled in a background job
+	 * and replaces it with the source once the job is done. Scheduling a job
+	 * cancels the previous one, so that only the class opened last is decompiled
+	 * when many classes are opened in quick succession. Editors whose job was
+	 * cancelled decompile again when they get the focus.
+	 * 
+	 * @return <code>false</code> if the current buffer can be reused, the
+	 *         caller opens the buffer synchronously then
+	 */
+	private boolean openBufferAsync(IEditorInput input) {
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		return openBufferAsync(input, prefs.getString(JavaDecompilerPlugin.DECOMPILER_TYPE), false);
+	}
+
+	/**
+	 * Like {@link #openBufferAsync(IEditorInput)}, but with the given decompiler.
+	 * A source that is already shown stays visible instead of the placeholder
+	 * until it is replaced, and is kept if the decompilation fails.
+	 * 
+	 * @param force if <code>true</code> decompile even if the buffer could be
+	 *              reused
+	 */
+	private boolean openBufferAsync(IEditorInput input, String type, boolean force) {
+		if (!(input instanceof IClassFileEditorInput)) {
+			return false;
+		}
+		IClassFile cf = ((IClassFileEditorInput) input).getClassFile();
+		if (!cf.exists()) {
+			return false;
+		}
+
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		boolean reuseBuf = prefs.getBoolean(JavaDecompilerPlugin.REUSE_BUFFER);
+		boolean always = prefs.getBoolean(JavaDecompilerPlugin.IGNORE_EXISTING);
+		if (UIUtil.isDebugPerspective() || JavaDecompilerPlugin.getDefault().isDebugMode())
+			reuseBuf = false;
+
+		// cf.getSource() would open a missing buffer, i.e. decompile on the UI
+		// thread, so only an already opened buffer is checked here
+		IBuffer buffer = getBufferManager().getBuffer(cf);
+		boolean hasSource = buffer != null && buffer.getContents() != null
+				&& !isPlaceholder(cf, buffer.getContents());
+		if (hasSource && !needsDecompilation(cf, buffer.getContents(), force, reuseBuf, always)) {
+			return false;
+		}
+
+		if (sourcePending) {
+			// the input changed before the previous class file was decompiled
+			removePlaceholder(classBuffer);
+		}
+		decompilerType = type;
+		classBuffer = BufferManager.createBuffer(cf);
+		if (!hasSource) {
+			classBuffer.setContents(getPlaceholder(cf));
+			getBufferManager().addBuffer(classBuffer);
+		}
+		sourcePending = true;
+		scheduleDecompileJob(input);
+		return true;
+	}
+
+	private void scheduleDecompileJob(final IEditorInput input) {
+		final IClassFile cf = ((IClassFileEditorInput) input).getClassFile();
+		final String type = decompilerType;
+		final IBuffer placeholder = classBuffer;
+		Job job = new Job(Messages.getFormattedString("JavaDecompilerClassFileEditor.Job.Decompile", //$NON-NLS-1$
+				new String[] { cf.getElementName() })) {
+
+			private final Object threadLock = new Object();
+
+			private Thread thread;
+
+			@Override
+			protected void canceling() {
+				// a running decompilation is stopped by the watchdog when the
+				// thread waiting for it is interrupted
+				synchronized (threadLock) {
+					if (thread != null) {
+						thread.interrupt();
 					}
 				}
-				if (src == null) {
-					return false;
+			}
+
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				synchronized (threadLock) {
+					if (monitor.isCanceled()) {
+						return Status.CANCEL_STATUS;
+					}
+					thread = Thread.currentThread();
 				}
-				char[] markedSrc = src;
-				classBuffer = BufferManager.createBuffer(cf);
-				classBuffer.setContents(markedSrc);
-				getBufferManager().addBuffer(classBuffer);
+				// ended by applySource, which maps the source again, unless it is
+				// never run
+				BaseDecompilerSourceMapper.beginRequest();
+				boolean applying = false;
+				try {
+					char[] src = null;
+					try {
+						src = findSource(cf, type);
+					} catch (JavaModelException e) {
+						JavaDecompilerPlugin.logError(e, ""); //$NON-NLS-1$
+					}
+					if (monitor.isCanceled()) {
+						// the source of an interrupted decompilation is incomplete
+						return Status.CANCEL_STATUS;
+					}
+					final char[] result = src;
+					Display display = Display.getDefault();
+					if (!display.isDisposed()) {
+						display.asyncExec(new Runnable() {
 
-				sourceMapper.mapSourceSwitch(cf.getType(), markedSrc, true);
+							@Override
+							public void run() {
+								applySource(input, result, placeholder);
+							}
+						});
+						applying = true;
+					}
+				} finally {
+					synchronized (threadLock) {
+						thread = null;
+						// the pooled worker thread must not stay interrupted
+						Thread.interrupted();
+					}
+					if (!applying) {
+						BaseDecompilerSourceMapper.endRequest();
+					}
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.addJobChangeListener(new JobChangeAdapter() {
 
-				ClassFileSourceMap.updateSource(getBufferManager(), (ClassFile) cf, markedSrc);
+			@Override
+			public void done(IJobChangeEvent event) {
+				// also called if the job was cancelled before it ran, setFocus
+				// schedules the job again if the editor still waits for it
+				if (event.getResult() != null && event.getResult().getSeverity() == IStatus.CANCEL) {
+					Display.getDefault().asyncExec(new Runnable() {
+
+						@Override
+						public void run() {
+							removePlaceholder(placeholder);
+						}
+					});
+				}
+			}
+		});
+		job.setRule(DECOMPILE_RULE);
+		job.setPriority(Job.INTERACTIVE);
 
-				opened = true;
+		synchronized (DECOMPILE_RULE) {
+			if (lastDecompileJob != null) {
+				lastDecompileJob.cancel();
 			}
-			return opened;
+			lastDecompileJob = job;
+		}
+		decompileJob = job;
+		job.schedule();
+	}
+
+	/**
+	 * Replaces the placeholder with the decompiled source, or shows the class file
+	 * without source if the decompilation failed.
+	 */
+	private void applySource(IEditorInput input, char[] src, IBuffer placeholder) {
+		try {
+			if (getSourceViewer() == null || getSourceViewer().getTextWidget() == null
+					|| getSourceViewer().getTextWidget().isDisposed() || input != getEditorInput()) {
+				removePlaceholder(placeholder);
+				return;
+			}
+			sourcePending = false;
+			IClassFile cf = ((IClassFileEditorInput) input).getClassFile();
+			if (src != null) {
+				setBufferContents(cf, src);
+			} else if (getBufferManager().getBuffer(cf) == classBuffer) {
+				// a source shown before the decompilation is kept
+				getBufferManager().removeBuffer(classBuffer);
+			}
+			super.doSetInput(input);
+		} catch (CoreException e) {
+			JavaDecompilerPlugin.logError(e, ""); //$NON-NLS-1$
+		} finally {
+			BaseDecompilerSourceMapper.endRequest();
+		}
+
+		handleMarkLink();
+	}
 
+	@Override
+	public void setFocus() {
+		super.setFocus();
+		if (sourcePending && decompileJob != null && decompileJob.getState() == Job.NONE
+				&& decompileJob.getResult() != Status.OK_STATUS) {
+			scheduleDecompileJob(getEditorInput());
 		}
-		return false;
+	}
+
+	@Override
+	public void dispose() {
+		if (decompileJob != null) {
+			decompileJob.cancel();
+		}
+		if (sourcePending) {
+			removePlaceholder(classBuffer);
+			sourcePending = false;
+		}
+		super.dispose();
 	}
 
 	public void clearSelection() {
@@ -280,34 +572,20 @@ public class JavaDecompilerClassFileEditor extends ClassFileEditor {
 	}
 
 	/**
-	 * Sets edditor input only if buffer was actually opened.
+	 * Sets edditor input only if buffer was actually opened. The class file is
+	 * decompiled in a background job.
 	 * 
 	 * @param force if <code>true</code> initialize no matter what
 	 */
 	public void doSetInput(boolean force) {
-		IEditorInput input = getEditorInput();
-		try {
-			if (doOpenBuffer(input, force)) {
-				super.doSetInput(input);
-			}
-		} catch (Exception e) {
-			JavaDecompilerPlugin.logError(e, ""); //$NON-NLS-1$
-		}
-
-		handleMarkLink();
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		doSetInput(prefs.getString(JavaDecompilerPlugin.DECOMPILER_TYPE), force);
 	}
 
 	public void doSetInput(String type, boolean force) {
-		IEditorInput input = getEditorInput();
-		try {
-			if (doOpenBuffer(input, type, force)) {
-				super.doSetInput(input);
-			}
-		} catch (Exception e) {
-			JavaDecompilerPlugin.logError(e, ""); //$NON-NLS-1$
+		if (!openBufferAsync(getEditorInput(), type, force)) {
+			handleMarkLink();
 		}
-
-		handleMarkLink();
 	}
 
 	@Override
@@ -375,9 +653,7 @@ public class JavaDecompilerClassFileEditor extends ClassFileEditor {
 			if (input instanceof InternalClassFileEditorInput) {
 				InternalClassFileEditorInput classInput = (InternalClassFileEditorInput) input;
 
-				if (classInput.getClassFile().getParent() instanceof PackageFragment) {
-					doOpenBuffer(input, false);
-				} else {
+				if (!(classInput.getClassFile().getParent() instanceof PackageFragment)) {
 					IPath relativePath = classInput.getClassFile().getParent().getPath();
 					String location = UIUtil.getPathLocation(relativePath);
 					if (!(FileUtil.isZipFile(location) || FileUtil.isZipFile(relativePath.toOSString()))) {
@@ -395,7 +671,9 @@ public class JavaDecompilerClassFileEditor extends ClassFileEditor {
 				}
 			}
 			try {
-				doOpenBuffer(input, false);
+				if (!openBufferAsync(input)) {
+					doOpenBuffer(input, false);
+				}
 			} catch (JavaModelException e) {
 				IClassFileEditorInput classFileEditorInput = (IClassFileEditorInput) input;
 				IClassFile file = classFileEditorInput.getClassFile();
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.fernflower;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jetbrains.java.decompiler.main.extern.IBytecodeProvider;
+
+/**
+ * Serves class bytes to FernFlower from memory. FernFlower only accepts
+ * sources as files, so every class is registered under a virtual file which is
+ * never created on disk.
+ */
+class FernFlowerBytecodeProvider implements IBytecodeProvider {
+
+	private final Map<String, byte[]> classes = new HashMap<>();
+
+	/**
+	 * @return the virtual file to pass to <code>Fernflower.addSource</code>
+	 */
+	File addClass(String packege, String className, byte[] bytes) {
+		File file = new File(new File(packege), className);
+		classes.put(file.getAbsolutePath(), bytes);
+		return file;
+	}
+
+	@Override
+	public byte[] getBytecode(String externalPath, String internalPath) throws IOException {
+		byte[] bytes = classes.get(externalPath);
+		if (bytes == null) {
+			throw new FileNotFoundException(externalPath);
+		}
+		return bytes;
+	}
+}
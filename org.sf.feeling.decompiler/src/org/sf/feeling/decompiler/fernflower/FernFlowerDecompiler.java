@@ -9,54 +9,82 @@
 package org.sf.feeling.decompiler.fernflower;
 
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FilenameFilter;
 import java.io.PrintStream;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import org.jetbrains.java.decompiler.main.decompiler.ConsoleDecompiler;
+import org.jetbrains.java.decompiler.main.Fernflower;
 import org.jetbrains.java.decompiler.main.decompiler.PrintStreamLogger;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
 import org.sf.feeling.decompiler.JavaDecompilerPlugin;
+import org.sf.feeling.decompiler.editor.DecompilationResult;
+import org.sf.feeling.decompiler.editor.DecompilerOptions;
 import org.sf.feeling.decompiler.editor.DecompilerType;
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
 import org.sf.feeling.decompiler.editor.IDecompiler;
-import org.sf.feeling.decompiler.util.ClassUtil;
-import org.sf.feeling.decompiler.util.FileUtil;
-import org.sf.feeling.decompiler.util.JarClassExtractor;
-import org.sf.feeling.decompiler.util.UnicodeUtil;
+import org.sf.feeling.decompiler.editor.IInMemoryDecompiler;
+import org.sf.feeling.decompiler.util.ArchiveClassBytesProvider;
+import org.sf.feeling.decompiler.util.DirectoryClassBytesProvider;
+import org.sf.feeling.decompiler.util.SourceLexer;
 
-public class FernFlowerDecompiler implements IDecompiler {
-
-	private String source = ""; // $NON-NLS-1$ //$NON-NLS-1$
-	private long time, start;
-	private String log = ""; //$NON-NLS-1$
-
-	ByteArrayOutputStream loggerStream;
+public class FernFlowerDecompiler implements IInMemoryDecompiler {
 
 	/**
-	 * Performs a <code>Runtime.exec()</code> on jad executable with selected
-	 * options.
+	 * Decompiles a class file located in the file system. The class bytes are
+	 * read directly from <code>root</code>, no output directory is involved.
 	 * 
-	 * @see IDecompiler#decompile(String, String, String)
+	 * @see IDecompiler#decompile(DecompilerOptions, String, String, String)
 	 */
 	@Override
-	public void decompile(String root, String packege, final String className) {
+	public DecompilationResult decompile(DecompilerOptions options, String root, String packege,
+			final String className) {
 		if (root == null || packege == null || className == null)
-			return;
+			return DecompilationResult.empty(getDecompilerType(), 0, null);
 
-		start = System.currentTimeMillis();
-		log = ""; //$NON-NLS-1$
-		source = ""; //$NON-NLS-1$
+		return decompileFromBytes(options, new DirectoryClassBytesProvider(root), packege, className);
+	}
 
-		loggerStream = new ByteArrayOutputStream();
+	/**
+	 * Decompiles a class file located in an archive. The class and its inner
+	 * classes are read straight from the archive instead of being extracted into
+	 * the temporary directory.
+	 * 
+	 * @see IDecompiler#decompileFromArchive(DecompilerOptions, String, String,
+	 *      String)
+	 */
+	@Override
+	public DecompilationResult decompileFromArchive(DecompilerOptions options, String archivePath, String packege,
+			String className) {
+		long start = System.currentTimeMillis();
+		try (ArchiveClassBytesProvider provider = new ArchiveClassBytesProvider(archivePath)) {
+			return decompileFromBytes(options, provider, packege, className);
+		} catch (Exception e) {
+			JavaDecompilerPlugin.logError(e, e.getMessage());
+			return DecompilationResult.empty(getDecompilerType(), System.currentTimeMillis() - start,
+					Collections.singletonList(e));
+		}
+	}
+
+	/**
+	 * The line mapping of the result holds pairs of original line number (from
+	 * the line number table) and decompiled line number if FernFlower produced
+	 * one, i.e. in debug mode. If the source is realigned the line numbers are
+	 * not printed as comments.
+	 * 
+	 * @see IInMemoryDecompiler#decompileFromBytes(DecompilerOptions,
+	 *      IClassBytesProvider, String, String)
+	 */
+	@Override
+	public DecompilationResult decompileFromBytes(DecompilerOptions options, IClassBytesProvider provider,
+			String packege, String className) {
+		long start = System.currentTimeMillis();
+		StringBuilder log = new StringBuilder();
+		String source = ""; //$NON-NLS-1$
+		int[] lineMapping = null;
 
-		File workingDir = new File(root + "/" + packege); //$NON-NLS-1$
+		ByteArrayOutputStream loggerStream = new ByteArrayOutputStream();
 
 		final Map<String, Object> mapOptions = new HashMap<String, Object>();
 
@@ -66,124 +94,44 @@ public class FernFlowerDecompiler implements IDecompiler {
 		mapOptions.put(IFernflowerPreferences.DECOMPILE_ENUM, "1"); //$NON-NLS-1$
 		mapOptions.put(IFernflowerPreferences.LOG_LEVEL, IFernflowerLogger.Severity.ERROR.name());
 		mapOptions.put(IFernflowerPreferences.ASCII_STRING_CHARACTERS, "1"); //$NON-NLS-1$
-		if (ClassUtil.isDebug()) {
-			mapOptions.put(IFernflowerPreferences.DUMP_ORIGINAL_LINES, "1"); //$NON-NLS-1$
-			mapOptions.put(IFernflowerPreferences.BYTECODE_SOURCE_MAPPING, "1"); //$NON-NLS-1$
-		}
-
-		final File tmpDir = new File(System.getProperty("java.io.tmpdir"), //$NON-NLS-1$
-				String.valueOf(System.currentTimeMillis()));
-
-		if (!tmpDir.exists())
-			tmpDir.mkdirs();
-
-		// Work around protected constructor
-		class EmbeddedConsoleDecompiler extends ConsoleDecompiler {
-
-			protected EmbeddedConsoleDecompiler() {
-				super(tmpDir, mapOptions, new PrintStreamLogger(new PrintStream(loggerStream)));
+		if (options.isDebug()) {
+			if (!options.isRealign()) {
+				mapOptions.put(IFernflowerPreferences.DUMP_ORIGINAL_LINES, "1"); //$NON-NLS-1$
 			}
-
+			mapOptions.put(IFernflowerPreferences.BYTECODE_SOURCE_MAPPING, "1"); //$NON-NLS-1$
 		}
-		ConsoleDecompiler decompiler = new EmbeddedConsoleDecompiler();
-
-		File[] files = workingDir.listFiles(new FilenameFilter() {
 
-			@Override
-			public boolean accept(File dir, String name) {
-				if (name.toLowerCase().indexOf(className.toLowerCase()) != -1)
-					return true;
-				return false;
-			}
-		});
-		if (files != null) {
-			for (int j = 0; j < files.length; j++) {
-				decompiler.addSource(files[j]);
-			}
+		byte[] bytes = provider.getClassBytes(packege, className);
+		if (bytes == null) {
+			return DecompilationResult.empty(getDecompilerType(), System.currentTimeMillis() - start, null);
 		}
 
-		decompiler.decompileContext();
-
-		File classFile = new File(tmpDir, className.replaceAll("(?i)\\.class", ".java")); //$NON-NLS-1$ //$NON-NLS-2$
-
-		source = UnicodeUtil.decode(FileUtil.getContent(classFile));
-
-		classFile.delete();
-
-		FileUtil.deltree(tmpDir);
-
-		Pattern wp = Pattern.compile("/\\*.+?\\*/", Pattern.DOTALL); //$NON-NLS-1$
-		Matcher m = wp.matcher(source);
-		while (m.find()) {
-			if (m.group().matches("/\\*\\s*\\d*\\s*\\*/")) //$NON-NLS-1$
-				continue;
-			String group = m.group();
-			group = group.replace("/*", ""); //$NON-NLS-1$ //$NON-NLS-2$
-			group = group.replace("*/", ""); //$NON-NLS-1$ //$NON-NLS-2$
-			group = group.replace("*", ""); //$NON-NLS-1$ //$NON-NLS-2$
-			if (log.length() > 0)
-				log += "\n"; //$NON-NLS-1$
-			log += group;
-
-			source = source.replace(m.group(), ""); //$NON-NLS-1$
-		}
-
-		time = System.currentTimeMillis() - start;
-	}
-
-	/**
-	 * Jad doesn't support decompilation from archives. This methods extracts
-	 * request class file from the specified archive into temp directory and then
-	 * calls <code>decompile</code>.
-	 * 
-	 * @see IDecompiler#decompileFromArchive(String, String, String)
-	 */
-	@Override
-	public void decompileFromArchive(String archivePath, String packege, String className) {
-		start = System.currentTimeMillis();
-		File workingDir = new File(
-				JavaDecompilerPlugin.getDefault().getPreferenceStore().getString(JavaDecompilerPlugin.TEMP_DIR) + "/" //$NON-NLS-1$
-						+ System.currentTimeMillis());
+		FernFlowerBytecodeProvider bytecodeProvider = new FernFlowerBytecodeProvider();
+		FernFlowerResultSaver resultSaver = new FernFlowerResultSaver();
+		Fernflower fernflower = new Fernflower(bytecodeProvider, resultSaver, mapOptions,
+				new PrintStreamLogger(new PrintStream(loggerStream)));
 
 		try {
-			workingDir.mkdirs();
-			JarClassExtractor.extract(archivePath, packege, className, true, workingDir.getAbsolutePath());
-			decompile(workingDir.getAbsolutePath(), "", className); //$NON-NLS-1$
-		} catch (Exception e) {
-			JavaDecompilerPlugin.logError(e, e.getMessage());
-			return;
+			fernflower.addSource(bytecodeProvider.addClass(packege, className, bytes));
+			for (String innerClassName : provider.getInnerClassNames(packege, className)) {
+				byte[] innerBytes = provider.getClassBytes(packege, innerClassName);
+				if (innerBytes != null) {
+					fernflower.addSource(bytecodeProvider.addClass(packege, innerClassName, innerBytes));
+				}
+			}
+			fernflower.decompileContext();
 		} finally {
-			FileUtil.deltree(workingDir);
+			fernflower.clearContext();
 		}
-	}
 
-	@Override
-	public long getDecompilationTime() {
-		return time;
-	}
-
-	@Override
-	public List<Exception> getExceptions() {
-		return Collections.emptyList();
-	}
-
-	/**
-	 * @see IDecompiler#getLog()
-	 */
-	@Override
-	public String getLog() {
-		if (loggerStream != null) {
-			return log + loggerStream.toString();
+		if (resultSaver.getContent() != null) {
+			lineMapping = resultSaver.getMapping();
+			source = SourceLexer.process(resultSaver.getContent(), true, SourceLexer.LINE_NUMBER_COMMENT, log,
+					lineMapping);
 		}
-		return log;
-	}
 
-	/**
-	 * @see IDecompiler#getSource()
-	 */
-	@Override
-	public String getSource() {
-		return source;
+		return new DecompilationResult(getDecompilerType(), source, lineMapping, System.currentTimeMillis() - start,
+				null, log.append(loggerStream.toString()).toString());
 	}
 
 	@Override
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.fernflower;
+
+import java.util.jar.Manifest;
+
+import org.jetbrains.java.decompiler.main.extern.IResultSaver;
+
+/**
+ * Captures the source of the decompiled class as a string instead of writing
+ * it to the output directory.
+ */
+class FernFlowerResultSaver implements IResultSaver {
+
+	private String content;
+	private int[] mapping;
+
+	String getContent() {
+		return content;
+	}
+
+	/**
+	 * @return pairs of original line number (from the line number table) and
+	 *         decompiled line number, or <code>null</code> if the bytecode source
+	 *         mapping option is not set
+	 */
+	int[] getMapping() {
+		return mapping;
+	}
+
+	@Override
+	public void saveClassFile(String path, String qualifiedName, String entryName, String content, int[] mapping) {
+		if (content != null) {
+			this.content = content;
+			this.mapping = mapping;
+		}
+	}
+
+	@Override
+	public void saveClassEntry(String path, String archiveName, String qualifiedName, String entryName,
+			String content) {
+		if (content != null) {
+			this.content = content;
+		}
+	}
+
+	@Override
+	public void saveFolder(String path) {
+	}
+
+	@Override
+	public void copyFile(String source, String path, String entryName) {
+	}
+
+	@Override
+	public void createArchive(String path, String archiveName, Manifest manifest) {
+	}
+
+	@Override
+	public void saveDirEntry(String path, String archiveName, String entryName) {
+	}
+
+	@Override
+	public void copyEntry(String source, String path, String archiveName, String entry) {
+	}
+
+	@Override
+	public void closeArchive(String path, String archiveName) {
+	}
+}
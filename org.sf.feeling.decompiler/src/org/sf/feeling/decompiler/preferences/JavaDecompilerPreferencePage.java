@@ -10,6 +10,7 @@ package org.sf.feeling.decompiler.preferences;
 
 import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.layout.GridData;
@@ -140,6 +141,11 @@ public class JavaDecompilerPreferencePage extends FieldEditorPreferencePage impl
 				basicGroup);
 		addField(showReport);
 
+		CheckFieldEditor parallelEditor = new CheckFieldEditor(JavaDecompilerPlugin.PARALLEL_DECOMPILE,
+				Messages.getString("JavaDecompilerPreferencePage.Label.ParallelDecompile"), //$NON-NLS-1$
+				basicGroup);
+		addField(parallelEditor);
+
 		GridLayout layout = (GridLayout) basicGroup.getLayout();
 		layout.marginWidth = layout.marginHeight = 5;
 		basicGroup.layout();
@@ -184,6 +190,8 @@ public class JavaDecompilerPreferencePage extends FieldEditorPreferencePage impl
 		layout.marginWidth = layout.marginHeight = 5;
 		debugGroup.layout();
 
+		createLimitsFieldEditors(getFieldEditorParent());
+
 		createEncodingFieldEditor(getFieldEditorParent());
 
 		Group startupGroup = new Group(getFieldEditorParent(), SWT.NONE);
@@ -197,6 +205,11 @@ public class JavaDecompilerPreferencePage extends FieldEditorPreferencePage impl
 				startupGroup);
 		addField(defaultViewerEditor);
 
+		CheckFieldEditor serviceEditor = new CheckFieldEditor(JavaDecompilerPlugin.DECOMPILER_SERVICE,
+				Messages.getString("JavaDecompilerPreferencePage.Label.DecompilerService"), //$NON-NLS-1$
+				startupGroup);
+		addField(serviceEditor);
+
 		layout = (GridLayout) startupGroup.getLayout();
 		layout.marginWidth = layout.marginHeight = 5;
 		startupGroup.layout();
@@ -211,6 +224,30 @@ public class JavaDecompilerPreferencePage extends FieldEditorPreferencePage impl
 		addField(attachSource);
 	}
 
+	private void createLimitsFieldEditors(Composite composite) {
+		Group limitsGroup = new Group(composite, SWT.NONE);
+		limitsGroup.setText(Messages.getString("JavaDecompilerPreferencePage.Label.Limits")); //$NON-NLS-1$
+		GridData gd = new GridData(GridData.FILL_HORIZONTAL);
+		gd.horizontalSpan = defaultDecompiler.getNumberOfControls();
+		limitsGroup.setLayoutData(gd);
+
+		IntegerFieldEditor timeoutEditor = new IntegerFieldEditor(JavaDecompilerPlugin.DECOMPILE_TIMEOUT,
+				Messages.getString("JavaDecompilerPreferencePage.Label.Timeout"), //$NON-NLS-1$
+				limitsGroup);
+		timeoutEditor.setValidRange(0, 3600);
+		addField(timeoutEditor);
+
+		IntegerFieldEditor memoryLimitEditor = new IntegerFieldEditor(JavaDecompilerPlugin.DECOMPILE_MEMORY_LIMIT,
+				Messages.getString("JavaDecompilerPreferencePage.Label.MemoryLimit"), //$NON-NLS-1$
+				limitsGroup);
+		memoryLimitEditor.setValidRange(0, 65536);
+		addField(memoryLimitEditor);
+
+		GridLayout layout = (GridLayout) limitsGroup.getLayout();
+		layout.marginWidth = layout.marginHeight = 5;
+		limitsGroup.layout();
+	}
+
 	private void createEncodingFieldEditor(Composite composite) {
 		Group encodingGroup = new Group(composite, SWT.NONE);
 		encodingGroup.setText(Messages.getString("JavaDecompilerPreferencePage.Label.Export.Encoding")); //$NON-NLS-1$
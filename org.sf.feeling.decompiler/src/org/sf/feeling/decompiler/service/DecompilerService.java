@@ -0,0 +1,454 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.sf.feeling.decompiler.JavaDecompilerPlugin;
+import org.sf.feeling.decompiler.batch.BatchDecompiler;
+import org.sf.feeling.decompiler.batch.BatchDecompiler.DecompiledClass;
+import org.sf.feeling.decompiler.editor.DecompilerOptions;
+import org.sf.feeling.decompiler.editor.DecompilerType;
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
+import org.sf.feeling.decompiler.util.ArchiveClassBytesProvider;
+import org.sf.feeling.decompiler.util.DirectoryClassBytesProvider;
+import org.sf.feeling.decompiler.util.FileUtil;
+import org.sf.feeling.decompiler.util.IOUtils;
+import org.sf.feeling.decompiler.util.Logger;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+
+/**
+ * Local decompilation service. It keeps the decompilers loaded and warmed up
+ * and serves decompile requests of other processes on the loopback interface,
+ * with the same decompilers, post processing and source cache as the editor.
+ * <p>
+ * The port and a token are written to {@link #getServiceFile()}, which only the
+ * user can read. The first line of a connection must be the token, otherwise
+ * the connection is closed. Then every request is a JSON object on a single
+ * line of at most {@value #MAX_REQUEST_LENGTH} characters; the response is a
+ * JSON object on a single line:
+ *
+ * <pre>
+ * {"input":"/libs/a.jar","class":"com.example.Foo","decompiler":"CFR"}
+ * {"class":"com.example.Foo","source":"...","decompiler":"CFR","timeMillis":12,"cached":false}
+ * </pre>
+ *
+ * <code>input</code> is a jar or a class folder, <code>decompiler</code> is
+ * optional. <code>{"command":"ping"}</code> returns the available
+ * decompilers. See {@link DecompilerServiceClient}.
+ */
+public class DecompilerService {
+
+	/**
+	 * Classes of this bundle decompiled to load and JIT compile the decompilers.
+	 */
+	private static final Class<?>[] WARM_UP_CLASSES = { DecompilerService.class, BatchDecompiler.class };
+
+	private static final int WARM_UP_ROUNDS = 3;
+
+	static final int MAX_REQUEST_LENGTH = 64 * 1024;
+
+	/**
+	 * Time a client has to send the token after connecting, local clients send it
+	 * right away.
+	 */
+	private static final int TOKEN_TIMEOUT_MILLIS = 2 * 1000;
+
+	/**
+	 * Threads reading the tokens, unauthorized connections never hold the
+	 * threads serving requests.
+	 */
+	private static final int AUTHENTICATION_THREADS = 2;
+
+	/**
+	 * Time an authorized connection may wait for the next request.
+	 */
+	private static final int IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+	private static DecompilerService service;
+
+	private final ServerSocket serverSocket;
+	private final String token;
+	private final ExecutorService executor;
+	private final ExecutorService authenticator;
+
+	private DecompilerService(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		token = createToken();
+		executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()),
+				new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "Decompiler Service"); //$NON-NLS-1$
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		authenticator = Executors.newFixedThreadPool(AUTHENTICATION_THREADS, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Decompiler Service Authentication"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts the service if it is not running yet, on the port from the
+	 * preferences.
+	 */
+	public static synchronized void start() throws IOException {
+		if (service != null) {
+			return;
+		}
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		final DecompilerService newService = new DecompilerService(
+				prefs.getInt(JavaDecompilerPlugin.DECOMPILER_SERVICE_PORT));
+		try {
+			newService.writeServiceFile();
+		} catch (IOException e) {
+			newService.close();
+			throw e;
+		}
+		service = newService;
+		newService.executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				newService.warmUp();
+			}
+		});
+		Thread acceptor = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				newService.accept();
+			}
+		}, "Decompiler Service Acceptor"); //$NON-NLS-1$
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public static synchronized void stop() {
+		if (service != null) {
+			service.close();
+			getServiceFile().delete();
+			service = null;
+		}
+	}
+
+	public static synchronized boolean isRunning() {
+		return service != null;
+	}
+
+	/**
+	 * @return the file the port and the token of the running service are
+	 *         written to
+	 */
+	public static File getServiceFile() {
+		return JavaDecompilerPlugin.getDefault().getStateLocation().append("service.properties").toFile(); //$NON-NLS-1$
+	}
+
+	private void close() {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			Logger.debug(e);
+		}
+		authenticator.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				final Socket socket = serverSocket.accept();
+				authenticator.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						authenticate(socket);
+					}
+				});
+			} catch (SocketException e) {
+				// closed
+			} catch (IOException e) {
+				Logger.debug(e);
+			}
+		}
+	}
+
+	/**
+	 * Reads the token and hands an authorized connection over to the threads
+	 * serving requests, otherwise closes it.
+	 */
+	private void authenticate(final Socket socket) {
+		boolean authorized = false;
+		try {
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")); //$NON-NLS-1$
+			final Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8")); //$NON-NLS-1$
+			// nothing but the token is read from a client before it is authorized
+			socket.setSoTimeout(TOKEN_TIMEOUT_MILLIS);
+			if (!isToken(readLine(reader, token.length()))) {
+				writeResponse(writer, new JsonObject().add("error", "Invalid token")); //$NON-NLS-1$ //$NON-NLS-2$
+				return;
+			}
+			socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					serve(socket, reader, writer);
+				}
+			});
+			authorized = true;
+		} catch (IOException | RejectedExecutionException e) {
+			Logger.debug(e);
+		} finally {
+			if (!authorized) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					Logger.debug(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Answers the requests of an authorized connection until it is closed.
+	 */
+	private void serve(Socket socket, BufferedReader reader, Writer writer) {
+		try (Socket client = socket; BufferedReader in = reader; Writer out = writer) {
+			String line;
+			while ((line = readLine(in, MAX_REQUEST_LENGTH)) != null) {
+				JsonObject response;
+				try {
+					response = handle(Json.parse(line).asObject());
+				} catch (RuntimeException e) {
+					response = new JsonObject().add("error", "Invalid request: " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				writeResponse(out, response);
+			}
+		} catch (IOException e) {
+			Logger.debug(e);
+		}
+	}
+
+	/**
+	 * Compares in constant time, so the token cannot be guessed character by
+	 * character from the response times.
+	 */
+	private boolean isToken(String line) {
+		return line != null
+				&& MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), line.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads a line of at most the given length.
+	 * 
+	 * @return the line without the line terminator, <code>null</code> at the end
+	 *         of the stream or if the line is longer
+	 */
+	private static String readLine(BufferedReader reader, int maxLength) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = reader.read()) != -1) {
+			if (c == '\n') {
+				int length = line.length();
+				if (length > 0 && line.charAt(length - 1) == '\r') {
+					line.setLength(--length);
+				}
+				return length > maxLength ? null : line.toString();
+			}
+			// one more for the carriage return
+			if (line.length() > maxLength) {
+				return null;
+			}
+			line.append((char) c);
+		}
+		return null;
+	}
+
+	private static void writeResponse(Writer writer, JsonObject response) throws IOException {
+		writer.write(response.toString());
+		writer.write('\n');
+		writer.flush();
+	}
+
+	private JsonObject handle(JsonObject request) {
+		if ("ping".equals(request.getString("command", null))) { //$NON-NLS-1$ //$NON-NLS-2$
+			JsonArray decompilers = new JsonArray();
+			for (String type : getDecompilerTypes()) {
+				decompilers.add(type);
+			}
+			return new JsonObject().add("status", "ok").add("decompilers", decompilers); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+
+		String input = request.getString("input", null); //$NON-NLS-1$
+		String className = request.getString("class", null); //$NON-NLS-1$
+		if (input == null || className == null) {
+			return new JsonObject().add("error", "Missing input or class"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		File file = new File(input);
+		if (!file.exists()) {
+			return new JsonObject().add("error", "Input does not exist: " + input); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		String decompilerType = request.getString("decompiler", //$NON-NLS-1$
+				JavaDecompilerPlugin.getDefault().getPreferenceStore().getString(JavaDecompilerPlugin.DECOMPILER_TYPE));
+
+		DecompiledClass result;
+		try {
+			result = decompile(decompilerType, file, className.replace('.', '/') + ".class"); //$NON-NLS-1$
+		} catch (IOException e) {
+			return new JsonObject().add("error", e.toString()); //$NON-NLS-1$
+		}
+
+		JsonObject response = new JsonObject().add("class", className); //$NON-NLS-1$
+		if (result.getSource() == null) {
+			return response.add("error", result.getException() == null ? "Decompilation failed" //$NON-NLS-1$ //$NON-NLS-2$
+					: result.getException().toString());
+		}
+		return response.add("source", result.getSource()) //$NON-NLS-1$
+				.add("decompiler", result.getDecompilerType() == null ? Json.NULL //$NON-NLS-1$
+						: Json.value(result.getDecompilerType()))
+				.add("timeMillis", result.getTime()) //$NON-NLS-1$
+				.add("cached", result.isCached()); //$NON-NLS-1$
+	}
+
+	/**
+	 * Decompiles the class from the jar or class folder with the options of the
+	 * preferences.
+	 */
+	private DecompiledClass decompile(String decompilerType, File input, String path) throws IOException {
+		BatchDecompiler decompiler = new BatchDecompiler(decompilerType, DecompilerOptions.fromPreferences());
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		decompiler.setTimeoutMillis(prefs.getInt(JavaDecompilerPlugin.DECOMPILE_TIMEOUT) * 1000L);
+		if (input.isDirectory()) {
+			return decompiler.decompile(new DirectoryClassBytesProvider(input.getAbsolutePath()), false, path);
+		}
+		try (ArchiveClassBytesProvider provider = new ArchiveClassBytesProvider(input.getAbsolutePath())) {
+			return decompiler.decompile(provider, true, path);
+		}
+	}
+
+	/**
+	 * Decompiles some classes of this bundle with every decompiler, so the
+	 * decompilers are loaded and compiled by the JIT before the first request.
+	 */
+	private void warmUp() {
+		File directory = new File(
+				JavaDecompilerPlugin.getDefault().getPreferenceStore().getString(JavaDecompilerPlugin.TEMP_DIR),
+				"warmup"); //$NON-NLS-1$
+		List<String> paths = new ArrayList<>();
+		for (Class<?> clazz : WARM_UP_CLASSES) {
+			String path = clazz.getName().replace('.', '/') + ".class"; //$NON-NLS-1$
+			try (InputStream in = clazz.getResourceAsStream(clazz.getSimpleName() + ".class")) { //$NON-NLS-1$
+				if (in == null) {
+					continue;
+				}
+				File file = new File(directory, path);
+				file.getParentFile().mkdirs();
+				try (OutputStream out = new FileOutputStream(file)) {
+					IOUtils.copy(in, out);
+				}
+				paths.add(path);
+			} catch (IOException e) {
+				Logger.debug(e);
+			}
+		}
+
+		long start = System.currentTimeMillis();
+		IClassBytesProvider provider = new DirectoryClassBytesProvider(directory.getAbsolutePath());
+		for (int i = 0; i < WARM_UP_ROUNDS && !Thread.currentThread().isInterrupted(); i++) {
+			for (String type : getDecompilerTypes()) {
+				for (String path : paths) {
+					BatchDecompiler decompiler = new BatchDecompiler(type, DecompilerOptions.fromPreferences());
+					decompiler.setUseCache(false);
+					decompiler.decompile(provider, false, path);
+				}
+			}
+		}
+		Logger.debug("Decompiler service warmed up in " + (System.currentTimeMillis() - start) + " ms", null); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			FileUtil.deleteDirectory(null, directory, 0);
+		} catch (IOException e) {
+			Logger.debug(e);
+		}
+	}
+
+	private static List<String> getDecompilerTypes() {
+		List<String> types = new ArrayList<>();
+		types.add(DecompilerType.FernFlower);
+		for (String type : DecompilerType.getDecompilerTypes()) {
+			if (!types.contains(type)) {
+				types.add(type);
+			}
+		}
+		return types;
+	}
+
+	private void writeServiceFile() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("port", String.valueOf(serverSocket.getLocalPort())); //$NON-NLS-1$
+		properties.setProperty("token", token); //$NON-NLS-1$
+		File file = getServiceFile();
+		file.getParentFile().mkdirs();
+		file.delete();
+		file.createNewFile();
+		// only the user may read the token
+		file.setReadable(false, false);
+		file.setReadable(true, true);
+		file.setWritable(false, false);
+		file.setWritable(true, true);
+		try (OutputStream out = new FileOutputStream(file)) {
+			properties.store(out, "Enhanced Class Decompiler service"); //$NON-NLS-1$
+		}
+	}
+
+	private static String createToken() {
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder token = new StringBuilder();
+		for (byte b : bytes) {
+			token.append(String.format("%02x", b & 0xff)); //$NON-NLS-1$
+		}
+		return token.toString();
+	}
+}
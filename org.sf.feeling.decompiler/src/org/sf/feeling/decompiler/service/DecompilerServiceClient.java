@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Properties;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+
+/**
+ * Client of the {@link DecompilerService}. It only depends on the JSON
+ * library, so other tools can use it with this bundle on the class path:
+ *
+ * <pre>
+ * java -cp org.sf.feeling.decompiler.jar:json.jar org.sf.feeling.decompiler.service.DecompilerServiceClient
+ *     &lt;workspace&gt;/.metadata/.plugins/org.sf.feeling.decompiler/service.properties a.jar com.example.Foo
+ * </pre>
+ */
+public class DecompilerServiceClient implements Closeable {
+
+	private final Socket socket;
+	private final BufferedReader reader;
+	private final Writer writer;
+
+	/**
+	 * Connects to the service described by the file written by the service, see
+	 * {@link DecompilerService#getServiceFile()}.
+	 */
+	public DecompilerServiceClient(File serviceFile) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(serviceFile)) {
+			properties.load(in);
+		}
+		int port;
+		try {
+			port = Integer.parseInt(properties.getProperty("port")); //$NON-NLS-1$
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid service file: " + serviceFile); //$NON-NLS-1$
+		}
+		String token = properties.getProperty("token"); //$NON-NLS-1$
+		if (token == null) {
+			throw new IOException("Invalid service file: " + serviceFile); //$NON-NLS-1$
+		}
+		socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")); //$NON-NLS-1$
+		writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8")); //$NON-NLS-1$
+		// the connection is authorized by its first line
+		writer.write(token);
+		writer.write('\n');
+		writer.flush();
+	}
+
+	/**
+	 * @return the response containing the available decompilers
+	 */
+	public JsonObject ping() throws IOException {
+		return send(new JsonObject().add("command", "ping")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * @param input          jar or class folder
+	 * @param className      binary name of the class
+	 * @param decompilerType decompiler to try first, or <code>null</code> for the
+	 *                       default one
+	 * @return the response, containing either <code>source</code> or
+	 *         <code>error</code>
+	 */
+	public JsonObject decompile(String input, String className, String decompilerType) throws IOException {
+		JsonObject request = new JsonObject().add("input", input) //$NON-NLS-1$
+				.add("class", className); //$NON-NLS-1$
+		if (decompilerType != null) {
+			request.add("decompiler", decompilerType); //$NON-NLS-1$
+		}
+		return send(request);
+	}
+
+	private synchronized JsonObject send(JsonObject request) throws IOException {
+		writer.write(request.toString());
+		writer.write('\n');
+		writer.flush();
+		String line = reader.readLine();
+		if (line == null) {
+			throw new EOFException("The decompiler service closed the connection"); //$NON-NLS-1$
+		}
+		return Json.parse(line).asObject();
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: <service file> <jar or class folder> <class name> [decompiler]"); //$NON-NLS-1$
+			System.exit(1);
+		}
+		try (DecompilerServiceClient client = new DecompilerServiceClient(new File(args[0]))) {
+			JsonObject response = client.decompile(new File(args[1]).getAbsolutePath(), args[2],
+					args.length > 3 ? args[3] : null);
+			String source = response.getString("source", null); //$NON-NLS-1$
+			if (source == null) {
+				System.err.println(response.getString("error", "Decompilation failed")); //$NON-NLS-1$ //$NON-NLS-2$
+				System.exit(2);
+			}
+			System.out.println(source);
+		}
+	}
+}
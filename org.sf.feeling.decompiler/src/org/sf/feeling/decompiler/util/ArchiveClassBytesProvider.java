@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
+
+/**
+ * Serves class bytes straight from a jar/zip archive without extracting them.
+ * The archive stays open until {@link #close()} is called.
+ */
+public class ArchiveClassBytesProvider implements IClassBytesProvider, Closeable {
+
+	private final String archivePath;
+	private final ZipFile archive;
+
+	public ArchiveClassBytesProvider(String archivePath) throws IOException {
+		this.archivePath = archivePath;
+		this.archive = new ZipFile(archivePath);
+	}
+
+	@Override
+	public String getLocation() {
+		return archivePath;
+	}
+
+	@Override
+	public byte[] getClassBytes(String packege, String className) {
+		String entryName = (packege.length() == 0) ? className
+				: packege + "/" //$NON-NLS-1$
+						+ className;
+		ZipEntry entry = archive.getEntry(entryName);
+		if (entry == null) {
+			return null;
+		}
+		try (InputStream in = archive.getInputStream(entry)) {
+			return IOUtils.readInputStream(in);
+		} catch (Exception e) {
+			Logger.debug(e);
+		}
+		return null;
+	}
+
+	@Override
+	public List<String> getInnerClassNames(String packege, String className) {
+		String prefix = (packege.length() == 0) ? "" //$NON-NLS-1$
+				: packege + "/"; //$NON-NLS-1$
+		String innerPrefix = prefix + className.substring(0, className.length() - 6) + "$"; //$NON-NLS-1$
+		List<String> innerClassNames = new ArrayList<>();
+		Enumeration<? extends ZipEntry> entries = archive.entries();
+		while (entries.hasMoreElements()) {
+			String name = entries.nextElement().getName();
+			if (name.startsWith(innerPrefix) && name.indexOf('/', innerPrefix.length()) == -1) {
+				innerClassNames.add(name.substring(prefix.length()));
+			}
+		}
+		return innerClassNames;
+	}
+
+	@Override
+	public void close() throws IOException {
+		archive.close();
+	}
+}
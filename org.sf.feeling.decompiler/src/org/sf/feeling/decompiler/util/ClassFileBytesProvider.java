@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.IClassFile;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.JavaModelException;
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
+
+/**
+ * Serves class bytes through the Java model of a package fragment root, so
+ * that neither archives nor class folders have to be extracted into the
+ * temporary directory.
+ */
+public class ClassFileBytesProvider implements IClassBytesProvider {
+
+	private final IPackageFragmentRoot root;
+	private final String location;
+	private final Map<String, byte[]> bytesCache = new HashMap<>();
+
+	public ClassFileBytesProvider(IPackageFragmentRoot root, String location) {
+		this.root = root;
+		this.location = location;
+	}
+
+	@Override
+	public String getLocation() {
+		return location;
+	}
+
+	@Override
+	public synchronized byte[] getClassBytes(String packege, String className) {
+		String key = packege + "/" + className; //$NON-NLS-1$
+		if (bytesCache.containsKey(key)) {
+			return bytesCache.get(key);
+		}
+
+		byte[] bytes = null;
+		try {
+			IPackageFragment fragment = root.getPackageFragment(packege.replace('/', '.'));
+			if (fragment.exists()) {
+				IClassFile classFile = fragment.getClassFile(className);
+				if (classFile.exists()) {
+					bytes = classFile.getBytes();
+				}
+			}
+		} catch (JavaModelException e) {
+			Logger.debug(e);
+		}
+		bytesCache.put(key, bytes);
+		return bytes;
+	}
+
+	@Override
+	public List<String> getInnerClassNames(String packege, String className) {
+		List<String> innerClassNames = new ArrayList<>();
+		String innerPrefix = className.substring(0, className.length() - 6) + "$"; //$NON-NLS-1$
+		try {
+			IPackageFragment fragment = root.getPackageFragment(packege.replace('/', '.'));
+			if (fragment.exists()) {
+				IJavaElement[] children = fragment.getChildren();
+				for (int i = 0; i < children.length; i++) {
+					String name = children[i].getElementName();
+					if (children[i] instanceof IClassFile && name.startsWith(innerPrefix)) {
+						innerClassNames.add(name);
+					}
+				}
+			}
+		} catch (JavaModelException e) {
+			Logger.debug(e);
+		}
+		return innerClassNames;
+	}
+}
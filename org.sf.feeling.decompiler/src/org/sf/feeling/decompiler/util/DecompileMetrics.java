@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Times the phases of opening a class file, aggregated per phase, decompiler
+ * and library. Each phase is also emitted as a JDK Flight Recorder event
+ * <code>org.sf.feeling.decompiler.DecompilePhase</code> if the JVM supports
+ * it, so that a recording shows the phases next to the garbage collections and
+ * the hot methods of the decompilers.
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * DecompileMetrics.Timer timer = DecompileMetrics.start(DecompileMetrics.Phase.FORMAT);
+ * code = formatSource(code);
+ * timer.stop(decompilerType, library);
+ * </pre>
+ */
+public class DecompileMetrics {
+
+	/**
+	 * Phases of opening a class file, in the order they run.
+	 */
+	public enum Phase {
+		/** reading the class bytes from the library */
+		EXTRACT,
+		/** running the decompiler, including the fallbacks */
+		DECOMPILE,
+		/** removing the comments of the decompiler */
+		REMOVE_COMMENTS,
+		/** realigning the source to the original line numbers */
+		REALIGN,
+		/** sorting the members */
+		SORT,
+		/** formatting the source */
+		FORMAT,
+		/** mapping the source ranges of the Java model */
+		MAP_SOURCE,
+		/** creating the editor buffer */
+		BUFFER
+	}
+
+	/**
+	 * Upper bounds of the histogram buckets in milliseconds, the last bucket is
+	 * unbounded.
+	 */
+	private static final long[] BUCKET_BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+	/**
+	 * Aggregated durations of a phase.
+	 */
+	public static class Statistics {
+
+		private long count;
+		private long totalNanos;
+		private long maxNanos;
+		private final long[] buckets = new long[BUCKET_BOUNDS.length + 1];
+
+		synchronized void add(long nanos) {
+			count++;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+			buckets[getBucket(nanos)]++;
+		}
+
+		synchronized void add(Statistics statistics) {
+			synchronized (statistics) {
+				count += statistics.count;
+				totalNanos += statistics.totalNanos;
+				maxNanos = Math.max(maxNanos, statistics.maxNanos);
+				for (int i = 0; i < buckets.length; i++) {
+					buckets[i] += statistics.buckets[i];
+				}
+			}
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		public synchronized long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public synchronized long getMaxNanos() {
+			return maxNanos;
+		}
+
+		/**
+		 * @return the number of durations per bucket, see
+		 *         {@link DecompileMetrics#getBucketBounds()}
+		 */
+		public synchronized long[] getBuckets() {
+			return buckets.clone();
+		}
+
+		/**
+		 * @param percentile e.g. 95
+		 * @return the upper bound in milliseconds of the bucket containing the
+		 *         percentile, or the maximum if that bucket is unbounded
+		 */
+		public synchronized long getPercentileMillis(int percentile) {
+			long rank = (long) Math.ceil(count * percentile / 100.0);
+			long seen = 0;
+			for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank) {
+					return Math.min(BUCKET_BOUNDS[i], (maxNanos + 999999) / 1000000);
+				}
+			}
+			return (maxNanos + 999999) / 1000000;
+		}
+
+		private static int getBucket(long nanos) {
+			long millis = nanos / 1000000;
+			for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+				if (millis < BUCKET_BOUNDS[i]) {
+					return i;
+				}
+			}
+			return BUCKET_BOUNDS.length;
+		}
+	}
+
+	/**
+	 * Measures a single phase.
+	 */
+	public static class Timer {
+
+		private final Phase phase;
+		private final long start = System.nanoTime();
+		private final Object event = FlightRecorderEvents.begin();
+
+		Timer(Phase phase) {
+			this.phase = phase;
+		}
+
+		/**
+		 * Records the duration since the timer was started.
+		 * 
+		 * @param decompilerType decompiler the phase ran for
+		 * @param library        name of the jar or class folder of the class
+		 */
+		public void stop(String decompilerType, String library) {
+			long nanos = System.nanoTime() - start;
+			record(phase, decompilerType, library, nanos);
+			FlightRecorderEvents.commit(event, phase, decompilerType, library);
+		}
+	}
+
+	private static final Map<List<Object>, Statistics> statistics = new HashMap<>();
+
+	public static Timer start(Phase phase) {
+		return new Timer(phase);
+	}
+
+	private static void record(Phase phase, String decompilerType, String library, long nanos) {
+		List<Object> key = Arrays.<Object>asList(phase, String.valueOf(decompilerType), String.valueOf(library));
+		Statistics phaseStatistics;
+		synchronized (statistics) {
+			phaseStatistics = statistics.get(key);
+			if (phaseStatistics == null) {
+				phaseStatistics = new Statistics();
+				statistics.put(key, phaseStatistics);
+			}
+		}
+		phaseStatistics.add(nanos);
+	}
+
+	/**
+	 * @param byLibrary <code>true</code> to group by library, otherwise by
+	 *                  decompiler
+	 * @return the statistics of each phase per decompiler or library, sorted by
+	 *         name
+	 */
+	public static Map<String, Map<Phase, Statistics>> getStatistics(boolean byLibrary) {
+		Map<String, Map<Phase, Statistics>> groups = new TreeMap<>();
+		synchronized (statistics) {
+			for (Map.Entry<List<Object>, Statistics> entry : statistics.entrySet()) {
+				List<Object> key = entry.getKey();
+				String group = (String) key.get(byLibrary ? 2 : 1);
+				Map<Phase, Statistics> phases = groups.get(group);
+				if (phases == null) {
+					phases = new TreeMap<>();
+					groups.put(group, phases);
+				}
+				Statistics phaseStatistics = phases.get(key.get(0));
+				if (phaseStatistics == null) {
+					phaseStatistics = new Statistics();
+					phases.put((Phase) key.get(0), phaseStatistics);
+				}
+				phaseStatistics.add(entry.getValue());
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * @return the upper bounds of the histogram buckets in milliseconds, the
+	 *         last bucket has no upper bound
+	 */
+	public static long[] getBucketBounds() {
+		return BUCKET_BOUNDS.clone();
+	}
+
+	public static void reset() {
+		synchronized (statistics) {
+			statistics.clear();
+		}
+	}
+
+	/**
+	 * Defines the Flight Recorder event at runtime through reflection, the
+	 * plugin still runs on Java 8 where <code>jdk.jfr</code> may be missing.
+	 */
+	private static class FlightRecorderEvents {
+
+		private static Object eventType;
+		private static Method isEnabled;
+		private static Object factory;
+		private static Method newEvent;
+		private static Method begin;
+		private static Method end;
+		private static Method set;
+		private static Method commit;
+
+		static {
+			try {
+				ClassLoader loader = ClassLoader.getSystemClassLoader();
+				Class<?> annotationElementClass = loader.loadClass("jdk.jfr.AnnotationElement"); //$NON-NLS-1$
+				Constructor<?> annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+				Class<?> valueDescriptorClass = loader.loadClass("jdk.jfr.ValueDescriptor"); //$NON-NLS-1$
+				Constructor<?> valueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class,
+						List.class);
+				Class<?> labelClass = loader.loadClass("jdk.jfr.Label"); //$NON-NLS-1$
+
+				List<Object> annotations = new ArrayList<>();
+				annotations.add(annotationElement.newInstance(loader.loadClass("jdk.jfr.Name"), //$NON-NLS-1$
+						"org.sf.feeling.decompiler.DecompilePhase")); //$NON-NLS-1$
+				annotations.add(annotationElement.newInstance(labelClass, "Decompile Phase")); //$NON-NLS-1$
+				annotations.add(annotationElement.newInstance(loader.loadClass("jdk.jfr.Category"), //$NON-NLS-1$
+						new String[] { "Enhanced Class Decompiler" })); //$NON-NLS-1$
+
+				List<Object> fields = new ArrayList<>();
+				for (String[] field : new String[][] { { "phase", "Phase" }, //$NON-NLS-1$ //$NON-NLS-2$
+						{ "decompiler", "Decompiler" }, //$NON-NLS-1$ //$NON-NLS-2$
+						{ "library", "Library" } }) { //$NON-NLS-1$ //$NON-NLS-2$
+					fields.add(valueDescriptor.newInstance(String.class, field[0],
+							Collections.singletonList(annotationElement.newInstance(labelClass, field[1]))));
+				}
+
+				Class<?> factoryClass = loader.loadClass("jdk.jfr.EventFactory"); //$NON-NLS-1$
+				Object eventFactory = factoryClass.getMethod("create", List.class, List.class) //$NON-NLS-1$
+						.invoke(null, annotations, fields);
+				Class<?> eventClass = loader.loadClass("jdk.jfr.Event"); //$NON-NLS-1$
+				eventType = factoryClass.getMethod("getEventType").invoke(eventFactory); //$NON-NLS-1$
+				isEnabled = eventType.getClass().getMethod("isEnabled"); //$NON-NLS-1$
+				newEvent = factoryClass.getMethod("newEvent"); //$NON-NLS-1$
+				begin = eventClass.getMethod("begin"); //$NON-NLS-1$
+				end = eventClass.getMethod("end"); //$NON-NLS-1$
+				set = eventClass.getMethod("set", int.class, Object.class); //$NON-NLS-1$
+				commit = eventClass.getMethod("commit"); //$NON-NLS-1$
+				factory = eventFactory;
+			} catch (Exception | LinkageError e) {
+				// no Flight Recorder
+				factory = null;
+			}
+		}
+
+		/**
+		 * @return the started event, or <code>null</code> if no recording
+		 *         includes it
+		 */
+		static Object begin() {
+			if (factory == null) {
+				return null;
+			}
+			try {
+				if (!((Boolean) isEnabled.invoke(eventType)).booleanValue()) {
+					return null;
+				}
+				Object event = newEvent.invoke(factory);
+				begin.invoke(event);
+				return event;
+			} catch (Exception e) {
+				Logger.debug(e);
+				return null;
+			}
+		}
+
+		static void commit(Object event, Phase phase, String decompilerType, String library) {
+			if (event == null) {
+				return;
+			}
+			try {
+				end.invoke(event);
+				set.invoke(event, 0, phase.name());
+				set.invoke(event, 1, decompilerType);
+				set.invoke(event, 2, library);
+				commit.invoke(event);
+			} catch (Exception e) {
+				Logger.debug(e);
+			}
+		}
+	}
+}
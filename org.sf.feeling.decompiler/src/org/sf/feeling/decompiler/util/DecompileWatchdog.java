@@ -0,0 +1,584 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jdt.core.compiler.IProblem;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.sf.feeling.decompiler.JavaDecompilerPlugin;
+import org.sf.feeling.decompiler.editor.DecompilationResult;
+import org.sf.feeling.decompiler.editor.DecompilerType;
+import org.sf.feeling.decompiler.editor.IDecompiler;
+import org.sf.feeling.decompiler.editor.IDecompilerDescriptor;
+import org.sf.feeling.decompiler.fernflower.FernFlowerDecompiler;
+
+/**
+ * Supervises decompiler invocations. Every invocation runs on its own thread
+ * and is given a wall clock and an allocation budget; a decompiler exceeding
+ * them is interrupted, and abandoned if it does not react, and the next
+ * decompiler is tried. Class and decompiler pairs which failed this way are
+ * remembered by the hash of the class bytes and not tried again, failures
+ * which exceeded a budget only for a while.
+ * <p>
+ * Optionally all decompilers are raced against each other and the first
+ * acceptable result wins.
+ */
+public class DecompileWatchdog {
+
+	/**
+	 * A decompiler invocation.
+	 */
+	public interface Task {
+
+		DecompilationResult decompile(IDecompiler decompiler) throws Exception;
+	}
+
+	/**
+	 * Outcome of a parallel decompilation.
+	 */
+	public static class RaceReport {
+
+		private final String winner;
+		private final Map<String, Long> times;
+		private final List<String> cancelled;
+
+		RaceReport(String winner, Map<String, Long> times, List<String> cancelled) {
+			this.winner = winner;
+			this.times = Collections.unmodifiableMap(times);
+			this.cancelled = Collections.unmodifiableList(cancelled);
+		}
+
+		/**
+		 * @return the type of the decompiler whose result was taken, or
+		 *         <code>null</code> if no result passed the quality gate
+		 */
+		public String getWinner() {
+			return winner;
+		}
+
+		/**
+		 * @return the milliseconds the decompiler ran until it finished or was
+		 *         cancelled, or -1 if it did not take part
+		 */
+		public long getTime(String decompilerType) {
+			Long time = times.get(decompilerType);
+			return time == null ? -1 : time;
+		}
+
+		public boolean isCancelled(String decompilerType) {
+			return cancelled.contains(decompilerType);
+		}
+	}
+
+	private static final long POLL_INTERVAL_MILLIS = 100;
+
+	/**
+	 * Time given to an interrupted decompiler to finish before it is abandoned.
+	 */
+	private static final long INTERRUPT_GRACE_MILLIS = 1000;
+
+	/**
+	 * Comments the decompilers put in place of code they failed to decompile.
+	 */
+	private static final String[] ERROR_MARKERS = { "$FF: Couldn't be decompiled", //$NON-NLS-1$
+			"This method has failed to decompile", //$NON-NLS-1$
+			"Exception decompiling", //$NON-NLS-1$
+			"This method could not be decompiled", //$NON-NLS-1$
+			"// Byte code:" //$NON-NLS-1$
+	};
+
+	private static final int MAX_RACE_REPORTS = 64;
+
+	private static final int MAX_FAILURES = 1024;
+
+	/**
+	 * Time a class and decompiler pair which exceeded a budget is not tried
+	 * again, a later attempt may succeed on a less loaded machine.
+	 */
+	private static final long BUDGET_FAILURE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	private static final Map<String, RaceReport> raceReports = new LinkedHashMap<String, RaceReport>(16, 0.75f,
+			true) {
+
+		private static final long serialVersionUID = -1736150591585932452L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, RaceReport> eldest) {
+			return size() > MAX_RACE_REPORTS;
+		}
+	};
+
+	/**
+	 * Failed class and decompiler pairs, with the time until they are not tried
+	 * again.
+	 */
+	private static final Map<String, Long> failures = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 5094512391880329117L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > MAX_FAILURES;
+		}
+	};
+
+	/**
+	 * Decompilers whose thread was abandoned, they must not be used while the
+	 * thread is still running since it may hold the locks of their archive
+	 * state.
+	 */
+	private static final Map<IDecompiler, Thread> abandoned = Collections
+			.synchronizedMap(new WeakHashMap<IDecompiler, Thread>());
+
+	/**
+	 * Runs the task with the given decompiler and falls back to the other
+	 * registered decompilers supporting the class level if it fails, i.e. throws,
+	 * exceeds a budget or returns no source. If parallel decompilation is enabled
+	 * all of them are started at once instead, see
+	 * {@link #race(String, String, List, Task, Collection, long)}.
+	 *
+	 * @param classKey   identifies the class, e.g. its location
+	 * @param classHash  hash of the class bytes, failures are remembered by it,
+	 *                   or <code>null</code> if the bytes are not available
+	 * @param classLevel class file level as returned by
+	 *                   {@link ClassUtil#getLevel(java.io.InputStream)}
+	 * @param decompiler the decompiler to try first
+	 * @return the first result with source, or an empty result of the last
+	 *         decompiler tried
+	 */
+	public static DecompilationResult decompile(String classKey, String classHash, int classLevel,
+			IDecompiler decompiler, Task task, Collection<Exception> exceptions) {
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		return decompile(classKey, classHash, classLevel, decompiler, task, exceptions,
+				TimeUnit.SECONDS.toMillis(prefs.getInt(JavaDecompilerPlugin.DECOMPILE_TIMEOUT)));
+	}
+
+	/**
+	 * Like {@link #decompile(String, String, int, IDecompiler, Task, Collection)},
+	 * but with the given time limit instead of the one from the preferences.
+	 * 
+	 * @param timeoutMillis time limit of every decompiler tried, no limit if not
+	 *                      positive
+	 */
+	public static DecompilationResult decompile(String classKey, String classHash, int classLevel,
+			IDecompiler decompiler, Task task, Collection<Exception> exceptions, long timeoutMillis) {
+		List<IDecompiler> candidates = new ArrayList<>();
+		for (IDecompiler candidate : getCandidates(decompiler, classLevel)) {
+			// the selected decompiler is tried even if an abandoned thread still
+			// runs it, e.g. the loser of an earlier race; the time limit stops it
+			// if it waits for that thread
+			if (!hasFailed(classHash, candidate.getDecompilerType())
+					&& (candidate == decompiler || !isBusy(candidate))) {
+				candidates.add(candidate);
+			}
+		}
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		if (candidates.size() > 1 && prefs.getBoolean(JavaDecompilerPlugin.PARALLEL_DECOMPILE)) {
+			return race(classKey, classHash, candidates, task, exceptions, timeoutMillis);
+		}
+
+		DecompilationResult result = DecompilationResult.empty(decompiler.getDecompilerType(), 0, null);
+		for (IDecompiler candidate : candidates) {
+			try {
+				result = run(candidate, task, timeoutMillis);
+				if (!result.isEmpty()) {
+					return result;
+				}
+			} catch (InterruptedException e) {
+				// cancelled, e.g. the editor waiting for the source was closed, so
+				// the other decompilers are not tried
+				recordFailure(classKey, classHash, candidate, e, exceptions);
+				Thread.currentThread().interrupt();
+				return DecompilationResult.empty(candidate.getDecompilerType(), 0, null);
+			} catch (Exception e) {
+				recordFailure(classKey, classHash, candidate, e, exceptions);
+				result = DecompilationResult.empty(candidate.getDecompilerType(), 0, null);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Runs the task with all candidates concurrently and takes the first result
+	 * passing {@link #isAcceptable(String)}, the remaining decompilers are
+	 * interrupted. If no result is acceptable, the first one finished is used.
+	 * The calling thread supervises the budgets of all candidates, so that a race
+	 * needs no threads besides the decompiler threads.
+	 */
+	private static DecompilationResult race(String classKey, String classHash, List<IDecompiler> candidates,
+			Task task, Collection<Exception> exceptions, long timeoutMillis) {
+		long maxAllocation = getMaxAllocation();
+		BlockingQueue<Invocation> finished = new LinkedBlockingQueue<>();
+		List<Invocation> running = new ArrayList<>();
+		for (IDecompiler candidate : candidates) {
+			Invocation invocation = new Invocation(candidate, task, finished);
+			invocation.start();
+			running.add(invocation);
+		}
+
+		long start = System.currentTimeMillis();
+		Map<String, Long> times = new LinkedHashMap<>();
+		DecompilationResult winner = null;
+		DecompilationResult fallback = null;
+		try {
+			while (!running.isEmpty() && winner == null) {
+				Invocation invocation = finished.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				if (invocation != null && running.remove(invocation)) {
+					times.put(invocation.decompiler.getDecompilerType(), System.currentTimeMillis() - start);
+					try {
+						DecompilationResult result = invocation.getResult();
+						if (isAcceptable(result.getSource())) {
+							winner = result;
+						} else if (fallback == null && !result.isEmpty()) {
+							fallback = result;
+						}
+					} catch (Exception e) {
+						recordFailure(classKey, classHash, invocation.decompiler, e, exceptions);
+					}
+				}
+				for (Iterator<Invocation> it = running.iterator(); it.hasNext();) {
+					Invocation candidate = it.next();
+					String exceeded = candidate.getExceededBudget(timeoutMillis, maxAllocation);
+					if (exceeded != null && candidate.isAlive()) {
+						it.remove();
+						times.put(candidate.decompiler.getDecompilerType(), System.currentTimeMillis() - start);
+						cancel(candidate);
+						recordFailure(classKey, classHash, candidate.decompiler, new TimeoutException(exceeded),
+								exceptions);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		List<String> cancelled = new ArrayList<>();
+		for (Invocation invocation : running) {
+			cancel(invocation);
+			times.put(invocation.decompiler.getDecompilerType(), System.currentTimeMillis() - start);
+			cancelled.add(invocation.decompiler.getDecompilerType());
+		}
+
+		DecompilationResult result = winner != null ? winner : fallback;
+		if (result == null) {
+			result = DecompilationResult.empty(candidates.get(candidates.size() - 1).getDecompilerType(), 0, null);
+		}
+		synchronized (raceReports) {
+			raceReports.put(classKey, new RaceReport(winner == null ? null : winner.getDecompilerType(), times,
+					cancelled));
+		}
+		return result;
+	}
+
+	private static void recordFailure(String classKey, String classHash, IDecompiler decompiler, Exception e,
+			Collection<Exception> exceptions) {
+		exceptions.add(e);
+		if (classHash == null || e instanceof InterruptedException) {
+			// cancelled decompilations are not remembered
+			Logger.debug("Decompiling " + classKey + " with " //$NON-NLS-1$ //$NON-NLS-2$
+					+ decompiler.getDecompilerType() + " failed.", e); //$NON-NLS-1$
+			return;
+		}
+		boolean budget = e instanceof TimeoutException;
+		long until = budget ? System.currentTimeMillis() + BUDGET_FAILURE_MILLIS : Long.MAX_VALUE;
+		synchronized (failures) {
+			failures.put(classHash + '|' + decompiler.getDecompilerType(), until);
+		}
+		Logger.debug("Decompiling " + classKey + " with " + decompiler.getDecompilerType() //$NON-NLS-1$ //$NON-NLS-2$
+				+ (budget ? " exceeded a budget, the class will not be decompiled with it for a while." //$NON-NLS-1$
+						: " failed, the class will not be decompiled with it again."), //$NON-NLS-1$
+				e);
+	}
+
+	/**
+	 * Quality gate of the parallel decompilation: the source must not contain
+	 * the failure markers of the decompilers and must parse without syntax
+	 * errors.
+	 */
+	public static boolean isAcceptable(String source) {
+		if (source == null || source.trim().length() == 0) {
+			return false;
+		}
+		for (String marker : ERROR_MARKERS) {
+			if (source.contains(marker)) {
+				return false;
+			}
+		}
+
+		ASTParser parser = ASTParser.newParser(DecompilerOutputUtil.getMaxJSLLevel());
+		parser.setCompilerOptions(DecompilerOutputUtil.getParserOptions());
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setSource(source.toCharArray());
+		CompilationUnit unit = (CompilationUnit) parser.createAST(null);
+		for (IProblem problem : unit.getProblems()) {
+			if (problem.isError()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the outcome of the last parallel decompilation of the class or
+	 *         <code>null</code>
+	 */
+	public static RaceReport getRaceReport(String classKey) {
+		synchronized (raceReports) {
+			return raceReports.get(classKey);
+		}
+	}
+
+	/**
+	 * @param classHash hash of the class bytes, see
+	 *                  {@link #decompile(String, String, int, IDecompiler, Task, Collection)}
+	 * @return <code>true</code> if the class failed with the decompiler before
+	 */
+	public static boolean hasFailed(String classHash, String decompilerType) {
+		if (classHash == null) {
+			return false;
+		}
+		String key = classHash + '|' + decompilerType;
+		synchronized (failures) {
+			Long until = failures.get(key);
+			if (until != null && until < System.currentTimeMillis()) {
+				failures.remove(key);
+				return false;
+			}
+			return until != null;
+		}
+	}
+
+	/**
+	 * Forgets the failures, e.g. when the budgets were changed.
+	 */
+	public static void clearFailures() {
+		synchronized (failures) {
+			failures.clear();
+		}
+	}
+
+	private static List<IDecompiler> getCandidates(IDecompiler decompiler, int classLevel) {
+		List<IDecompiler> candidates = new ArrayList<>();
+		candidates.add(decompiler);
+
+		List<String> types = new ArrayList<>();
+		types.add(decompiler.getDecompilerType());
+		boolean debug = ClassUtil.isDebug();
+		for (IDecompilerDescriptor descriptor : JavaDecompilerPlugin.getDefault().getDecompilerDescriptorMap()
+				.values()) {
+			if (!descriptor.isEnabled()) {
+				continue;
+			}
+			IDecompiler fallback = descriptor.getDecompiler();
+			boolean supported = debug ? fallback.supportDebugLevel(classLevel) : fallback.supportLevel(classLevel);
+			if (!types.contains(fallback.getDecompilerType()) && supported) {
+				types.add(fallback.getDecompilerType());
+				candidates.add(fallback);
+			}
+		}
+		if (!types.contains(DecompilerType.FernFlower)) {
+			candidates.add(new FernFlowerDecompiler());
+		}
+		return candidates;
+	}
+
+	private static boolean isBusy(IDecompiler decompiler) {
+		Thread thread = abandoned.get(decompiler);
+		if (thread != null && !thread.isAlive()) {
+			abandoned.remove(decompiler);
+			return false;
+		}
+		return thread != null;
+	}
+
+	private static DecompilationResult run(IDecompiler decompiler, Task task, long timeoutMillis) throws Exception {
+		long maxAllocation = getMaxAllocation();
+		Invocation invocation = new Invocation(decompiler, task, null);
+		invocation.start();
+		try {
+			while (invocation.isAlive()) {
+				invocation.join(POLL_INTERVAL_MILLIS);
+				String exceeded = invocation.getExceededBudget(timeoutMillis, maxAllocation);
+				if (exceeded != null && invocation.isAlive()) {
+					stop(decompiler, invocation);
+					throw new TimeoutException(exceeded);
+				}
+			}
+		} catch (InterruptedException e) {
+			// cancelled, e.g. the editor waiting for the source was closed
+			stop(decompiler, invocation);
+			throw e;
+		}
+		return invocation.getResult();
+	}
+
+	private static long getMaxAllocation() {
+		IPreferenceStore prefs = JavaDecompilerPlugin.getDefault().getPreferenceStore();
+		return prefs.getInt(JavaDecompilerPlugin.DECOMPILE_MEMORY_LIMIT) * 1024L * 1024L;
+	}
+
+	/**
+	 * Interrupts the decompiler thread and abandons it if it does not finish
+	 * within the grace period.
+	 */
+	private static void stop(IDecompiler decompiler, Thread thread) {
+		thread.interrupt();
+		try {
+			thread.join(INTERRUPT_GRACE_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (thread.isAlive()) {
+			abandoned.put(decompiler, thread);
+		}
+	}
+
+	/**
+	 * Interrupts the loser of a race without waiting for it, it is abandoned
+	 * until it finishes so that the winner is not delayed.
+	 */
+	private static void cancel(Invocation invocation) {
+		invocation.interrupt();
+		if (invocation.isAlive()) {
+			abandoned.put(invocation.decompiler, invocation);
+		}
+	}
+
+	/**
+	 * @return the bytes allocated by the thread, or -1 if the JVM does not track
+	 *         allocations
+	 */
+	private static long getAllocatedBytes(Thread thread) {
+		if (AllocationCounter.METHOD == null) {
+			return -1;
+		}
+		try {
+			return (Long) AllocationCounter.METHOD.invoke(AllocationCounter.BEAN, thread.getId());
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * A decompiler invocation on its own thread, which can be abandoned if the
+	 * decompiler does not react to interrupts.
+	 */
+	private static class Invocation extends Thread {
+
+		final IDecompiler decompiler;
+
+		private final Task task;
+
+		/**
+		 * Receives the invocation once it finished, may be <code>null</code>
+		 */
+		private final BlockingQueue<Invocation> finished;
+
+		private final long start = System.currentTimeMillis();
+
+		private DecompilationResult result;
+
+		private Exception error;
+
+		private Throwable fatal;
+
+		Invocation(IDecompiler decompiler, Task task, BlockingQueue<Invocation> finished) {
+			super("Decompiler " + decompiler.getDecompilerType()); //$NON-NLS-1$
+			this.decompiler = decompiler;
+			this.task = task;
+			this.finished = finished;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				result = task.decompile(decompiler);
+			} catch (Exception e) {
+				error = e;
+			} catch (StackOverflowError | OutOfMemoryError e) {
+				fatal = e;
+			} finally {
+				if (finished != null) {
+					finished.add(this);
+				}
+			}
+		}
+
+		/**
+		 * @return the budget the invocation exceeded, or <code>null</code>
+		 */
+		String getExceededBudget(long timeoutMillis, long maxAllocation) {
+			if (timeoutMillis > 0 && System.currentTimeMillis() - start > timeoutMillis) {
+				return "Decompilation exceeded the time limit of " + timeoutMillis + " ms"; //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (maxAllocation > 0 && getAllocatedBytes(this) > maxAllocation) {
+				return "Decompilation exceeded the allocation limit of " + maxAllocation + " bytes"; //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			return null;
+		}
+
+		/**
+		 * Must only be called once the invocation finished.
+		 */
+		DecompilationResult getResult() throws Exception {
+			if (error != null) {
+				throw error;
+			}
+			if (fatal != null) {
+				throw new Exception(fatal);
+			}
+			return result != null ? result : DecompilationResult.empty(decompiler.getDecompilerType(), 0, null);
+		}
+	}
+
+	/**
+	 * Looks up the allocation counter once instead of on every poll.
+	 */
+	private static class AllocationCounter {
+
+		static final ThreadMXBean BEAN = ManagementFactory.getThreadMXBean();
+
+		/**
+		 * <code>null</code> if the JVM does not track allocations
+		 */
+		static final Method METHOD = getMethod();
+
+		private static Method getMethod() {
+			try {
+				// com.sun.management.ThreadMXBean is not available on every JVM
+				Class<?> type = Class.forName("com.sun.management.ThreadMXBean", false, //$NON-NLS-1$
+						ClassLoader.getSystemClassLoader());
+				if (type.isInstance(BEAN)) {
+					return type.getMethod("getThreadAllocatedBytes", long.class); //$NON-NLS-1$
+				}
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				// not supported
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Two tier cache of decompiled sources: a small in-memory LRU map in front of
+ * a directory which survives restarts. Entries are addressed by a key which
+ * is derived from everything the source depends on, so they never have to be
+ * invalidated, only evicted.
+ * <p>
+ * Every file starts with a header line holding the SHA-1 of the source, files
+ * which do not match their header are treated as missing and deleted.
+ */
+public class DecompiledSourceCache {
+
+	private static final String HEADER = "ECD-SOURCE-1 "; //$NON-NLS-1$
+	private static final String FILE_EXTENSION = ".src"; //$NON-NLS-1$
+
+	private final File directory;
+	private final long maxMemorySize;
+	private final long maxDiskSize;
+
+	private final LinkedHashMap<String, String> memory = new LinkedHashMap<>(16, 0.75f, true);
+	private long memorySize;
+
+	private final Object diskLock = new Object();
+	private long diskSize = -1;
+
+	/**
+	 * @param directory     directory of the disk store, created on demand
+	 * @param maxMemorySize maximum number of characters held in memory
+	 * @param maxDiskSize   maximum number of bytes held on disk
+	 */
+	public DecompiledSourceCache(File directory, long maxMemorySize, long maxDiskSize) {
+		this.directory = directory;
+		this.maxMemorySize = maxMemorySize;
+		this.maxDiskSize = maxDiskSize;
+	}
+
+	/**
+	 * Builds a cache key from the hashes of the class and its inner classes, the
+	 * decompiler and the options influencing the output.
+	 */
+	public static String createKey(String classHash, String innerClassesHash, String decompilerType,
+			String decompilerVersion, String optionsFingerprint) {
+		return DigestUtils.sha1Hex(classHash + '|' + innerClassesHash + '|' + decompilerType + '|' + decompilerVersion
+				+ '|' + optionsFingerprint);
+	}
+
+	/**
+	 * @return the cached source or <code>null</code>
+	 */
+	public String get(String key) {
+		synchronized (memory) {
+			String source = memory.get(key);
+			if (source != null) {
+				return source;
+			}
+		}
+
+		String source = readFile(key);
+		if (source != null) {
+			putInMemory(key, source);
+		}
+		return source;
+	}
+
+	public void put(String key, String source) {
+		putInMemory(key, source);
+		writeFile(key, source);
+	}
+
+	/**
+	 * Removes all entries from memory and disk.
+	 */
+	public void clear() {
+		synchronized (memory) {
+			memory.clear();
+			memorySize = 0;
+		}
+		synchronized (diskLock) {
+			File[] files = directory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			diskSize = 0;
+		}
+	}
+
+	private void putInMemory(String key, String source) {
+		if (source.length() > maxMemorySize) {
+			return;
+		}
+		synchronized (memory) {
+			String previous = memory.put(key, source);
+			if (previous != null) {
+				memorySize -= previous.length();
+			}
+			memorySize += source.length();
+
+			Iterator<String> iterator = memory.values().iterator();
+			while (memorySize > maxMemorySize && iterator.hasNext()) {
+				memorySize -= iterator.next().length();
+				iterator.remove();
+			}
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(directory, key + FILE_EXTENSION);
+	}
+
+	private String readFile(String key) {
+		File file = getFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			int index = content.indexOf('\n');
+			if (index != -1 && content.startsWith(HEADER)) {
+				String source = content.substring(index + 1);
+				if (content.substring(HEADER.length(), index).equals(DigestUtils.sha1Hex(source))) {
+					// the modification time is the LRU order of the disk store
+					file.setLastModified(System.currentTimeMillis());
+					return source;
+				}
+			}
+			Logger.debug("Discarding corrupted cache entry " + file, null); //$NON-NLS-1$
+		} catch (IOException e) {
+			Logger.debug(e);
+		}
+		deleteFile(file);
+		return null;
+	}
+
+	private void writeFile(String key, String source) {
+		File file = getFile(key);
+		File tempFile = new File(directory, key + '.' + Thread.currentThread().getId() + ".tmp"); //$NON-NLS-1$
+		try {
+			directory.mkdirs();
+			byte[] content = (HEADER + DigestUtils.sha1Hex(source) + '\n' + source).getBytes(StandardCharsets.UTF_8);
+			Files.write(tempFile.toPath(), content);
+			long previousSize = file.length();
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			addDiskSize(content.length - previousSize);
+		} catch (IOException e) {
+			Logger.debug(e);
+			tempFile.delete();
+		}
+	}
+
+	private void deleteFile(File file) {
+		long size = file.length();
+		if (file.delete()) {
+			addDiskSize(-size);
+		}
+	}
+
+	/**
+	 * Tracks the size of the disk store and evicts the least recently used files
+	 * down to three quarters of the maximum size once it is exceeded.
+	 */
+	private void addDiskSize(long delta) {
+		synchronized (diskLock) {
+			if (diskSize < 0) {
+				diskSize = FileUtil.sizeOfDirectory(directory);
+			} else {
+				diskSize += delta;
+			}
+			if (diskSize <= maxDiskSize) {
+				return;
+			}
+
+			File[] files = directory.listFiles();
+			if (files == null) {
+				return;
+			}
+			final Map<File, Long> lastModified = new LinkedHashMap<>();
+			for (File file : files) {
+				lastModified.put(file, file.lastModified());
+			}
+			Arrays.sort(files, new Comparator<File>() {
+
+				@Override
+				public int compare(File f1, File f2) {
+					return Long.compare(lastModified.get(f1), lastModified.get(f2));
+				}
+			});
+			long target = maxDiskSize / 4 * 3;
+			diskSize = FileUtil.sizeOfDirectory(directory);
+			for (int i = 0; i < files.length && diskSize > target; i++) {
+				long size = files[i].length();
+				if (files[i].getName().endsWith(FILE_EXTENSION) && files[i].delete()) {
+					diskSize -= size;
+				}
+			}
+		}
+	}
+}
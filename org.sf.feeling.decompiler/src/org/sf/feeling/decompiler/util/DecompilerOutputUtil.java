@@ -9,6 +9,7 @@
 package org.sf.feeling.decompiler.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -27,6 +28,7 @@ import org.eclipse.jdt.core.dom.Initializer;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 import org.eclipse.jdt.core.dom.TypeDeclaration;
 import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
+import org.sf.feeling.decompiler.editor.DecompilationResult;
 import org.sf.feeling.decompiler.editor.DecompilerType;
 
 public class DecompilerOutputUtil {
@@ -56,7 +58,40 @@ public class DecompilerOutputUtil {
 	public final static String line_separator = System.getProperty("line.separator", //$NON-NLS-1$
 			"\r\n"); //$NON-NLS-1$
 
-	private String decompilerType;
+	/**
+	 * Line number comment like <code>/* 12 *&#47;</code>.
+	 */
+	private static final Pattern LINE_NUMBER = Pattern.compile("/\\*\\s*(\\d+)\\s*\\*/"); //$NON-NLS-1$
+
+	/**
+	 * Line number comment of FernFlower like <code>// 12</code>.
+	 */
+	private static final Pattern FERNFLOWER_LINE_NUMBER = Pattern.compile("//\\s+(\\d+)"); //$NON-NLS-1$
+
+	/**
+	 * Line number comment of FernFlower with the numbers of the other statements
+	 * of the line, like <code>// 12 13</code>.
+	 */
+	private static final Pattern FERNFLOWER_LINE_NUMBERS = Pattern.compile("//\\s+\\d+[\\s\\d]*"); //$NON-NLS-1$
+
+	private static final Pattern EMPTY_LINE_NUMBER = Pattern.compile("/\\*\\s+\\*/"); //$NON-NLS-1$
+
+	private static final Pattern IMPORT_INDENT = Pattern.compile("([ ]+)import", Pattern.CASE_INSENSITIVE); //$NON-NLS-1$
+
+	private static Map<String, String> parserOptions;
+
+	private final boolean fernFlower;
+
+	private final Matcher lineNumberMatcher;
+
+	private final Matcher emptyLineNumberMatcher = EMPTY_LINE_NUMBER.matcher(""); //$NON-NLS-1$
+
+	/**
+	 * Per line of the input the original line number from the line mapping of
+	 * the decompiler, <code>null</code> if the line numbers are parsed from the
+	 * comments in the input.
+	 */
+	private final int[] originalLines;
 
 	private class InputLine {
 
@@ -81,8 +116,21 @@ public class DecompilerOutputUtil {
 	}
 
 	public DecompilerOutputUtil(String decompilerType, String input) {
+		this(decompilerType, input, null);
+	}
+
+	/**
+	 * @param lineMapping pairs of original and decompiled line number as
+	 *                    reported by the decompiler, see
+	 *                    {@link DecompilationResult#getLineMapping()}; if
+	 *                    <code>null</code> the line numbers are parsed from the
+	 *                    line number comments in the input
+	 */
+	public DecompilerOutputUtil(String decompilerType, String input, int[] lineMapping) {
 		this.input = input + line_separator;
-		this.decompilerType = decompilerType;
+		this.fernFlower = DecompilerType.FernFlower.equals(decompilerType);
+		this.lineNumberMatcher = (fernFlower ? FERNFLOWER_LINE_NUMBERS : LINE_NUMBER).matcher(""); //$NON-NLS-1$
+		this.originalLines = LineMappingUtil.getOriginalLines(lineMapping);
 	}
 
 	public String realign() {
@@ -95,14 +143,12 @@ public class DecompilerOutputUtil {
 		// Compute the string offset of every source line
 		fillOutputList();
 
-		// Parse source code into AST
+		// Parse source code into AST, only the positions of the members are
+		// needed
 		javaSrcLines.add(null);
-		ASTParser parser = ASTParser.newParser(DecompilerOutputUtil.getMaxJSLLevel()); // AST.JLS3
-		CompilerOptions option = new CompilerOptions();
-		Map<String, String> options = option.getMap();
-		options.put(CompilerOptions.OPTION_Compliance, DecompilerOutputUtil.getMaxDecompileLevel()); // $NON-NLS-1$
-		options.put(CompilerOptions.OPTION_Source, DecompilerOutputUtil.getMaxDecompileLevel()); // $NON-NLS-1$
-		parser.setCompilerOptions(options);
+		ASTParser parser = ASTParser.newParser(DecompilerOutputUtil.getMaxJSLLevel());
+		parser.setCompilerOptions(getParserOptions());
+		parser.setIgnoreMethodBodies(true);
 
 		parser.setSource(input.toCharArray());
 
@@ -186,35 +232,18 @@ public class DecompilerOutputUtil {
 	public String toString() {
 		String line;
 		int numLine;
-		StringBuffer realignOutput = new StringBuffer();
 
 		int lineNumberWidth = String.valueOf(javaSrcLines.size()).length();
+		StringBuilder realignOutput = new StringBuilder(
+				input.length() + javaSrcLines.size() * (lineNumberWidth + 6 + line_separator.length()));
 
-		boolean generateEmptyString = true;
+		boolean generateEmptyString = !EMPTY_LINE_NUMBER.matcher(input).find();
 		int leftTrimSpace = 0;
 
-		Pattern pattern = Pattern.compile("/\\*\\s+\\*/", //$NON-NLS-1$
-				Pattern.CASE_INSENSITIVE);
-		Matcher matcher = pattern.matcher(input);
+		Matcher matcher = IMPORT_INDENT.matcher(input);
 		if (matcher.find()) {
-			generateEmptyString = false;
-
-			pattern = Pattern.compile("([ ]+)import", //$NON-NLS-1$
-					Pattern.CASE_INSENSITIVE);
-			matcher = pattern.matcher(input);
-			if (matcher.find()) {
-				leftTrimSpace = matcher.group().replace("import", "") //$NON-NLS-1$ //$NON-NLS-2$
-						.length();
-			}
-		} else {
-			pattern = Pattern.compile("([ ]+)import", //$NON-NLS-1$
-					Pattern.CASE_INSENSITIVE);
-			matcher = pattern.matcher(input);
-			if (matcher.find()) {
-				leftTrimSpace = matcher.group().replace("import", "") //$NON-NLS-1$ //$NON-NLS-2$
-						.length();
-				generateEmptyString = true;
-			}
+			leftTrimSpace = matcher.group().replace("import", "") //$NON-NLS-1$ //$NON-NLS-2$
+					.length();
 		}
 
 		int lastBracketIndex = input.lastIndexOf('}');
@@ -225,6 +254,7 @@ public class DecompilerOutputUtil {
 				leftTrimSpace += trimSpace - 4;
 			}
 		}
+		String leftTrimString = generageEmptyString(leftTrimSpace);
 
 		for (int i = 1; i < javaSrcLines.size(); i++) {
 			JavaSrcLine javaSrcLine = initJavaSrcListItem(i);
@@ -234,49 +264,51 @@ public class DecompilerOutputUtil {
 
 				if (outputLineNumber != -1) {
 					List<Integer> beforeLines = getBeforeLines(javaSrcLine);
-					if (beforeLines != null && !beforeLines.isEmpty()) {
-
-						int index = realignOutput.lastIndexOf(line_separator);
-						if (index == realignOutput.length() - line_separator.length()) {
-							realignOutput.replace(index, index + line_separator.length(), ""); //$NON-NLS-1$
-
-							for (int j = 0; j < beforeLines.size(); j++) {
-								numLine = beforeLines.get(j);
-								line = inputLines.get(numLine).line;
-								line = removeJavaLineNumber(line.replace("\r\n", "\n") //$NON-NLS-1$ //$NON-NLS-2$
-										.replace("\n", ""), //$NON-NLS-1$ //$NON-NLS-2$
-										j == 0 && generateEmptyString, leftTrimSpace);
-								realignOutput.append(line);
-							}
+					if (beforeLines != null && !beforeLines.isEmpty() && endsWithLineSeparator(realignOutput)) {
+						realignOutput.setLength(realignOutput.length() - line_separator.length());
+
+						for (int j = 0; j < beforeLines.size(); j++) {
+							numLine = beforeLines.get(j);
+							line = inputLines.get(numLine).line;
+							line = removeJavaLineNumber(line, j == 0 && generateEmptyString, leftTrimString);
+							realignOutput.append(line);
+						}
 
-							realignOutput.append(line_separator);
+						realignOutput.append(line_separator);
 
-							javaSrcLine.inputLines.removeAll(beforeLines);
-						}
+						javaSrcLine.inputLines.removeAll(beforeLines);
 					}
 				}
 
-				if (i > 0) {
-					realignOutput.append("/* " //$NON-NLS-1$
-							+ getLineNumber(outputLineNumber, lineNumberWidth) + " */ "); //$NON-NLS-1$
-				}
+				appendLineNumber(realignOutput, outputLineNumber, lineNumberWidth);
 
 				for (int j = 0; j < javaSrcLine.inputLines.size(); j++) {
 					numLine = javaSrcLine.inputLines.get(j);
 					line = inputLines.get(numLine).line;
-					line = removeJavaLineNumber(line.replace("\r\n", "\n").replace("\n", ""), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-							j == 0 && generateEmptyString, leftTrimSpace);
+					line = removeJavaLineNumber(line, j == 0 && generateEmptyString, leftTrimString);
 					realignOutput.append(line);
 				}
 			} else if (i > 1) {
-				realignOutput.append("/* " //$NON-NLS-1$
-						+ getLineNumber(-1, lineNumberWidth) + " */ "); //$NON-NLS-1$
+				appendLineNumber(realignOutput, -1, lineNumberWidth);
 			}
 			realignOutput.append(line_separator);
 		}
 		return realignOutput.toString();
 	}
 
+	private static boolean endsWithLineSeparator(StringBuilder output) {
+		int start = output.length() - line_separator.length();
+		if (start < 0) {
+			return false;
+		}
+		for (int i = 0; i < line_separator.length(); i++) {
+			if (output.charAt(start + i) != line_separator.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private List<Integer> getBeforeLines(JavaSrcLine javaSrcLine) {
 		List<Integer> lineNumbers = new ArrayList<Integer>();
 		for (int i = 0; i < javaSrcLine.inputLines.size(); i++) {
@@ -314,20 +346,17 @@ public class DecompilerOutputUtil {
 		return -1;
 	}
 
-	private String getLineNumber(int i, int lineNumberWidth) {
-		String number = String.valueOf(i);
-		int width = number.length();
-		if (i == -1) {
-			width = 0;
-			number = ""; //$NON-NLS-1$
-		}
-		if (width < lineNumberWidth) {
-			for (int j = 0; j < lineNumberWidth - width; j++) {
-				number = " " + number; //$NON-NLS-1$
-			}
+	/**
+	 * Appends <code>/* 12 *&#47; </code>, the number right aligned, or an empty
+	 * comment of the same width if the line number is -1.
+	 */
+	private void appendLineNumber(StringBuilder output, int lineNumber, int lineNumberWidth) {
+		String number = lineNumber == -1 ? "" : String.valueOf(lineNumber); //$NON-NLS-1$
+		output.append("/* "); //$NON-NLS-1$
+		for (int j = number.length(); j < lineNumberWidth; j++) {
+			output.append(' ');
 		}
-
-		return number;
+		output.append(number).append(" */ "); //$NON-NLS-1$
 	}
 
 	private String generageEmptyString(int length) {
@@ -350,9 +379,16 @@ public class DecompilerOutputUtil {
 			else
 				lineEnd++;
 
-			// Build OutputLine object
+			// Build OutputLine object, without the line separator
 			InputLine outputLine = new InputLine();
-			outputLine.line = input.substring(lineStart, lineEnd);
+			int contentEnd = lineEnd;
+			if (contentEnd > lineStart && input.charAt(contentEnd - 1) == '\n') {
+				contentEnd--;
+				if (contentEnd > lineStart && input.charAt(contentEnd - 1) == '\r') {
+					contentEnd--;
+				}
+			}
+			outputLine.line = input.substring(lineStart, contentEnd);
 			inputLines.add(outputLine);
 
 			// Next line start is current line end
@@ -361,63 +397,57 @@ public class DecompilerOutputUtil {
 	}
 
 	public static int parseJavaLineNumber(String decompilerType, String line) {
-		String regex = "/\\*\\s*\\d+\\s*\\*/"; //$NON-NLS-1$
-		if (DecompilerType.FernFlower.equals(decompilerType)) {
-			regex = "//\\s+\\d+"; //$NON-NLS-1$
-		}
-		Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-		Matcher matcher = pattern.matcher(line.trim());
-		if (matcher.find()) {
-			return Integer.parseInt(matcher.group().replaceAll("[^0-9]", "")); //$NON-NLS-1$ //$NON-NLS-2$
-		}
-		return -1;
+		Pattern pattern = DecompilerType.FernFlower.equals(decompilerType) ? FERNFLOWER_LINE_NUMBER : LINE_NUMBER;
+		return parseJavaLineNumber(pattern.matcher(line));
 	}
 
 	public static int parseJavaLineNumber(String line) {
-		String regex = "/\\*\\s*\\d+\\s*\\*/"; //$NON-NLS-1$
-		Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-		Matcher matcher = pattern.matcher(line.trim());
-		if (matcher.find()) {
-			return Integer.parseInt(matcher.group().replaceAll("[^0-9]", "")); //$NON-NLS-1$ //$NON-NLS-2$
-		} else {
-			regex = "//\\s+\\d+"; //$NON-NLS-1$
+		int lineNumber = parseJavaLineNumber(LINE_NUMBER.matcher(line));
+		if (lineNumber == -1) {
+			lineNumber = parseJavaLineNumber(FERNFLOWER_LINE_NUMBER.matcher(line));
 		}
-		pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-		matcher = pattern.matcher(line.trim());
+		return lineNumber;
+	}
+
+	private static int parseJavaLineNumber(Matcher matcher) {
 		if (matcher.find()) {
-			return Integer.parseInt(matcher.group().replaceAll("[^0-9]", "")); //$NON-NLS-1$ //$NON-NLS-2$
+			try {
+				return Integer.parseInt(matcher.group(1));
+			} catch (NumberFormatException e) {
+				return -1;
+			}
 		}
 		return -1;
 	}
 
-	private String removeJavaLineNumber(String line, boolean generageEmptyString, int leftTrimSpace) {
-		String regex = "/\\*\\s*\\d+\\s*\\*/"; //$NON-NLS-1$
-		if (DecompilerType.FernFlower.equals(decompilerType)) {
-			regex = "//\\s+\\d+(\\s*\\d*)*"; //$NON-NLS-1$
+	private String removeJavaLineNumber(String line, boolean generageEmptyString, String leftTrimString) {
+		if (originalLines != null) {
+			// there are no line number comments, comments in the code stay
+			if (leftTrimString.length() > 0 && line.startsWith(leftTrimString)) {
+				line = line.substring(leftTrimString.length());
+			}
+			return line;
 		}
-		Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-		Matcher matcher = pattern.matcher(line.trim());
-
+		Matcher matcher = lineNumberMatcher.reset(line);
 		if (matcher.find()) {
-			line = line.replace(matcher.group(), ""); //$NON-NLS-1$
-			if (!DecompilerType.FernFlower.equals(decompilerType) && generageEmptyString) {
-				line = generageEmptyString(matcher.group().length()) + line;
+			String group = matcher.group();
+			line = line.replace(group, ""); //$NON-NLS-1$
+			if (!fernFlower && generageEmptyString) {
+				line = generageEmptyString(group.length()) + line;
 			}
 		}
-		if (!DecompilerType.FernFlower.equals(decompilerType)) {
-			regex = "/\\*\\s+\\*/"; //$NON-NLS-1$
-			pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-			matcher = pattern.matcher(line);
-
+		if (!fernFlower) {
+			matcher = emptyLineNumberMatcher.reset(line);
 			if (matcher.find()) {
-				line = line.replace(matcher.group(), ""); //$NON-NLS-1$
+				String group = matcher.group();
+				line = line.replace(group, ""); //$NON-NLS-1$
 				if (generageEmptyString) {
-					line = generageEmptyString(matcher.group().length()) + line;
+					line = generageEmptyString(group.length()) + line;
 				}
 			}
 		}
-		if (leftTrimSpace > 0 && line.startsWith(generageEmptyString(leftTrimSpace))) {
-			line = line.substring(leftTrimSpace);
+		if (leftTrimString.length() > 0 && line.startsWith(leftTrimString)) {
+			line = line.substring(leftTrimString.length());
 		}
 		return line;
 	}
@@ -707,9 +737,17 @@ public class DecompilerOutputUtil {
 		// Iterate over the lines in this member
 		for (int inputNumLine = inputBeginLine; inputNumLine <= inputEndLine; inputNumLine++) {
 
-			// Parse the commented line number if available
+			// Take the line number from the line mapping or parse the commented
+			// line number if available
 			InputLine inputLine = inputLines.get(inputNumLine);
-			inputLine.outputLineNum = parseJavaLineNumber(decompilerType, inputLine.line);
+			if (originalLines != null) {
+				inputLine.outputLineNum = inputNumLine < originalLines.length && originalLines[inputNumLine] > 0
+						? originalLines[inputNumLine]
+						: -1;
+			} else {
+				inputLine.outputLineNum = parseJavaLineNumber(
+						(fernFlower ? FERNFLOWER_LINE_NUMBER : LINE_NUMBER).matcher(inputLine.line));
+			}
 
 			if (inputLine.outputLineNum > 1) {
 
@@ -779,24 +817,38 @@ public class DecompilerOutputUtil {
 
 	private static int jslLevel = -1;
 
+	/**
+	 * @return the latest AST level up to the level of
+	 *         {@link #getMaxDecompileLevel()}, so that the AST can represent
+	 *         what the parser accepts
+	 */
 	public static int getMaxJSLLevel() {
 		if (jslLevel == -1) {
-			if (ReflectionUtils.getDeclaredField(AST.class, "JLS8") != null) //$NON-NLS-1$
-			{
-				jslLevel = (Integer) ReflectionUtils.getFieldValue(AST.class, "JLS8"); //$NON-NLS-1$
-			} else if (ReflectionUtils.getDeclaredField(AST.class, "JLS4") != null) //$NON-NLS-1$
-			{
-				jslLevel = (Integer) ReflectionUtils.getFieldValue(AST.class, "JLS4"); //$NON-NLS-1$
-			} else if (ReflectionUtils.getDeclaredField(AST.class, "JLS3") != null) //$NON-NLS-1$
-			{
-				jslLevel = (Integer) ReflectionUtils.getFieldValue(AST.class, "JLS3"); //$NON-NLS-1$
-			} else if (ReflectionUtils.getDeclaredField(AST.class, "JLS2") != null) //$NON-NLS-1$
-			{
-				jslLevel = (Integer) ReflectionUtils.getFieldValue(AST.class, "JLS2"); //$NON-NLS-1$
-			} else {
+			for (int v = JAVA_VERSION_MAX; v >= 2; v--) {
+				String fieldName = "JLS" + v; //$NON-NLS-1$
+				if (ReflectionUtils.getDeclaredField(AST.class, fieldName) != null) {
+					jslLevel = (Integer) ReflectionUtils.getFieldValue(AST.class, fieldName);
+					break;
+				}
+			}
+			if (jslLevel == -1) {
 				jslLevel = 3;
 			}
 		}
 		return jslLevel;
 	}
+
+	/**
+	 * @return the compiler options for parsing the output of the decompilers
+	 *         at {@link #getMaxDecompileLevel()}, the parser copies them
+	 */
+	public static synchronized Map<String, String> getParserOptions() {
+		if (parserOptions == null) {
+			Map<String, String> options = new CompilerOptions().getMap();
+			options.put(CompilerOptions.OPTION_Compliance, getMaxDecompileLevel());
+			options.put(CompilerOptions.OPTION_Source, getMaxDecompileLevel());
+			parserOptions = Collections.unmodifiableMap(options);
+		}
+		return parserOptions;
+	}
 }
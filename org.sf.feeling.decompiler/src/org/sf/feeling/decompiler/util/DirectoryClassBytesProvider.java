@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sf.feeling.decompiler.editor.IClassBytesProvider;
+
+/**
+ * Serves class bytes from a class folder, e.g. a class file opened from the
+ * file system.
+ */
+public class DirectoryClassBytesProvider implements IClassBytesProvider {
+
+	private final String root;
+
+	public DirectoryClassBytesProvider(String root) {
+		this.root = root;
+	}
+
+	@Override
+	public String getLocation() {
+		return root;
+	}
+
+	@Override
+	public byte[] getClassBytes(String packege, String className) {
+		return FileUtil.getBytes(new File(new File(root, packege), className));
+	}
+
+	@Override
+	public List<String> getInnerClassNames(String packege, String className) {
+		List<String> innerClassNames = new ArrayList<>();
+		String innerPrefix = className.substring(0, className.length() - 6) + "$"; //$NON-NLS-1$
+		String[] names = new File(root, packege).list();
+		if (names != null) {
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].startsWith(innerPrefix)) {
+					innerClassNames.add(names[i]);
+				}
+			}
+		}
+		return innerClassNames;
+	}
+}
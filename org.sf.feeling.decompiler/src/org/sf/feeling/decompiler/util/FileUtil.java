@@ -37,15 +37,8 @@ public class FileUtil {
 		try {
 			if (!file.getParentFile().exists())
 				file.getParentFile().mkdirs();
-			String encoding = null;
-			try {
-				encoding = JavaDecompilerPlugin.getDefault().getExportEncoding();
-			} catch (Exception e) {
-			}
-			if (encoding == null || encoding.trim().length() == 0) {
-				encoding = "UTF-8"; //$NON-NLS-1$
-			}
-			try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), encoding))) {
+			try (PrintWriter out = new PrintWriter(
+					new OutputStreamWriter(new FileOutputStream(file), getExportEncoding()))) {
 				out.print(string);
 			}
 		} catch (IOException e) {
@@ -53,6 +46,31 @@ public class FileUtil {
 		}
 	}
 
+	/**
+	 * Writes the string as a new entry of the zip stream, encoded like
+	 * {@link #writeToFile(File, String)}.
+	 */
+	public static void writeToZip(ZipOutputStream zos, String path, String string) throws IOException {
+		byte[] bytes = string.getBytes(getExportEncoding());
+		ZipEntry ze = new ZipEntry(path);
+		ze.setSize(bytes.length);
+		zos.putNextEntry(ze);
+		zos.write(bytes);
+		zos.closeEntry();
+	}
+
+	private static String getExportEncoding() {
+		String encoding = null;
+		try {
+			encoding = JavaDecompilerPlugin.getDefault().getExportEncoding();
+		} catch (Exception e) {
+		}
+		if (encoding == null || encoding.trim().length() == 0) {
+			encoding = "UTF-8"; //$NON-NLS-1$
+		}
+		return encoding;
+	}
+
 	public static void writeToBinarayFile(File file, InputStream source, boolean close) {
 		BufferedInputStream bis = null;
 		try {
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.util;
+
+import java.util.List;
+
+import org.sf.feeling.decompiler.editor.DecompilationResult;
+
+/**
+ * Helpers for the line mapping of a {@link DecompilationResult}, i.e. pairs of
+ * original line number and decompiled line number, the first line being 1.
+ * The decompilers have to keep the decompiled lines in step with the changes
+ * they make to their output.
+ */
+public class LineMappingUtil {
+
+	/**
+	 * Moves the decompiled lines, e.g. after lines were removed at the start of
+	 * the source. Lines moved before the first line end up on the first line.
+	 *
+	 * @param lineMapping updated in place, may be <code>null</code>
+	 */
+	public static void shift(int[] lineMapping, int lines) {
+		if (lineMapping == null || lines == 0) {
+			return;
+		}
+		for (int i = 1; i < lineMapping.length; i += 2) {
+			lineMapping[i] = Math.max(1, lineMapping[i] + lines);
+		}
+	}
+
+	/**
+	 * Moves the decompiled lines after text spanning several lines has been
+	 * removed from the source. The lines within the removed text end up on the
+	 * line the text started on.
+	 *
+	 * @param lineMapping updated in place, may be <code>null</code>
+	 * @param removed     line the removed text started on and number of line
+	 *                    breaks removed with it, in the order of the source
+	 */
+	public static void removeLines(int[] lineMapping, List<int[]> removed) {
+		if (lineMapping == null || removed.isEmpty()) {
+			return;
+		}
+		for (int i = 1; i < lineMapping.length; i += 2) {
+			int line = lineMapping[i];
+			int moved = line;
+			for (int[] lines : removed) {
+				if (lines[0] >= line) {
+					break;
+				}
+				moved -= Math.min(lines[1], line - lines[0]);
+			}
+			lineMapping[i] = moved;
+		}
+	}
+
+	/**
+	 * @return the number of line breaks in the whitespace at the start of the
+	 *         source, which {@link String#trim()} removes
+	 */
+	public static int countLeadingLines(String source) {
+		int lines = 0;
+		for (int i = 0; i < source.length() && source.charAt(i) <= ' '; i++) {
+			if (source.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * @return per decompiled line the first original line on it, 0 if there is
+	 *         none; or <code>null</code> if there is no line mapping
+	 */
+	public static int[] getOriginalLines(int[] lineMapping) {
+		if (lineMapping == null) {
+			return null;
+		}
+		int maxLine = 0;
+		for (int i = 1; i < lineMapping.length; i += 2) {
+			maxLine = Math.max(maxLine, lineMapping[i]);
+		}
+		int[] originalLines = new int[maxLine + 1];
+		for (int i = 0; i + 1 < lineMapping.length; i += 2) {
+			int originalLine = lineMapping[i];
+			int line = lineMapping[i + 1];
+			if (originalLine > 0 && line > 0 && (originalLines[line] == 0 || originalLine < originalLines[line])) {
+				originalLines[line] = originalLine;
+			}
+		}
+		return originalLines;
+	}
+}
@@ -8,170 +8,277 @@
 
 package org.sf.feeling.decompiler.util;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
+import java.text.Collator;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
-import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.IProjectDescription;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
-import org.eclipse.jdt.core.IClasspathEntry;
-import org.eclipse.jdt.core.ICompilationUnit;
-import org.eclipse.jdt.core.IJavaProject;
-import org.eclipse.jdt.core.IPackageFragment;
-import org.eclipse.jdt.core.IPackageFragmentRoot;
-import org.eclipse.jdt.core.JavaCore;
-import org.eclipse.jdt.internal.corext.codemanipulation.SortMembersOperation;
-import org.eclipse.jdt.launching.IVMInstall;
-import org.eclipse.jdt.launching.JavaRuntime;
-import org.eclipse.jdt.launching.LibraryLocation;
+import org.eclipse.jdt.core.compiler.IProblem;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.AnnotationTypeMemberDeclaration;
+import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
+import org.eclipse.jdt.core.dom.BodyDeclaration;
+import org.eclipse.jdt.core.dom.ChildListPropertyDescriptor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.Modifier;
+import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
+import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
+import org.eclipse.jdt.core.dom.rewrite.ListRewrite;
+import org.eclipse.jdt.internal.corext.util.JdtFlags;
+import org.eclipse.jdt.internal.ui.JavaPlugin;
+import org.eclipse.jdt.internal.ui.preferences.MembersOrderPreferenceCache;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.text.edits.TextEdit;
 import org.sf.feeling.decompiler.JavaDecompilerPlugin;
 
 public class SortMemberUtil {
 
-	private static IPackageFragmentRoot decompilerSourceFolder = null;
+	/**
+	 * Property holding the position of a member before sorting.
+	 */
+	private static final String RELATIVE_ORDER = "relativeOrder"; //$NON-NLS-1$
 
-	public static String sortMember(String packageName, String className, String code) {
+	/**
+	 * Sorts the members of the types like Source &gt; Sort Members with the
+	 * fields, enum constants and initializers left in their order, in the order
+	 * of the member sort order preferences of JDT. The source is parsed and
+	 * rewritten in memory, so calls may run concurrently.
+	 *
+	 * @return the sorted source, or the source if it cannot be parsed
+	 */
+	public static String sortMember(String code) {
+		return sortMember(code, JavaPlugin.getDefault().getMemberOrderPreferenceCache());
+	}
 
-		IPackageFragmentRoot sourceRootFragment = getDecompilerSourceFolder();
-		if (sourceRootFragment == null)
-			return code;
+	/**
+	 * Like {@link #sortMember(String)}, but in the given member sort order, e.g.
+	 * outside of the workbench.
+	 */
+	public static String sortMember(String code, MembersOrderPreferenceCache memberOrder) {
+		ASTParser parser = ASTParser.newParser(DecompilerOutputUtil.getMaxJSLLevel());
+		parser.setCompilerOptions(DecompilerOutputUtil.getParserOptions());
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setSource(code.toCharArray());
+		CompilationUnit unit = (CompilationUnit) parser.createAST(null);
+		for (IProblem problem : unit.getProblems()) {
+			if (problem.isError()) {
+				return code;
+			}
+		}
 
+		final ASTRewrite rewrite = ASTRewrite.create(unit.getAST());
+		final MemberComparator comparator = new MemberComparator(memberOrder);
+		unit.accept(new ASTVisitor() {
+
+			@Override
+			public boolean preVisit2(ASTNode node) {
+				if (node instanceof CompilationUnit) {
+					sort(rewrite, node, CompilationUnit.TYPES_PROPERTY, comparator);
+				} else if (node instanceof AbstractTypeDeclaration) {
+					// classes, interfaces, enums, annotations and records
+					sort(rewrite, node, ((AbstractTypeDeclaration) node).getBodyDeclarationsProperty(), comparator);
+				} else if (node instanceof AnonymousClassDeclaration) {
+					sort(rewrite, node, AnonymousClassDeclaration.BODY_DECLARATIONS_PROPERTY, comparator);
+				}
+				return true;
+			}
+		});
+
+		Document document = new Document(code);
 		try {
-			if (!sourceRootFragment.getJavaProject().isOpen()) {
-				sourceRootFragment.getJavaProject().open(null);
+			TextEdit edit = rewrite.rewriteAST(document, null);
+			edit.apply(document);
+		} catch (BadLocationException e) {
+			JavaDecompilerPlugin.logError(e, ""); //$NON-NLS-1$
+			return code;
+		}
+		return document.get();
+	}
+
+	private static void sort(ASTRewrite rewrite, ASTNode parent, ChildListPropertyDescriptor property,
+			Comparator<BodyDeclaration> comparator) {
+		@SuppressWarnings("unchecked")
+		List<BodyDeclaration> members = (List<BodyDeclaration>) parent.getStructuralProperty(property);
+		if (members.size() < 2) {
+			return;
+		}
+		for (int i = 0; i < members.size(); i++) {
+			members.get(i).setProperty(RELATIVE_ORDER, Integer.valueOf(i));
+		}
+		List<BodyDeclaration> sorted = new ArrayList<>(members);
+		Collections.sort(sorted, comparator);
+
+		ListRewrite listRewrite = rewrite.getListRewrite(parent, property);
+		for (int i = 0; i < members.size(); i++) {
+			BodyDeclaration member = members.get(i);
+			BodyDeclaration sortedMember = sorted.get(i);
+			if (member != sortedMember) {
+				listRewrite.replace(member, rewrite.createMoveTarget(sortedMember), null);
 			}
+		}
+	}
+
+	/**
+	 * The order of JDT's Sort Members, see
+	 * <code>SortMembersOperation.DefaultJavaElementComparator</code>, with the
+	 * fields, enum constants and initializers keeping their relative order.
+	 */
+	private static class MemberComparator implements Comparator<BodyDeclaration> {
+
+		private final MembersOrderPreferenceCache memberOrder;
 
-			if (!sourceRootFragment.getPackageFragment(packageName).exists()) {
-				sourceRootFragment.createPackageFragment(packageName, false, null);
+		private final Collator collator = Collator.getInstance();
+
+		MemberComparator(MembersOrderPreferenceCache memberOrder) {
+			this.memberOrder = memberOrder;
+		}
+
+		private int category(BodyDeclaration member) {
+			switch (member.getNodeType()) {
+			case ASTNode.METHOD_DECLARATION:
+				if (((MethodDeclaration) member).isConstructor()) {
+					return MembersOrderPreferenceCache.CONSTRUCTORS_INDEX;
+				}
+				return Modifier.isStatic(member.getModifiers()) ? MembersOrderPreferenceCache.STATIC_METHODS_INDEX
+						: MembersOrderPreferenceCache.METHOD_INDEX;
+			case ASTNode.FIELD_DECLARATION:
+				return JdtFlags.isStatic(member) ? MembersOrderPreferenceCache.STATIC_FIELDS_INDEX
+						: MembersOrderPreferenceCache.FIELDS_INDEX;
+			case ASTNode.INITIALIZER:
+				return Modifier.isStatic(member.getModifiers()) ? MembersOrderPreferenceCache.STATIC_INIT_INDEX
+						: MembersOrderPreferenceCache.INIT_INDEX;
+			case ASTNode.ENUM_CONSTANT_DECLARATION:
+				return MembersOrderPreferenceCache.ENUM_CONSTANTS_INDEX;
+			case ASTNode.ANNOTATION_TYPE_MEMBER_DECLARATION:
+				return MembersOrderPreferenceCache.METHOD_INDEX;
+			default:
+				return MembersOrderPreferenceCache.TYPE_INDEX;
 			}
+		}
 
-			IPackageFragment packageFragment = sourceRootFragment.getPackageFragment(packageName);
-			IProject project = sourceRootFragment.getJavaProject().getProject();
-			IFolder sourceFolder = project.getFolder("src"); //$NON-NLS-1$
+		/**
+		 * Fields and initializers keep their order, so they share a category.
+		 */
+		private int preservedCategory(int category) {
+			switch (category) {
+			case MembersOrderPreferenceCache.STATIC_INIT_INDEX:
+				return MembersOrderPreferenceCache.STATIC_FIELDS_INDEX;
+			case MembersOrderPreferenceCache.INIT_INDEX:
+				return MembersOrderPreferenceCache.FIELDS_INDEX;
+			default:
+				return category;
+			}
+		}
 
-			long time = System.currentTimeMillis();
+		private boolean isPreserved(BodyDeclaration member) {
+			int type = member.getNodeType();
+			return type == ASTNode.FIELD_DECLARATION || type == ASTNode.ENUM_CONSTANT_DECLARATION
+					|| type == ASTNode.INITIALIZER;
+		}
 
-			String javaName = className.replaceAll("(?i)\\.class", //$NON-NLS-1$
-					time + ".java"); //$NON-NLS-1$
-			File locationFile = new File(sourceFolder.getFile(javaName).getLocation().toString());
+		@Override
+		public int compare(BodyDeclaration member1, BodyDeclaration member2) {
+			boolean preserved = isPreserved(member1);
+			int category1 = category(member1);
+			int category2 = category(member2);
+			if (preserved) {
+				category1 = preservedCategory(category1);
+			}
+			if (isPreserved(member2)) {
+				category2 = preservedCategory(category2);
+			}
+			if (category1 != category2) {
+				return memberOrder.getCategoryIndex(category1) - memberOrder.getCategoryIndex(category2);
+			}
+			if (preserved) {
+				return compareOrder(member1, member2);
+			}
 
-			IFile javaFile = sourceFolder.getFile(javaName);
+			if (memberOrder.isSortByVisibility()) {
+				int visibility = memberOrder.getVisibilityIndex(JdtFlags.getVisibilityCode(member1))
+						- memberOrder.getVisibilityIndex(JdtFlags.getVisibilityCode(member2));
+				if (visibility != 0) {
+					return visibility;
+				}
+			}
 
-			if (!locationFile.getParentFile().exists()) {
-				locationFile.getParentFile().mkdirs();
+			// the same category, so both are methods, annotation members or types
+			if (member1 instanceof MethodDeclaration && member2 instanceof MethodDeclaration) {
+				return compareMethods((MethodDeclaration) member1, (MethodDeclaration) member2);
 			}
+			return compareNames(member1, member2, getName(member1), getName(member2));
+		}
 
-			try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(locationFile, false)))) {
-				writer.println(code);
+		/**
+		 * Methods are sorted by name, then by the types of their parameters.
+		 */
+		private int compareMethods(MethodDeclaration method1, MethodDeclaration method2) {
+			int cmp = collator.compare(method1.getName().getIdentifier(), method2.getName().getIdentifier());
+			if (cmp != 0) {
+				return cmp;
+			}
+			List<?> parameters1 = method1.parameters();
+			List<?> parameters2 = method2.parameters();
+			int length = Math.min(parameters1.size(), parameters2.size());
+			for (int i = 0; i < length; i++) {
+				cmp = collator.compare(((SingleVariableDeclaration) parameters1.get(i)).getType().toString(),
+						((SingleVariableDeclaration) parameters2.get(i)).getType().toString());
+				if (cmp != 0) {
+					return cmp;
+				}
+			}
+			if (parameters1.size() != parameters2.size()) {
+				return parameters1.size() - parameters2.size();
 			}
+			return compareOrder(method1, method2);
+		}
 
-			javaFile.refreshLocal(0, null);
+		private int compareNames(BodyDeclaration member1, BodyDeclaration member2, String name1, String name2) {
+			int cmp = collator.compare(name1, name2);
+			if (cmp != 0) {
+				return cmp;
+			}
+			return compareOrder(member1, member2);
+		}
 
-			ICompilationUnit iCompilationUnit = packageFragment.getCompilationUnit(locationFile.getName());
-			iCompilationUnit.makeConsistent(null);
-			iCompilationUnit.getResource().setLocalTimeStamp(new Date().getTime());
-			iCompilationUnit.becomeWorkingCopy(null);
-			new SortMembersOperation(iCompilationUnit, null, true).run(null);
-			iCompilationUnit.commitWorkingCopy(true, null);
-			iCompilationUnit.save(null, true);
-			String content = iCompilationUnit.getSource();
-			iCompilationUnit.delete(true, null);
-			iCompilationUnit.destroy();
-			if (content != null)
-				code = content;
-			packageFragment.getJavaProject().close();
-		} catch (IOException e) {
-			JavaDecompilerPlugin.logError(e, ""); //$NON-NLS-1$
-		} catch (CoreException e) {
-			JavaDecompilerPlugin.logError(e, ""); //$NON-NLS-1$
+		private int compareOrder(BodyDeclaration member1, BodyDeclaration member2) {
+			return ((Integer) member1.getProperty(RELATIVE_ORDER)).intValue()
+					- ((Integer) member2.getProperty(RELATIVE_ORDER)).intValue();
 		}
-		return code;
-	}
 
-	public static void deleteDecompilerProject() {
-		IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
-		IProject project = root.getProject(".decompiler"); //$NON-NLS-1$
-		if (project != null && project.exists()) {
-			try {
-				project.delete(true, true, null);
-			} catch (CoreException e) {
-				JavaDecompilerPlugin.logError(e, ""); //$NON-NLS-1$
+		private String getName(BodyDeclaration member) {
+			if (member instanceof AnnotationTypeMemberDeclaration) {
+				return ((AnnotationTypeMemberDeclaration) member).getName().getIdentifier();
+			}
+			if (member instanceof AbstractTypeDeclaration) {
+				return ((AbstractTypeDeclaration) member).getName().getIdentifier();
 			}
+			return ""; //$NON-NLS-1$
 		}
 	}
 
-	public static IPackageFragmentRoot getDecompilerSourceFolder() {
+	/**
+	 * Deletes the project earlier versions sorted the members in.
+	 */
+	public static void deleteDecompilerProject() {
 		IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
 		IProject project = root.getProject(".decompiler"); //$NON-NLS-1$
-		if (project == null)
-			return null;
-		if (!project.exists()) {
-			try {
-				project.create(null);
-				project.open(null);
-				IProjectDescription description = project.getDescription();
-				String[] natures = description.getNatureIds();
-				String[] newNatures = new String[natures.length + 1];
-				System.arraycopy(natures, 0, newNatures, 0, natures.length);
-				newNatures[natures.length] = JavaCore.NATURE_ID;
-				description.setNatureIds(newNatures);
-				project.setDescription(description, null);
-			} catch (CoreException e1) {
-				JavaDecompilerPlugin.logError(e1, ""); //$NON-NLS-1$
-				return null;
-			}
-
-			if (!project.isOpen())
-				return null;
-		} else if (!project.isOpen()) {
+		if (project != null && project.exists()) {
 			try {
-				project.open(null);
+				project.delete(true, true, null);
 			} catch (CoreException e) {
 				JavaDecompilerPlugin.logError(e, ""); //$NON-NLS-1$
-				return null;
 			}
 		}
-
-		if (decompilerSourceFolder != null)
-			return decompilerSourceFolder;
-
-		IJavaProject javaProject = JavaCore.create(project);
-
-		try {
-			List<IClasspathEntry> entries = new ArrayList<>();
-			IVMInstall vmInstall = JavaRuntime.getDefaultVMInstall();
-			LibraryLocation[] locations = JavaRuntime.getLibraryLocations(vmInstall);
-			for (LibraryLocation element : locations) {
-				entries.add(JavaCore.newLibraryEntry(element.getSystemLibraryPath(), null, null));
-			}
-			// add libs to project class path
-			javaProject.setRawClasspath(entries.toArray(new IClasspathEntry[entries.size()]), null);
-
-			IFolder sourceFolder = project.getFolder("src"); //$NON-NLS-1$
-			sourceFolder.create(false, true, null);
-
-			IPackageFragmentRoot codeGenFolder = javaProject.getPackageFragmentRoot(sourceFolder);
-			IClasspathEntry[] oldEntries = javaProject.getRawClasspath();
-			IClasspathEntry[] newEntries = new IClasspathEntry[oldEntries.length + 1];
-			System.arraycopy(oldEntries, 0, newEntries, 0, oldEntries.length);
-			newEntries[oldEntries.length] = JavaCore.newSourceEntry(codeGenFolder.getPath());
-			javaProject.setRawClasspath(newEntries, null);
-			javaProject.open(null);
-			decompilerSourceFolder = javaProject.getPackageFragmentRoot(sourceFolder);
-			return decompilerSourceFolder;
-		} catch (CoreException e) {
-			JavaDecompilerPlugin.logError(e, ""); //$NON-NLS-1$
-		}
-		return null;
 	}
 }
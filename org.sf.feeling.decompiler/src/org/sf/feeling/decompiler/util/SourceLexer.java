@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Cleans up the output of a decompiler in a single pass: decodes the unicode
+ * escapes and removes the block comments the decompiler wrote, while string
+ * literals, character literals, text blocks and line comments are left alone.
+ * Line number comments like <code>/* 12 *&#47;</code> can be kept for the
+ * realignment and the line number display.
+ * <p>
+ * Comments and literals are recognized in the source as written, i.e. a
+ * delimiter written as a unicode escape does not start or end one. Escapes of
+ * characters which would change the meaning of the source, e.g. of a quote
+ * inside a string literal, are not decoded.
+ */
+public class SourceLexer {
+
+	/**
+	 * Line number comments like <code>/* 12 *&#47;</code>, also empty ones.
+	 */
+	public static final Pattern LINE_NUMBER_COMMENT = Pattern.compile("/\\*\\s*\\d*\\s*\\*/"); //$NON-NLS-1$
+
+	/**
+	 * Decodes the unicode escapes of the source.
+	 */
+	public static String decode(String source) {
+		return process(source, true, null, null);
+	}
+
+	/**
+	 * @param decode whether to decode the unicode escapes
+	 * @param keep   comments matching this pattern stay in the source, e.g.
+	 *               {@link #LINE_NUMBER_COMMENT}, ignored if no log is given
+	 * @param log    receives the text of the removed comments, one comment per
+	 *               line; if <code>null</code> no comment is removed
+	 * @return the processed source
+	 */
+	public static String process(String source, boolean decode, Pattern keep, StringBuilder log) {
+		return process(source, decode, keep, log, null);
+	}
+
+	/**
+	 * Like {@link #process(String, boolean, Pattern, StringBuilder)}, and moves
+	 * the decompiled lines of the line mapping along with the comments removed.
+	 *
+	 * @param lineMapping pairs of original and decompiled line number, see
+	 *                    {@link LineMappingUtil}, updated in place; may be
+	 *                    <code>null</code>
+	 */
+	public static String process(String source, boolean decode, Pattern keep, StringBuilder log,
+			int[] lineMapping) {
+		if (source == null) {
+			return null;
+		}
+		int length = source.length();
+		StringBuilder out = new StringBuilder(length);
+		// start of the text not yet appended
+		int pending = 0;
+		// line of the index up to which the line breaks are counted
+		int line = 1;
+		int counted = 0;
+		List<int[]> removedLines = new ArrayList<>();
+		int i = 0;
+		while (i < length) {
+			char c = source.charAt(i);
+			char next = i + 1 < length ? source.charAt(i + 1) : 0;
+			int end;
+			if (c == '/' && next == '*') {
+				int close = source.indexOf("*/", i + 2); //$NON-NLS-1$
+				end = close == -1 ? length : close + 2;
+				if (log != null && close != -1) {
+					String comment = source.substring(i, end);
+					if (keep == null || !keep.matcher(comment).matches()) {
+						append(out, source, pending, i, decode);
+						extractComment(comment, decode, log);
+						pending = end;
+						if (lineMapping != null) {
+							line += countLines(source, counted, i);
+							counted = i;
+							int lines = countLines(source, i, end);
+							if (lines > 0) {
+								removedLines.add(new int[] { line, lines });
+							}
+						}
+					}
+				}
+			} else if (c == '/' && next == '/') {
+				end = source.indexOf('\n', i + 2);
+				end = end == -1 ? length : end;
+			} else if (c == '"') {
+				end = source.startsWith("\"\"\"", i) ? skipLiteral(source, i + 3, "\"\"\"") //$NON-NLS-1$ //$NON-NLS-2$
+						: skipLiteral(source, i + 1, "\""); //$NON-NLS-1$
+			} else if (c == '\'') {
+				end = skipLiteral(source, i + 1, "'"); //$NON-NLS-1$
+			} else {
+				end = i + 1;
+			}
+			i = end;
+		}
+		append(out, source, pending, length, decode);
+		LineMappingUtil.removeLines(lineMapping, removedLines);
+		return out.toString();
+	}
+
+	private static int countLines(String source, int start, int end) {
+		int lines = 0;
+		for (int i = start; i < end; i++) {
+			if (source.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * @param start index after the opening delimiter
+	 * @return the index after the closing delimiter, or the end of the line of
+	 *         an unterminated string or character literal
+	 */
+	private static int skipLiteral(String source, int start, String delimiter) {
+		boolean textBlock = delimiter.length() > 1;
+		int length = source.length();
+		int i = start;
+		while (i < length) {
+			char c = source.charAt(i);
+			if (c == '\\') {
+				i += 2;
+			} else if (source.startsWith(delimiter, i)) {
+				return i + delimiter.length();
+			} else if (c == '\n' && !textBlock) {
+				return i;
+			} else {
+				i++;
+			}
+		}
+		return length;
+	}
+
+	private static void extractComment(String comment, boolean decode, StringBuilder log) {
+		if (log.length() > 0) {
+			log.append('\n');
+		}
+		int start = log.length();
+		append(log, comment, 2, comment.length() - 2, decode);
+		for (int i = log.length() - 1; i >= start; i--) {
+			if (log.charAt(i) == '*') {
+				log.deleteCharAt(i);
+			}
+		}
+	}
+
+	/**
+	 * Appends the text between the indices, decoding its unicode escapes if
+	 * requested.
+	 */
+	private static void append(StringBuilder out, String source, int start, int end, boolean decode) {
+		int i = start;
+		while (decode && i < end) {
+			int backslash = source.indexOf('\\', i);
+			if (backslash == -1 || backslash >= end) {
+				break;
+			}
+			// only a backslash preceded by an even number of backslashes starts an
+			// escape
+			int run = backslash;
+			while (run < end && source.charAt(run) == '\\') {
+				run++;
+			}
+			int escape = run - 1;
+			out.append(source, i, escape);
+			i = escape + 1;
+			if ((escape - backslash) % 2 != 0) {
+				out.append('\\');
+				continue;
+			}
+			int digits = i;
+			while (digits < end && source.charAt(digits) == 'u') {
+				digits++;
+			}
+			int value = digits > i && digits + 4 <= end ? parseHex(source, digits) : -1;
+			if (value != -1 && isDecodable((char) value)) {
+				out.append((char) value);
+				i = digits + 4;
+			} else {
+				out.append('\\');
+			}
+		}
+		out.append(source, i, end);
+	}
+
+	/**
+	 * @return the value of the four hex digits at the index, or -1
+	 */
+	private static int parseHex(String source, int index) {
+		int value = 0;
+		for (int i = index; i < index + 4; i++) {
+			int digit = Character.digit(source.charAt(i), 16);
+			if (digit == -1) {
+				return -1;
+			}
+			value = value * 16 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * @return <code>false</code> for characters which would end a literal or a
+	 *         comment, or start one, if written unescaped
+	 */
+	private static boolean isDecodable(char c) {
+		switch (c) {
+		case '"':
+		case '\'':
+		case '\\':
+		case '\n':
+		case '\r':
+		case '/':
+		case '*':
+			return false;
+		default:
+			return true;
+		}
+	}
+}
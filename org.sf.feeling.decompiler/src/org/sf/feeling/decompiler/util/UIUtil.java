@@ -130,6 +130,10 @@ public class UIUtil {
 	}
 
 	public static String getActivePerspectiveId() {
+		// e.g. in the headless batch decompiler
+		if (!PlatformUI.isWorkbenchRunning()) {
+			return null;
+		}
 		final String[] ids = new String[1];
 		Display.getDefault().syncExec(new Runnable() {
 
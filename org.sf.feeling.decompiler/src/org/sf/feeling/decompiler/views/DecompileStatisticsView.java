@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Chen Chao and other ECD project contributors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.sf.feeling.decompiler.views;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.action.IMenuManager;
+import org.eclipse.jface.action.IToolBarManager;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.ITreeContentProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TreeViewer;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Tree;
+import org.eclipse.swt.widgets.TreeColumn;
+import org.eclipse.ui.IActionBars;
+import org.eclipse.ui.part.ViewPart;
+import org.sf.feeling.decompiler.i18n.Messages;
+import org.sf.feeling.decompiler.util.DecompileMetrics;
+import org.sf.feeling.decompiler.util.DecompileMetrics.Phase;
+import org.sf.feeling.decompiler.util.DecompileMetrics.Statistics;
+
+/**
+ * Shows the {@link DecompileMetrics} collected since the start or the last
+ * reset: the duration of each phase of opening a class file per decompiler or
+ * per library, with a histogram of the durations.
+ */
+public class DecompileStatisticsView extends ViewPart {
+
+	public static final String ID = "org.sf.feeling.decompiler.statistics"; //$NON-NLS-1$
+
+	private static final String HISTOGRAM_BARS = " \u2581\u2582\u2583\u2584\u2585\u2586\u2587\u2588"; //$NON-NLS-1$
+
+	/**
+	 * Phases of a decompiler or library.
+	 */
+	private static class Group {
+
+		private final String name;
+		private final List<PhaseRow> phases = new ArrayList<>();
+
+		Group(String name, Map<Phase, Statistics> statistics) {
+			this.name = name;
+			for (Map.Entry<Phase, Statistics> entry : statistics.entrySet()) {
+				phases.add(new PhaseRow(entry.getKey(), entry.getValue()));
+			}
+		}
+
+		long getTotalNanos() {
+			long total = 0;
+			for (PhaseRow phase : phases) {
+				total += phase.statistics.getTotalNanos();
+			}
+			return total;
+		}
+	}
+
+	private static class PhaseRow {
+
+		private final Phase phase;
+		private final Statistics statistics;
+
+		PhaseRow(Phase phase, Statistics statistics) {
+			this.phase = phase;
+			this.statistics = statistics;
+		}
+	}
+
+	private static class StatisticsContentProvider implements ITreeContentProvider {
+
+		@Override
+		public Object[] getElements(Object inputElement) {
+			return ((List<?>) inputElement).toArray();
+		}
+
+		@Override
+		public Object[] getChildren(Object parentElement) {
+			if (parentElement instanceof Group) {
+				return ((Group) parentElement).phases.toArray();
+			}
+			return new Object[0];
+		}
+
+		@Override
+		public Object getParent(Object element) {
+			return null;
+		}
+
+		@Override
+		public boolean hasChildren(Object element) {
+			return element instanceof Group;
+		}
+
+		@Override
+		public void dispose() {
+		}
+
+		@Override
+		public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+		}
+	}
+
+	private static class StatisticsLabelProvider extends LabelProvider implements ITableLabelProvider {
+
+		@Override
+		public Image getColumnImage(Object element, int columnIndex) {
+			return null;
+		}
+
+		@Override
+		public String getColumnText(Object element, int columnIndex) {
+			if (element instanceof Group) {
+				Group group = (Group) element;
+				switch (columnIndex) {
+				case 0:
+					return group.name;
+				case 2:
+					return formatMillis(group.getTotalNanos());
+				default:
+					return ""; //$NON-NLS-1$
+				}
+			}
+			PhaseRow row = (PhaseRow) element;
+			Statistics statistics = row.statistics;
+			switch (columnIndex) {
+			case 0:
+				return Messages.getString("DecompileStatisticsView.Phase." + row.phase.name()); //$NON-NLS-1$
+			case 1:
+				return String.valueOf(statistics.getCount());
+			case 2:
+				return formatMillis(statistics.getTotalNanos());
+			case 3:
+				return formatMillis(statistics.getTotalNanos() / Math.max(1, statistics.getCount()));
+			case 4:
+				return String.valueOf(statistics.getPercentileMillis(50));
+			case 5:
+				return String.valueOf(statistics.getPercentileMillis(95));
+			case 6:
+				return formatMillis(statistics.getMaxNanos());
+			case 7:
+				return getHistogram(statistics.getBuckets());
+			default:
+				return ""; //$NON-NLS-1$
+			}
+		}
+
+		private static String formatMillis(long nanos) {
+			return String.format("%.1f", nanos / 1000000.0); //$NON-NLS-1$
+		}
+
+		/**
+		 * @return a bar per bucket, its height relative to the largest bucket
+		 */
+		private static String getHistogram(long[] buckets) {
+			long max = 0;
+			for (long bucket : buckets) {
+				max = Math.max(max, bucket);
+			}
+			StringBuilder histogram = new StringBuilder();
+			int levels = HISTOGRAM_BARS.length() - 1;
+			for (long bucket : buckets) {
+				int level = max == 0 ? 0 : (int) Math.ceil(bucket * levels / (double) max);
+				histogram.append(HISTOGRAM_BARS.charAt(level));
+			}
+			return histogram.toString();
+		}
+	}
+
+	private TreeViewer viewer;
+	private boolean byLibrary;
+
+	@Override
+	public void createPartControl(Composite parent) {
+		viewer = new TreeViewer(parent, SWT.FULL_SELECTION | SWT.H_SCROLL | SWT.V_SCROLL);
+		Tree tree = viewer.getTree();
+		tree.setHeaderVisible(true);
+		tree.setLinesVisible(true);
+
+		long[] bounds = DecompileMetrics.getBucketBounds();
+		createColumn(Messages.getString("DecompileStatisticsView.Column.Name"), 200, SWT.LEFT); //$NON-NLS-1$
+		createColumn(Messages.getString("DecompileStatisticsView.Column.Count"), 70, SWT.RIGHT); //$NON-NLS-1$
+		createColumn(Messages.getString("DecompileStatisticsView.Column.Total"), 90, SWT.RIGHT); //$NON-NLS-1$
+		createColumn(Messages.getString("DecompileStatisticsView.Column.Mean"), 80, SWT.RIGHT); //$NON-NLS-1$
+		createColumn(Messages.getString("DecompileStatisticsView.Column.P50"), 80, SWT.RIGHT); //$NON-NLS-1$
+		createColumn(Messages.getString("DecompileStatisticsView.Column.P95"), 80, SWT.RIGHT); //$NON-NLS-1$
+		createColumn(Messages.getString("DecompileStatisticsView.Column.Max"), 80, SWT.RIGHT); //$NON-NLS-1$
+		createColumn(Messages.getFormattedString("DecompileStatisticsView.Column.Histogram", //$NON-NLS-1$
+				new Object[] { String.valueOf(bounds[0]), String.valueOf(bounds[bounds.length - 1]) }), 180,
+				SWT.LEFT);
+
+		viewer.setContentProvider(new StatisticsContentProvider());
+		viewer.setLabelProvider(new StatisticsLabelProvider());
+
+		IActionBars actionBars = getViewSite().getActionBars();
+		fillToolBar(actionBars.getToolBarManager());
+		fillMenu(actionBars.getMenuManager());
+
+		refresh();
+	}
+
+	private void createColumn(String text, int width, int style) {
+		TreeColumn column = new TreeColumn(viewer.getTree(), style);
+		column.setText(text);
+		column.setWidth(width);
+	}
+
+	private void fillToolBar(IToolBarManager manager) {
+		manager.add(new Action(Messages.getString("DecompileStatisticsView.Action.Refresh")) { //$NON-NLS-1$
+
+			@Override
+			public void run() {
+				refresh();
+			}
+		});
+		manager.add(new Action(Messages.getString("DecompileStatisticsView.Action.Reset")) { //$NON-NLS-1$
+
+			@Override
+			public void run() {
+				DecompileMetrics.reset();
+				refresh();
+			}
+		});
+	}
+
+	private void fillMenu(IMenuManager manager) {
+		IAction byDecompiler = new Action(Messages.getString("DecompileStatisticsView.Action.ByDecompiler"), //$NON-NLS-1$
+				IAction.AS_RADIO_BUTTON) {
+
+			@Override
+			public void run() {
+				if (isChecked()) {
+					byLibrary = false;
+					refresh();
+				}
+			}
+		};
+		byDecompiler.setChecked(true);
+		IAction byLibraryAction = new Action(Messages.getString("DecompileStatisticsView.Action.ByLibrary"), //$NON-NLS-1$
+				IAction.AS_RADIO_BUTTON) {
+
+			@Override
+			public void run() {
+				if (isChecked()) {
+					byLibrary = true;
+					refresh();
+				}
+			}
+		};
+		manager.add(byDecompiler);
+		manager.add(byLibraryAction);
+	}
+
+	private void refresh() {
+		if (viewer == null || viewer.getControl().isDisposed()) {
+			return;
+		}
+		List<Group> groups = new ArrayList<>();
+		for (Map.Entry<String, Map<Phase, Statistics>> entry : DecompileMetrics.getStatistics(byLibrary).entrySet()) {
+			groups.add(new Group(entry.getKey(), entry.getValue()));
+		}
+		Object[] expanded = viewer.getExpandedElements();
+		viewer.setInput(groups);
+		for (Object element : expanded) {
+			for (Group group : groups) {
+				if (group.name.equals(((Group) element).name)) {
+					viewer.setExpandedState(group, true);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void setFocus() {
+		refresh();
+		viewer.getControl().setFocus();
+	}
+}